@@ -0,0 +1,270 @@
+/**
+ *
+ */
+package inference;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import simulators.ContactEngine;
+import simulators.PlaceDependentRateModel;
+import utilities.DeviceIndex;
+import utilities.WaypointColumns;
+
+/**
+ * Accuracy of an inference function over many simulated replicates of one
+ * waypoint file, without writing SOURCES and TARGETS files.
+ *
+ * Each replicate chooses its sources and simulates its targets as MainClass
+ * does, from its own seed, on the waypoints loaded once and shared read-only.
+ * Replicates run in parallel, and the inference function is applied to the
+ * targets of each; the sources it returns are compared with the true ones.
+ * Precision and recall are averaged over replicates, with normal confidence
+ * intervals.
+ */
+public final class InferenceEvaluation {
+
+	static final double Z95 = 1.959964; // two-sided 95% normal quantile
+
+	private final WaypointColumns waypoints;
+	private final DeviceIndex devices;
+	private final int numMobileIDs, numPlaces;
+	private final double width, meanProbability, sourceRate;
+	private final long placeSeed;
+
+	/**
+	 * Infers sources from targets; must be safe to call from several threads.
+	 */
+	@FunctionalInterface
+	public interface Inferrer {
+		Set<Integer> infer(Set<Integer> targets);
+	}
+
+	/**
+	 * True and inferred sources of one replicate.
+	 */
+	public static final class Replicate {
+		private final Set<Integer> sources, targets;
+		private Set<Integer> inferred;
+
+		Replicate(Set<Integer> sources, Set<Integer> targets) {
+			this.sources = sources;
+			this.targets = targets;
+			this.inferred = null;
+		}
+
+		public Set<Integer> getSources() {
+			return sources;
+		}
+
+		public Set<Integer> getTargets() {
+			return targets;
+		}
+
+		/**
+		 * @return sources returned by the inference function; null before it is
+		 *         applied
+		 */
+		public Set<Integer> getInferred() {
+			return inferred;
+		}
+
+		/**
+		 * @return number of inferred sources which are true sources
+		 */
+		public int truePositives() {
+			return (int) this.inferred.stream().filter(this.sources::contains).count();
+		}
+
+		/**
+		 * @return fraction of the inferred sources which are true; NaN if none were
+		 *         inferred
+		 */
+		public double precision() {
+			return this.inferred.isEmpty() ? Double.NaN : (double) this.truePositives() / this.inferred.size();
+		}
+
+		/**
+		 * @return fraction of the true sources which were inferred; NaN if there are
+		 *         none
+		 */
+		public double recall() {
+			return this.sources.isEmpty() ? Double.NaN : (double) this.truePositives() / this.sources.size();
+		}
+	}
+
+	/**
+	 * Mean and confidence interval of precision and recall.
+	 */
+	public static final class Summary {
+		private final int replicates;
+		private final double[] precision, recall; // mean, half width of the 95% interval, number averaged
+		private final long truePositives, inferred, sources;
+
+		Summary(List<Replicate> replicates) {
+			this.replicates = replicates.size();
+			this.precision = meanAndHalfWidth(replicates.stream().mapToDouble(Replicate::precision).toArray());
+			this.recall = meanAndHalfWidth(replicates.stream().mapToDouble(Replicate::recall).toArray());
+			this.truePositives = replicates.stream().mapToLong(Replicate::truePositives).sum();
+			this.inferred = replicates.stream().mapToLong(r -> r.getInferred().size()).sum();
+			this.sources = replicates.stream().mapToLong(r -> r.getSources().size()).sum();
+		}
+
+		/*
+		 * Mean, half width of the normal 95% interval, and count, of the values which
+		 * are not NaN
+		 */
+		private static double[] meanAndHalfWidth(double[] values) {
+			double sum = 0.0, sumOfSquares = 0.0;
+			int n = 0;
+			for (double x : values) {
+				if (!Double.isNaN(x)) {
+					sum += x;
+					sumOfSquares += x * x;
+					n++;
+				}
+			}
+			if (n == 0) {
+				return new double[] { Double.NaN, Double.NaN, 0 };
+			}
+			double mean = sum / n;
+			double variance = (n > 1) ? Math.max(0.0, (sumOfSquares - n * mean * mean) / (n - 1)) : Double.NaN;
+			return new double[] { mean, Z95 * Math.sqrt(variance / n), n };
+		}
+
+		public int getReplicates() {
+			return replicates;
+		}
+
+		public double meanPrecision() {
+			return this.precision[0];
+		}
+
+		/**
+		 * @return half width of the 95% confidence interval of meanPrecision()
+		 */
+		public double precisionHalfWidth() {
+			return this.precision[1];
+		}
+
+		public double meanRecall() {
+			return this.recall[0];
+		}
+
+		/**
+		 * @return half width of the 95% confidence interval of meanRecall()
+		 */
+		public double recallHalfWidth() {
+			return this.recall[1];
+		}
+
+		/**
+		 * @return precision over all replicates pooled; NaN if no sources were
+		 *         inferred in any replicate
+		 */
+		public double pooledPrecision() {
+			return (this.inferred == 0) ? Double.NaN : (double) this.truePositives / this.inferred;
+		}
+
+		/**
+		 * @return recall over all replicates pooled; NaN if no replicate has sources
+		 */
+		public double pooledRecall() {
+			return (this.sources == 0) ? Double.NaN : (double) this.truePositives / this.sources;
+		}
+
+		/*
+		 * Four decimals, or n/a for a value which is not defined
+		 */
+		private static String format(double x) {
+			return Double.isNaN(x) ? "n/a" : String.format("%.4f", x);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d replicates: precision %s +/- %s (over %d), recall %s +/- %s (over %d);"
+							+ " pooled precision %s, pooled recall %s",
+					this.replicates, format(this.precision[0]), format(this.precision[1]), (int) this.precision[2],
+					format(this.recall[0]), format(this.recall[1]), (int) this.recall[2],
+					format(this.pooledPrecision()), format(this.pooledRecall()));
+		}
+	}
+
+	/**
+	 * @param waypoints       all waypoints, with dense mobileIDs and placeIDs
+	 * @param devices         device index of the waypoints
+	 * @param numMobileIDs    mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param numPlaces       placeIDs are 0, 1, ..., numPlaces - 1
+	 * @param width           sojourn width, in days
+	 * @param meanProbability mean infection probability of an exposure
+	 * @param placeSeed       seed of the place probabilities, the same for every
+	 *                        replicate
+	 * @param sourceRate      expected fraction of mobileIDs which are sources
+	 */
+	public InferenceEvaluation(WaypointColumns waypoints, DeviceIndex devices, int numMobileIDs, int numPlaces,
+			double width, double meanProbability, long placeSeed, double sourceRate) {
+		this.waypoints = waypoints;
+		this.devices = devices;
+		this.numMobileIDs = numMobileIDs;
+		this.numPlaces = numPlaces;
+		this.width = width;
+		this.meanProbability = meanProbability;
+		this.placeSeed = placeSeed;
+		this.sourceRate = sourceRate;
+	}
+
+	/**
+	 * Chooses sources and simulates targets, as MainClass does with
+	 * place-dependent probabilities.
+	 */
+	public Replicate simulate(long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		/*
+		 * Number of sources is Poisson(mu), approximated by rounding mu + Z*sqrt(mu)
+		 */
+		double mu = this.numMobileIDs * this.sourceRate;
+		int sourceNumber = (int) Math.max(0,
+				Math.min(this.numMobileIDs, Math.round(mu + Math.sqrt(mu) * gaussian(random))));
+		Set<Integer> sources = new HashSet<>();
+		while (sources.size() < sourceNumber) {
+			sources.add(Integer.valueOf(random.nextInt(this.numMobileIDs)));
+		}
+		ContactEngine engine = new ContactEngine(this.width, sources, this.waypoints, this.devices,
+				this.numMobileIDs, this.numPlaces);
+		PlaceDependentRateModel model = new PlaceDependentRateModel(this.meanProbability, this.placeSeed);
+		engine.registerModel(model);
+		engine.simulateInfections(random.nextLong());
+		return new Replicate(sources, engine.getInfectedMobileIDs(model));
+	}
+
+	/**
+	 * Simulates the replicates in parallel, and applies the inference function to
+	 * each.
+	 *
+	 * @param seed replicate i uses the i-th seed split from this one
+	 */
+	public Summary evaluate(int replicates, long seed, Inferrer inferrer) {
+		SplittableRandom root = new SplittableRandom(seed);
+		long[] seeds = new long[replicates];
+		for (int i = 0; i < replicates; i++) {
+			seeds[i] = root.nextLong();
+		}
+		List<Replicate> results = IntStream.range(0, replicates).parallel().mapToObj(i -> {
+			Replicate replicate = this.simulate(seeds[i]);
+			replicate.inferred = inferrer.infer(replicate.getTargets());
+			return replicate;
+		}).collect(Collectors.toList());
+		return new Summary(results);
+	}
+
+	private static double gaussian(SplittableRandom random) {
+		double u = random.nextDouble(), v = random.nextDouble();
+		return Math.sqrt(-2.0 * Math.log1p(-u)) * Math.cos(2.0 * Math.PI * v);
+	}
+
+}
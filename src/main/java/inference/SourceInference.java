@@ -0,0 +1,433 @@
+/**
+ *
+ */
+package inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import simulators.InfectionModel;
+import utilities.DeviceIndex;
+import utilities.SojournIndex;
+import utilities.WaypointColumns;
+
+/**
+ * The reverse direction of the simulation: given the targets infected by
+ * unknown sources, rank the devices most likely to be the sources.
+ *
+ * Model, as in ContactEngine: a device d which is not a source escapes
+ * infection with probability Prod (1 - p_v) over its exposures, one for each
+ * waypoint of d at place v inside the sojourn [t, t + w) of a source waypoint
+ * at v; a small background rate eps of infection covers targets which no
+ * candidate explains. A candidate c therefore contributes a log-escape
+ * L(c, d) <= 0 to each device d, and a set S of sources has log-likelihood
+ *
+ * sum over targets d of log(1 - (1 - eps) exp(E_d)) + sum over non-targets of E_d,
+ *
+ * with E_d = sum over c in S of L(c, d); each source also pays the log prior
+ * odds of a device being a source.
+ *
+ * The reverse index holds all waypoints by place and time (a SojournIndex in
+ * which every device is a source). The waypoints of each target, looked up in
+ * it, give the devices co-present with the target, and L(c, d) for every
+ * target d; the waypoints of each candidate give sum over all d of L(c, d), so
+ * the part on non-targets follows. Both passes are fork/join, over ranges of
+ * targets and of candidates.
+ *
+ * Sources are then selected greedily, adding the candidate with the largest
+ * gain of log-likelihood while that gain is positive. Gains only decrease as
+ * sources are added, so a gain computed earlier is an upper bound, and a
+ * candidate is scored again only when it reaches the top of the queue.
+ */
+public final class SourceInference {
+
+	/*
+	 * Below these sizes, a range of the scoring passes is not split further.
+	 */
+	static final int TARGETS_PER_TASK = 1 << 6;
+	static final int CANDIDATES_PER_TASK = 1 << 8;
+
+	private final WaypointColumns waypoints;
+	private final DeviceIndex devices;
+	private final SojournIndex everyone;
+	private final int numMobileIDs;
+	private final double[] logEscape; // log(1 - p_v), by place
+	private final double background, logPriorOdds;
+
+	/**
+	 * Selected sources and ranked candidates.
+	 */
+	public static final class Result {
+		private final int[] selected, ranking;
+		private final double[] selectedGains, rankingScores;
+
+		Result(int[] selected, double[] selectedGains, int[] ranking, double[] rankingScores) {
+			this.selected = selected;
+			this.selectedGains = selectedGains;
+			this.ranking = ranking;
+			this.rankingScores = rankingScores;
+		}
+
+		/**
+		 * @return mobileIDs selected as sources, in order of selection
+		 */
+		public int[] selected() {
+			return selected;
+		}
+
+		/**
+		 * @return gain of log-likelihood when each of selected() was added
+		 */
+		public double[] selectedGains() {
+			return selectedGains;
+		}
+
+		/**
+		 * @return every candidate (device co-present with a target), by decreasing
+		 *         score
+		 */
+		public int[] ranking() {
+			return ranking;
+		}
+
+		/**
+		 * @return gain of log-likelihood of each of ranking() as the only source
+		 */
+		public double[] rankingScores() {
+			return rankingScores;
+		}
+	}
+
+	/**
+	 * @param waypoints    all waypoints, with dense mobileIDs and placeIDs
+	 * @param devices      device index of the waypoints
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param numPlaces    placeIDs are 0, 1, ..., numPlaces - 1
+	 * @param width        sojourn width, in days, as in the simulation
+	 * @param model        infection probability of an exposure at each place
+	 * @param sourceRate   prior probability of a device being a source
+	 * @param background   probability of infection without any exposure, > 0
+	 */
+	public SourceInference(WaypointColumns waypoints, DeviceIndex devices, int numMobileIDs, int numPlaces,
+			double width, InfectionModel model, double sourceRate, double background) {
+		this.waypoints = waypoints;
+		this.devices = devices;
+		this.numMobileIDs = numMobileIDs;
+		this.everyone = new SojournIndex(waypoints, id -> true, width, numPlaces);
+		model.assignPlaceProbabilities(numPlaces);
+		this.logEscape = new double[numPlaces];
+		for (int v = 0; v < numPlaces; v++) {
+			this.logEscape[v] = Math.log1p(-model.infectionProbability(v));
+		}
+		this.background = background;
+		this.logPriorOdds = Math.log(sourceRate / (1.0 - sourceRate));
+		System.out.println("Reverse index built for " + this.everyone.size() + " waypoints.");
+	}
+
+	/**
+	 * @param targets    dense codes of the infected mobileIDs
+	 * @param maxSources most sources to select
+	 */
+	public Result infer(Set<Integer> targets, int maxSources) {
+		int[] targetList = targets.stream().mapToInt(Integer::intValue).sorted().toArray();
+		int[] targetIndex = new int[this.numMobileIDs];
+		Arrays.fill(targetIndex, -1);
+		for (int i = 0; i < targetList.length; i++) {
+			targetIndex[targetList[i]] = i;
+		}
+		/*
+		 * L(c, d) for every target d, grouped by candidate c with a stable counting
+		 * sort; targets were scanned in order, so each group is in target order and
+		 * repeated contacts with one target are adjacent.
+		 */
+		Triples triples = new TargetRangeTask(this, targetList, targetIndex, 0, targetList.length).invoke();
+		int[] offsets = new int[this.numMobileIDs + 1];
+		for (int i = 0; i < triples.size; i++) {
+			offsets[triples.candidates[i] + 1]++;
+		}
+		for (int c = 0; c < this.numMobileIDs; c++) {
+			offsets[c + 1] += offsets[c];
+		}
+		int[] next = Arrays.copyOf(offsets, this.numMobileIDs);
+		int[] rowTargets = new int[triples.size];
+		double[] rowLogs = new double[triples.size];
+		for (int i = 0; i < triples.size; i++) {
+			int j = next[triples.candidates[i]]++;
+			rowTargets[j] = triples.targets[i];
+			rowLogs[j] = triples.logs[i];
+		}
+		Rows rows = new Rows(offsets, rowTargets, rowLogs, this.numMobileIDs);
+		System.out.println(rows.candidates.length + " candidate sources are co-present with " + targetList.length
+				+ " targets.");
+		/*
+		 * Score of each candidate as the only source
+		 */
+		int k = rows.candidates.length;
+		double[] nonTargetLogs = new double[k], scores = new double[k];
+		double[] escape = new double[targetList.length]; // E_d, by target index
+		new CandidateRangeTask(this, rows, escape, nonTargetLogs, scores, 0, k).invoke();
+		Integer[] order = new Integer[k];
+		for (int i = 0; i < k; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, (a, b) -> (scores[a] != scores[b]) ? Double.compare(scores[b], scores[a])
+				: Integer.compare(rows.candidates[a], rows.candidates[b]));
+		int[] ranking = new int[k];
+		double[] rankingScores = new double[k];
+		for (int i = 0; i < k; i++) {
+			ranking[i] = rows.candidates[order[i]];
+			rankingScores[i] = scores[order[i]];
+		}
+		/*
+		 * Lazy greedy selection: gains[i] was computed when round[i] sources had been
+		 * selected, and is an upper bound of the current gain.
+		 */
+		double[] gains = scores.clone();
+		int[] round = new int[k];
+		PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(k, 1), (a, b) -> (gains[a] != gains[b])
+				? Double.compare(gains[b], gains[a]) : Integer.compare(rows.candidates[a], rows.candidates[b]));
+		for (int i = 0; i < k; i++) {
+			if (gains[i] > 0) {
+				queue.add(Integer.valueOf(i));
+			}
+		}
+		List<Integer> selected = new ArrayList<>();
+		List<Double> selectedGains = new ArrayList<>();
+		while (!queue.isEmpty() && selected.size() < maxSources) {
+			int i = queue.poll().intValue();
+			if (round[i] == selected.size()) {
+				for (int j = rows.offsets[i]; j < rows.offsets[i + 1]; j++) {
+					escape[rows.targets[j]] += rows.logs[j];
+				}
+				selected.add(Integer.valueOf(rows.candidates[i]));
+				selectedGains.add(Double.valueOf(gains[i]));
+			} else {
+				gains[i] = this.gain(rows, i, escape, nonTargetLogs[i]);
+				round[i] = selected.size();
+				if (gains[i] > 0) {
+					queue.add(Integer.valueOf(i));
+				}
+			}
+		}
+		System.out.println(selected.size() + " sources selected.");
+		return new Result(selected.stream().mapToInt(Integer::intValue).toArray(),
+				selectedGains.stream().mapToDouble(Double::doubleValue).toArray(), ranking, rankingScores);
+	}
+
+	/*
+	 * Gain of log-likelihood from adding candidate i, when the targets have
+	 * log-escapes E_d = escape[d]
+	 */
+	private double gain(Rows rows, int i, double[] escape, double nonTargetLog) {
+		double gain = this.logPriorOdds + nonTargetLog;
+		for (int j = rows.offsets[i]; j < rows.offsets[i + 1]; j++) {
+			double e = escape[rows.targets[j]];
+			gain += this.logInfected(e + rows.logs[j]) - this.logInfected(e);
+		}
+		return gain;
+	}
+
+	/*
+	 * log P(infected) for a device with log-escape e from its exposures
+	 */
+	private double logInfected(double e) {
+		return Math.log1p(-(1.0 - this.background) * Math.exp(e));
+	}
+
+	/*
+	 * Log-escape contributed by the waypoints of candidate c to all other devices
+	 */
+	private double totalLogEscape(int c) {
+		double total = 0.0;
+		double width = this.everyone.getWidth();
+		for (int r = this.devices.start(c); r < this.devices.end(c); r++) {
+			int row = this.devices.row(r);
+			int v = this.waypoints.placeID(row);
+			double t = this.waypoints.timeStamp(row);
+			int end = this.everyone.firstStartingFrom(v, t + width);
+			for (int j = this.everyone.firstStartingFrom(v, t); j < end; j++) {
+				if (this.everyone.sourceID(j) != c) {
+					total += this.logEscape[v];
+				}
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * (candidate, target index, log-escape) of each contact of a target waypoint
+	 * with a candidate sojourn
+	 */
+	private static final class Triples {
+		int[] candidates = new int[1 << 10];
+		int[] targets = new int[1 << 10];
+		double[] logs = new double[1 << 10];
+		int size;
+
+		void add(int candidate, int target, double log) {
+			if (this.size == this.candidates.length) {
+				this.grow(this.size + (this.size >> 1));
+			}
+			this.candidates[this.size] = candidate;
+			this.targets[this.size] = target;
+			this.logs[this.size] = log;
+			this.size++;
+		}
+
+		void addAll(Triples other) {
+			if (this.size + other.size > this.candidates.length) {
+				this.grow(this.size + other.size);
+			}
+			System.arraycopy(other.candidates, 0, this.candidates, this.size, other.size);
+			System.arraycopy(other.targets, 0, this.targets, this.size, other.size);
+			System.arraycopy(other.logs, 0, this.logs, this.size, other.size);
+			this.size += other.size;
+		}
+
+		private void grow(int capacity) {
+			this.candidates = Arrays.copyOf(this.candidates, capacity);
+			this.targets = Arrays.copyOf(this.targets, capacity);
+			this.logs = Arrays.copyOf(this.logs, capacity);
+		}
+	}
+
+	/*
+	 * Contacts of each candidate with the targets, in CSR layout over the
+	 * candidates only, with repeated contacts with one target summed
+	 */
+	private static final class Rows {
+		final int[] candidates, offsets, targets;
+		final double[] logs;
+
+		Rows(int[] byMobileID, int[] rowTargets, double[] rowLogs, int numMobileIDs) {
+			int k = 0, n = 0;
+			for (int c = 0; c < numMobileIDs; c++) {
+				if (byMobileID[c + 1] > byMobileID[c]) {
+					k++;
+				}
+			}
+			this.candidates = new int[k];
+			this.offsets = new int[k + 1];
+			int[] targets = new int[rowTargets.length];
+			double[] logs = new double[rowLogs.length];
+			k = 0;
+			for (int c = 0; c < numMobileIDs; c++) {
+				if (byMobileID[c + 1] == byMobileID[c]) {
+					continue;
+				}
+				for (int j = byMobileID[c]; j < byMobileID[c + 1]; j++) {
+					if (n > this.offsets[k] && targets[n - 1] == rowTargets[j]) {
+						logs[n - 1] += rowLogs[j];
+					} else {
+						targets[n] = rowTargets[j];
+						logs[n] = rowLogs[j];
+						n++;
+					}
+				}
+				this.candidates[k] = c;
+				this.offsets[++k] = n;
+			}
+			this.targets = Arrays.copyOf(targets, n);
+			this.logs = Arrays.copyOf(logs, n);
+		}
+	}
+
+	/*
+	 * Contacts of targets [from, to) with every device other than the targets
+	 */
+	private static final class TargetRangeTask extends RecursiveTask<Triples> {
+		private static final long serialVersionUID = 1L;
+		private final SourceInference inference;
+		private final int[] targetList, targetIndex;
+		private final int from, to;
+
+		TargetRangeTask(SourceInference inference, int[] targetList, int[] targetIndex, int from, int to) {
+			this.inference = inference;
+			this.targetList = targetList;
+			this.targetIndex = targetIndex;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Triples compute() {
+			if (this.to - this.from > TARGETS_PER_TASK) {
+				int mid = (this.from + this.to) >>> 1;
+				TargetRangeTask right = new TargetRangeTask(this.inference, this.targetList, this.targetIndex, mid,
+						this.to);
+				right.fork();
+				Triples left = new TargetRangeTask(this.inference, this.targetList, this.targetIndex, this.from,
+						mid).compute();
+				left.addAll(right.join());
+				return left;
+			}
+			Triples triples = new Triples();
+			SojournIndex everyone = this.inference.everyone;
+			for (int i = this.from; i < this.to; i++) {
+				int d = this.targetList[i];
+				for (int r = this.inference.devices.start(d); r < this.inference.devices.end(d); r++) {
+					int row = this.inference.devices.row(r);
+					int v = this.inference.waypoints.placeID(row);
+					double s = this.inference.waypoints.timeStamp(row);
+					int end = everyone.endContaining(v, s);
+					for (int j = everyone.firstContaining(v, s); j < end; j++) {
+						int c = everyone.sourceID(j);
+						if (this.targetIndex[c] < 0) {
+							triples.add(c, i, this.inference.logEscape[v]);
+						}
+					}
+				}
+			}
+			return triples;
+		}
+	}
+
+	/*
+	 * Log-escape on non-targets, and score as the only source, of candidates
+	 * [from, to)
+	 */
+	private static final class CandidateRangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final SourceInference inference;
+		private final Rows rows;
+		private final double[] escape, nonTargetLogs, scores;
+		private final int from, to;
+
+		CandidateRangeTask(SourceInference inference, Rows rows, double[] escape, double[] nonTargetLogs,
+				double[] scores, int from, int to) {
+			this.inference = inference;
+			this.rows = rows;
+			this.escape = escape;
+			this.nonTargetLogs = nonTargetLogs;
+			this.scores = scores;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > CANDIDATES_PER_TASK) {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new CandidateRangeTask(this.inference, this.rows, this.escape, this.nonTargetLogs,
+						this.scores, this.from, mid),
+						new CandidateRangeTask(this.inference, this.rows, this.escape, this.nonTargetLogs,
+								this.scores, mid, this.to));
+				return;
+			}
+			for (int i = this.from; i < this.to; i++) {
+				double onTargets = 0.0;
+				for (int j = this.rows.offsets[i]; j < this.rows.offsets[i + 1]; j++) {
+					onTargets += this.rows.logs[j];
+				}
+				this.nonTargetLogs[i] = this.inference.totalLogEscape(this.rows.candidates[i]) - onTargets;
+				this.scores[i] = this.inference.gain(this.rows, i, this.escape, this.nonTargetLogs[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1 @@
+package inference;
\ No newline at end of file
@@ -0,0 +1,214 @@
+package mainpackage;
+
+/**
+ * Runs MainClass on every waypoint file in a directory, or matching a glob,
+ * several files at a time, and writes a summary of all of them to
+ * BATCH-SUMMARY-nnnnnn.csv in the directory of the files.
+ * Each file is read, and its SOURCES and TARGETS files written, on one of a
+ * fixed number of file threads; the sojourns and exposures of every file are
+ * computed in the one ForkJoinPool of the execution configuration passed to
+ * MainClass, so the files together use no more threads than that pool has.
+ * A file only starts when its estimated memory fits in what the files already
+ * running leave of the budget, so large files wait for each other instead of
+ * running out of memory together; a file larger than the whole budget runs
+ * alone.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import utilities.DatasetManifest;
+import utilities.WaypointInput;
+
+public class BatchRunner {
+	static final String[] SUMMARY_HEADER = { "file", "mobileIDs", "sources", "exposed", "exposures", "targets",
+			"milliseconds", "error" };
+	static final long BYTES_PER_WAYPOINT = 96; // columns, device index, sojourns and exposures
+	static final long BYTES_PER_CSV_BYTE = 3; // when the waypoint count is not known
+	static final long GZIP_RATIO = 4; // assumed expansion of compressed files
+	static final int MEGABYTE_SHIFT = 20;
+	/*
+	 * Outputs of MainClass and the other runners, which may share the directory
+	 */
+	private static final Pattern OUTPUT_NAME = Pattern
+			.compile(".*-(SOURCES|TARGETS|CANDIDATES|INFERRED)-\\d+\\.csv|BATCH-SUMMARY-\\d+\\.csv");
+	private final int concurrentFiles;
+	private final int budgetMegabytes;
+	private final Semaphore memory;
+
+	/**
+	 * @param concurrentFiles files processed at the same time
+	 * @param memoryBudget    bytes which the files running at the same time may
+	 *                        use together
+	 */
+	public BatchRunner(int concurrentFiles, long memoryBudget) {
+		this.concurrentFiles = concurrentFiles;
+		this.budgetMegabytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget >> MEGABYTE_SHIFT));
+		this.memory = new Semaphore(this.budgetMegabytes, true);
+	}
+
+	/**
+	 * Processes every waypoint file named by the directory or glob, and writes the
+	 * summary.
+	 *
+	 * @param directoryOrGlob directory, or a glob in the last path component, e.g.
+	 *                        data/scenario-*.csv.gz
+	 * @param run             runs MainClass on one waypoint file
+	 */
+	public void run(String directoryOrGlob, Function<String, MainClass> run) {
+		List<Path> files;
+		try {
+			files = listFiles(directoryOrGlob);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not list " + directoryOrGlob + ".");
+			return;
+		}
+		System.out.println(files.size() + " waypoint files, " + this.concurrentFiles + " at a time, in "
+				+ this.budgetMegabytes + " Mb.");
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService fileThreads = Executors.newFixedThreadPool(this.concurrentFiles,
+				runnable -> new Thread(runnable, "batch file " + threadNumber.incrementAndGet()));
+		List<Future<List<Object>>> results = new ArrayList<>();
+		try {
+			for (Path file : files) {
+				results.add(fileThreads.submit(() -> this.process(file.toString(), run)));
+			}
+			List<List<Object>> records = new ArrayList<>();
+			for (Future<List<Object>> result : results) {
+				records.add(result.get());
+			}
+			Path directory = Files.isDirectory(Paths.get(directoryOrGlob)) ? Paths.get(directoryOrGlob)
+					: parentOf(Paths.get(directoryOrGlob));
+			writeSummary(records, directory.resolve("BATCH-SUMMARY-" + System.currentTimeMillis() % 1000000 + ".csv"));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			System.out.println("Interrupted; the batch summary is not written.");
+		} catch (ExecutionException ex) {
+			System.out.println(ex.getCause().toString());
+			System.out.println("Batch failed; the batch summary is not written.");
+		} finally {
+			fileThreads.shutdownNow();
+		}
+	}
+
+	/*
+	 * Runs one file once its memory is available; failures are reported in its
+	 * summary record rather than stopping the batch.
+	 */
+	private List<Object> process(String filename, Function<String, MainClass> run) throws InterruptedException {
+		int megabytes = this.estimateMegabytes(filename);
+		this.memory.acquire(megabytes);
+		List<Object> record = new ArrayList<>();
+		record.add(filename);
+		long start = System.nanoTime();
+		try {
+			MainClass mainClass = run.apply(filename);
+			mainClass.writeSourcesAndTargets(filename);
+			for (long count : mainClass.summaryCounts()) {
+				record.add(Long.valueOf(count));
+			}
+			record.add(Long.valueOf((System.nanoTime() - start) / 1000000));
+			record.add("");
+			System.out.println("Sources and targets of " + filename + " written to file.");
+		} catch (RuntimeException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not process " + filename + ".");
+			record.addAll(Collections.nCopies(SUMMARY_HEADER.length - 3, ""));
+			record.add(Long.valueOf((System.nanoTime() - start) / 1000000));
+			record.add(ex.toString());
+		} finally {
+			this.memory.release(megabytes);
+		}
+		return record;
+	}
+
+	/*
+	 * Memory of one file, in Mb, from the waypoint count of its cached manifest,
+	 * or else from its size; at most the whole budget.
+	 */
+	int estimateMegabytes(String filename) {
+		DatasetManifest manifest = DatasetManifest.readCache(filename, true);
+		long bytes;
+		if (manifest != null) {
+			bytes = manifest.getWaypointCount() * BYTES_PER_WAYPOINT;
+		} else {
+			long csvBytes = new File(filename).length();
+			if (WaypointInput.isCompressed(filename)) {
+				csvBytes *= GZIP_RATIO;
+			}
+			bytes = csvBytes * BYTES_PER_CSV_BYTE;
+		}
+		return (int) Math.max(1, Math.min(this.budgetMegabytes, bytes >> MEGABYTE_SHIFT));
+	}
+
+	/**
+	 * @return the waypoint files (.csv or .csv.gz) in the directory, or matching
+	 *         the glob, sorted by name; SOURCES, TARGETS and other output files
+	 *         are left out
+	 */
+	static List<Path> listFiles(String directoryOrGlob) throws IOException {
+		Path path = Paths.get(directoryOrGlob);
+		Path directory;
+		PathMatcher waypointFile = FileSystems.getDefault().getPathMatcher("glob:*.{csv,csv.gz}");
+		PathMatcher matcher;
+		if (Files.isDirectory(path)) {
+			directory = path;
+			matcher = waypointFile;
+		} else {
+			directory = parentOf(path);
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName().toString());
+		}
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				String name = file.getFileName().toString();
+				if (Files.isRegularFile(file) && matcher.matches(file.getFileName())
+						&& waypointFile.matches(file.getFileName()) && !OUTPUT_NAME.matcher(name).matches()) {
+					files.add(file);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private static Path parentOf(Path path) {
+		return (path.getParent() == null) ? Paths.get(".") : path.getParent();
+	}
+
+	private static void writeSummary(List<List<Object>> records, Path summary) {
+		try (BufferedWriter writer = Files.newBufferedWriter(summary);
+				CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
+			csvPrinter.printRecord((Object[]) SUMMARY_HEADER);
+			for (List<Object> record : records) {
+				csvPrinter.printRecord(record);
+			}
+			System.out.println("Summary of " + records.size() + " files written to " + summary + ".");
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not make output file.");
+		}
+	}
+}
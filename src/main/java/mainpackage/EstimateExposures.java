@@ -0,0 +1,89 @@
+package mainpackage;
+
+/**
+ * Quick first look at a scenario: reads a waypoint file, chooses sources as
+ * MainClass does, and estimates the number of exposures, the number of exposed
+ * devices and the distribution of exposures per device from samples of places
+ * and devices (see ApproximateExposures), with 95% error bounds. No exposure
+ * lists are built and no files are written.
+ * With --exact, the exact exposures are computed afterwards for comparison.
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import simulators.ApproximateExposures;
+import simulators.ContactEngine;
+import simulators.ExposureStatistics;
+import utilities.EncodedWaypointCSVReader;
+
+public class EstimateExposures {
+	final double sojournWidth = 1.0 / 48.0; // unit = days
+	final double initialInfectionRate = 0.010; // determines # sources
+	final double defaultPlaceRate = 0.01;
+	final double defaultDeviceRate = 0.01;
+	private final ContactEngine contact;
+	private final int numMobileIDs;
+
+	public EstimateExposures(String waypointFilename) {
+		EncodedWaypointCSVReader wpReader = new EncodedWaypointCSVReader(waypointFilename);
+		this.numMobileIDs = wpReader.numMobileIDs();
+		this.contact = new ContactEngine(this.sojournWidth, this.selectSources(new Random()), wpReader.getColumns(),
+				wpReader.getDeviceIndex(), wpReader.numMobileIDs(), wpReader.numPlaceIDs());
+	}
+
+	/*
+	 * Poisson number of sources, as in MainClass
+	 */
+	private Set<Integer> selectSources(Random random) {
+		double mu = (double) this.numMobileIDs * this.initialInfectionRate;
+		int sourceNumber = (int) Math.max(0,
+				Math.min(this.numMobileIDs, Math.round(mu + Math.sqrt(mu) * random.nextGaussian())));
+		Set<Integer> sources = new HashSet<>();
+		while (sources.size() < sourceNumber) {
+			sources.add(Integer.valueOf(random.nextInt(this.numMobileIDs)));
+		}
+		System.out.println("A random subset of " + sourceNumber + " mobileIDs has been selected as sources.");
+		return sources;
+	}
+
+	/**
+	 *
+	 * @param args path to input file of FractalRabbit waypoints, optionally
+	 *             followed by the place and device sampling rates, and --exact
+	 */
+	public static void main(String[] args) {
+		System.out.println("Java Runtime " + Runtime.version().toString());
+		EstimateExposures estimate = new EstimateExposures(args[0]);
+		double placeRate = (args.length > 1 && !args[1].startsWith("--")) ? Double.parseDouble(args[1])
+				: estimate.defaultPlaceRate;
+		double deviceRate = (args.length > 2 && !args[2].startsWith("--")) ? Double.parseDouble(args[2])
+				: estimate.defaultDeviceRate;
+		long start = System.nanoTime();
+		ApproximateExposures approximation = estimate.contact.approximate(placeRate, deviceRate,
+				System.currentTimeMillis());
+		System.out.println("_/ _/ _/ Approximate exposures _/ _/ _/ ");
+		System.out.println(approximation.toString());
+		for (Map.Entry<Long, Double> e : approximation.tally().entrySet()) {
+			System.out.println(String.format("About %.0f instances of %d exposures.", e.getValue(), e.getKey()));
+		}
+		double[] histogram = approximation.placeHistogram();
+		for (int b = 0; b < histogram.length; b++) {
+			if (histogram[b] > 0) {
+				System.out.println(String.format("About %.0f places with %s exposures.", histogram[b],
+						(b == 0) ? "0" : (1L << (b - 1)) + " to " + ((1L << b) - 1)));
+			}
+		}
+		System.out.println("Estimated in " + (System.nanoTime() - start) / 1000000 + " ms.");
+		if (Arrays.asList(args).contains("--exact")) {
+			start = System.nanoTime();
+			ExposureStatistics exact = estimate.contact.getExposureStatistics();
+			System.out.println("_/ _/ _/ Exact exposures _/ _/ _/ ");
+			System.out.println(exact.getExposures() + " exposures; " + exact.getDevices() + " exposed devices.");
+			System.out.println("Computed in " + (System.nanoTime() - start) / 1000000 + " ms.");
+		}
+	}
+}
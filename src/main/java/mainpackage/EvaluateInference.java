@@ -0,0 +1,67 @@
+package mainpackage;
+
+/**
+ * Reads a waypoint file once, simulates many replicates of sources and targets
+ * in memory with the parameters of MainClass, infers the sources of each with
+ * SourceInference, and prints the precision and recall of the inference with
+ * 95% confidence intervals. No SOURCES or TARGETS files are written.
+ */
+
+import java.util.HashSet;
+import java.util.Set;
+
+import inference.InferenceEvaluation;
+import inference.SourceInference;
+import simulators.PlaceDependentRateModel;
+import utilities.EncodedWaypointCSVReader;
+
+public class EvaluateInference {
+	final double sojournWidth = 1.0 / 48.0; // unit = days
+	final double meanInfectionProbability = 0.1;
+	final double initialInfectionRate = 0.010; // determines # sources
+	final double backgroundInfectionRate = 1e-4; // assumed by the inference
+	final long seed = 1000000; // of the place probabilities, as in MainClass
+	final int defaultReplicates = 100;
+	private final InferenceEvaluation evaluation;
+	private final SourceInference inference;
+	private final int numMobileIDs;
+
+	public EvaluateInference(String waypointFilename) {
+		EncodedWaypointCSVReader wpReader = new EncodedWaypointCSVReader(waypointFilename);
+		this.numMobileIDs = wpReader.numMobileIDs();
+		this.evaluation = new InferenceEvaluation(wpReader.getColumns(), wpReader.getDeviceIndex(),
+				wpReader.numMobileIDs(), wpReader.numPlaceIDs(), this.sojournWidth, this.meanInfectionProbability,
+				this.seed, this.initialInfectionRate);
+		this.inference = new SourceInference(wpReader.getColumns(), wpReader.getDeviceIndex(),
+				wpReader.numMobileIDs(), wpReader.numPlaceIDs(), this.sojournWidth,
+				new PlaceDependentRateModel(this.meanInfectionProbability, this.seed), this.initialInfectionRate,
+				this.backgroundInfectionRate);
+	}
+
+	private Set<Integer> inferSources(Set<Integer> targets) {
+		Set<Integer> selected = new HashSet<>();
+		for (int id : this.inference.infer(targets, this.numMobileIDs).selected()) {
+			selected.add(Integer.valueOf(id));
+		}
+		return selected;
+	}
+
+	/**
+	 *
+	 * @param args path to input file of FractalRabbit waypoints, optionally
+	 *             followed by the number of replicates and a seed
+	 */
+	public static void main(String[] args) {
+		System.out.println("Java Runtime " + Runtime.version().toString());
+		EvaluateInference evaluate = new EvaluateInference(args[0]);
+		int replicates = (args.length > 1) ? Integer.parseInt(args[1]) : evaluate.defaultReplicates;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : System.currentTimeMillis();
+		long start = System.nanoTime();
+		InferenceEvaluation.Summary summary = evaluate.evaluation.evaluate(replicates, seed,
+				evaluate::inferSources);
+		System.out.println("_/ _/ _/ Inference accuracy _/ _/ _/ ");
+		System.out.println(summary.toString());
+		System.out.println(replicates + " replicates simulated and inferred in "
+				+ (System.nanoTime() - start) / 1000000 + " ms.");
+	}
+}
@@ -0,0 +1,101 @@
+package mainpackage;
+
+/**
+ * Reads a waypoint file and the TARGETS file of a MainClass run on it, and
+ * infers the sources: writes the candidate sources ranked by score to
+ * waypointfile-CANDIDATES-nnnnnn.csv, and the selected sources to
+ * waypointfile-INFERRED-nnnnnn.csv. Assumes the parameters of MainClass: sojourn
+ * width, mean infection probability, place-dependent probabilities with its
+ * seed, and rate of sources. The probabilities are dealt to the places in the
+ * order of the file, as in MainClass with or without --renumber, so TARGETS of
+ * a renumbered run are explained by the same place probabilities.
+ * Given the SOURCES file as well, reports how many were found.
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import inference.SourceInference;
+import simulators.PlaceDependentRateModel;
+import utilities.EncodedWaypointCSVReader;
+import utilities.IDDictionary;
+import utilities.SetOfIntegersCSVReader;
+import utilities.SetOfIntegersCSVWriter;
+import utilities.WaypointInput;
+
+public class InferSources {
+	final double sojournWidth = 1.0 / 48.0; // unit = days
+	final double meanInfectionProbability = 0.1;
+	final double initialInfectionRate = 0.010; // prior probability of a source
+	final double backgroundInfectionRate = 1e-4; // covers targets which no candidate explains
+	final long seed = 1000000; // of the place probabilities, as in MainClass
+	private final IDDictionary mobileDictionary;
+	private final SourceInference inference;
+	private final int numMobileIDs;
+
+	public InferSources(String waypointFilename) {
+		EncodedWaypointCSVReader wpReader = new EncodedWaypointCSVReader(waypointFilename);
+		this.mobileDictionary = wpReader.getMobileDictionary();
+		this.numMobileIDs = wpReader.numMobileIDs();
+		this.inference = new SourceInference(wpReader.getColumns(), wpReader.getDeviceIndex(),
+				wpReader.numMobileIDs(), wpReader.numPlaceIDs(), this.sojournWidth,
+				new PlaceDependentRateModel(this.meanInfectionProbability, this.seed), this.initialInfectionRate,
+				this.backgroundInfectionRate);
+	}
+
+	public SourceInference.Result infer(SortedSet<Integer> targets) {
+		return this.inference.infer(targets, this.numMobileIDs);
+	}
+
+	private void writeCandidates(SourceInference.Result result, String filename) {
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filename + ".csv"));
+				CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
+			for (int i = 0; i < result.ranking().length; i++) {
+				csvPrinter.printRecord(this.mobileDictionary.decode(result.ranking()[i]), result.rankingScores()[i]);
+			}
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not make output file.");
+		}
+	}
+
+	/**
+	 *
+	 * @param args path to input file of FractalRabbit waypoints, then the TARGETS
+	 *             file, optionally followed by the SOURCES file
+	 */
+	public static void main(String[] args) {
+		System.out.println("Java Runtime " + Runtime.version().toString());
+		long start = System.nanoTime();
+		InferSources inferSources = new InferSources(args[0]);
+		SortedSet<Integer> targets = new SetOfIntegersCSVReader(inferSources.mobileDictionary)
+				.readElements(args[1]);
+		System.out.println(targets.size() + " targets read.");
+		SourceInference.Result result = inferSources.infer(targets);
+		System.out.println("Sources inferred in " + (System.nanoTime() - start) / 1000000 + " ms.");
+		SortedSet<Integer> selected = new TreeSet<>();
+		for (int id : result.selected()) {
+			selected.add(Integer.valueOf(id));
+		}
+		if (args.length > 2) {
+			SortedSet<Integer> sources = new SetOfIntegersCSVReader(inferSources.mobileDictionary)
+					.readElements(args[2]);
+			long found = selected.stream().filter(sources::contains).count();
+			System.out.println(found + " of the " + selected.size() + " selected are among the " + sources.size()
+					+ " sources.");
+		}
+		long identifier = System.currentTimeMillis() % 1000000;
+		String prefix = WaypointInput.baseName(args[0]);
+		inferSources.writeCandidates(result, prefix + "-CANDIDATES-" + identifier);
+		new SetOfIntegersCSVWriter(selected, inferSources.mobileDictionary)
+				.writeElements(prefix + "-INFERRED-" + identifier);
+		System.out.println("Candidates and inferred sources written to file.");
+	}
+}
@@ -1,12 +1,36 @@
 package mainpackage;
 
 /**
- * Assumes that the waypoint list is sorted by mobileID, which are consecutive
- * integers starting at 0. This could be fixed.
+ * MobileIDs and placeIDs may be arbitrary strings; they are dictionary encoded
+ * into consecutive integers starting at 0 when the file is read, and decoded
+ * again when sources and targets are written.
+ * With --pipelined, parsing overlaps with building the indexes; this needs the
+ * manifest cached by an earlier run, to choose sources before parsing.
+ * With --cache, sources are chosen reproducibly, and the sojourns and exposures
+ * are kept in an index cache directory, so a rerun skips straight to sampling.
+ * With --dwell, consecutive pings of a device at one place are merged into a
+ * dwell interval, and exposures are overlaps of dwell intervals.
+ * With --compressed, waypoints are held in compressed blocks after reading.
+ * With --events, each exposure is also written, with its source and times, to
+ * a binary exposure event log (see ExposureEventWriter).
+ * With --threads n, the sojourns and exposures are computed in a dedicated
+ * pool of n threads (see ExecutionConfig), rather than the common pool.
+ * With --renumber, devices and places often seen together are given nearby
+ * codes after reading (see LocalityRenumbering); output IDs, and the
+ * infection probability of each place, are unchanged.
+ * With --checkpoint, the state is written after each phase (see Checkpoint),
+ * and a rerun after a crash resumes from the last phase completed.
+ * With --batch, every waypoint file in a directory or matching a glob is
+ * processed, several at a time, and a summary of all of them is written.
  * Working correctly 7.17.20. Needs tuning.
  */
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.LongSummaryStatistics;
 import java.util.Map;
 import java.util.Random;
@@ -14,11 +38,23 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-import org.apache.commons.io.FilenameUtils;
-
-import simulators.PlaceDependentContactMaker;
-import utilities.GenericWaypointCSVReader;
+import simulators.Checkpoint;
+import simulators.ConstantRateModel;
+import simulators.ContactEngine;
+import simulators.ExecutionConfig;
+import simulators.ExposureAnalytics;
+import simulators.IndexCache;
+import simulators.PipelinedIndexBuilder;
+import simulators.PlaceDependentRateModel;
+import utilities.CompressedWaypointStore;
+import utilities.DatasetManifest;
+import utilities.DeviceIndex;
+import utilities.EncodedWaypointCSVReader;
+import utilities.ExposureEventWriter;
+import utilities.IDDictionary;
 import utilities.SetOfIntegersCSVWriter;
+import utilities.WaypointColumns;
+import utilities.WaypointInput;
 
 public class MainClass {
 	final double sojournWidth = 1.0 / 48.0; // unit = days
@@ -26,40 +62,295 @@ public class MainClass {
 	final double initialInfectionRate = 0.010; // determines # sources
 	final long seed = 1000000;
 	final boolean probabilityVariesByPlaceForTargets = true;
-	private GenericWaypointCSVReader wpReader; // mobileID and placeID are integers
-	private PlaceDependentContactMaker<Integer, Integer> contact;
+	final String indexCacheDirectory = "contact-rabbit-cache";
+	final String checkpointDirectory = "contact-rabbit-checkpoints";
+	final long indexCacheBytes = 1L << 30;
+	final int topK = 10; // places and sources listed in the diagnostics
+	private IDDictionary mobileDictionary, placeDictionary; // mobileID and placeID are dense integer codes
+	private ContactEngine contact;
+	private ConstantRateModel constantModel;
+	private PlaceDependentRateModel variableModel;
 	private Set<Integer> sourceMobileIDs;
+	private boolean dwellIntervals; // exposures are overlaps of dwell intervals
+	private boolean compressed; // waypoints are held in compressed blocks
+	private boolean renumbered; // codes are assigned for locality, not in order of appearance
+	private int[] originalPlaceIDs; // code in the file of each placeID, null unless renumbered
+	private Checkpoint checkpoint; // null unless phases are checkpointed
+	private final long identifier; // suffix of the output files
 	Random g;
 
-	public MainClass(String waypointFilename) {
-		this.wpReader = new GenericWaypointCSVReader(waypointFilename);
-		int numMobileIDs = this.wpReader.lastMobileID(); // last one on the list, plus 1.
+	public MainClass(String waypointFilename, boolean pipelined, boolean cached, boolean dwell,
+			boolean compressed, boolean events, boolean renumber, boolean checkpointed, ExecutionConfig execution) {
+		this.g = new Random();
+		this.identifier = System.currentTimeMillis() % 1000000;
+		this.dwellIntervals = dwell;
+		this.compressed = compressed;
+		this.renumbered = renumber;
+		DatasetManifest manifest = DatasetManifest.readCache(waypointFilename, true);
+		if (pipelined && manifest == null) {
+			System.out.println("No manifest cached for " + waypointFilename + "; reading without pipelining.");
+			pipelined = false;
+		}
+		if (pipelined && dwell) {
+			System.out.println("Dwell intervals need every waypoint of a device; reading without pipelining.");
+			pipelined = false;
+		}
+		if (pipelined && renumber) {
+			System.out.println("Renumbering needs every waypoint before indexing; reading without pipelining.");
+			pipelined = false;
+		}
+		if (pipelined && checkpointed) {
+			System.out.println("Checkpoints need every waypoint in memory; reading without pipelining.");
+			pipelined = false;
+		}
+		if (checkpointed) {
+			this.checkpoint = this.openCheckpoint(waypointFilename);
+		}
+		Checkpoint.Phase resumed = null;
+		if (this.checkpoint != null) {
+			resumed = this.resumeFromCheckpoint(cached ? new Random(this.seed) : this.g, execution);
+		}
+		IndexCache cache = cached ? new IndexCache(this.indexCacheDirectory, this.indexCacheBytes) : null;
+		String cacheKey = null;
+		if (cache != null && manifest != null && this.contact == null) {
+			/*
+			 * Cached indexes are only found again if the same sources are chosen.
+			 */
+			this.selectSources((int) manifest.getDistinctMobileIDs(), new Random(this.seed));
+			cacheKey = this.indexCacheKey(waypointFilename);
+			IndexCache.Entry entry = (cacheKey == null) ? null : cache.load(cacheKey);
+			if (entry != null) {
+				this.mobileDictionary = entry.getMobileDictionary();
+				this.placeDictionary = entry.getPlaceDictionary();
+				this.originalPlaceIDs = entry.getOriginalPlaceIDs();
+				this.contact = new ContactEngine(this.sourceMobileIDs, entry.getSojournIndex(),
+						entry.getExposureLists(), entry.getVulnerableMobileIDs(), entry.getNumPlaces());
+				this.contact.setExecutionConfig(execution);
+				if (this.checkpoint != null) {
+					/*
+					 * The cache has no waypoints; the indexes follow the LOAD phase at once,
+					 * so that the checkpoint is resumed after EXPOSURES or not at all.
+					 */
+					this.checkpoint.writeLoad(new WaypointColumns(), this.mobileDictionary, this.placeDictionary,
+							this.originalPlaceIDs);
+					this.contact.setCheckpoint(this.checkpoint);
+				}
+				if (events) {
+					System.out.println("Exposures were read from the index cache; no exposure events are logged.");
+				}
+			}
+		}
+		if (this.contact == null || resumed != null) {
+			if (this.contact == null) {
+				this.loadWaypoints(waypointFilename, manifest, pipelined, cached ? new Random(this.seed) : this.g,
+						execution);
+				this.contact.setExecutionConfig(execution);
+				this.contact.setCheckpoint(this.checkpoint);
+			}
+			if (events && (pipelined || dwell)) {
+				System.out.println("Exposure events are only logged for sojourns over loaded waypoints.");
+			} else if (events && resumed != null && resumed != Checkpoint.Phase.LOAD) {
+				System.out.println("Exposures were read from the checkpoint; no exposure events are logged.");
+			} else if (events) {
+				this.writeExposureEvents(waypointFilename);
+			}
+			if (cache != null && cacheKey == null) {
+				cacheKey = this.indexCacheKey(waypointFilename);
+			}
+			if (cache != null && cacheKey != null) {
+				cache.store(cacheKey,
+						new IndexCache.Entry(this.contact.getSojournIndex(), this.contact.getExposureLists(),
+								this.contact.getVulnerableMobileIDs(), this.mobileDictionary, this.placeDictionary,
+								this.originalPlaceIDs));
+			}
+		}
+		/*
+		 * Both infection models are evaluated in one pass over the exposures.
+		 */
+		this.constantModel = new ConstantRateModel(this.meanInfectionProbability);
+		this.variableModel = new PlaceDependentRateModel(this.meanInfectionProbability, this.seed,
+				this.originalPlaceIDs);
+		this.contact.registerModel(this.constantModel);
+		this.contact.registerModel(this.variableModel);
+		this.contact.simulateInfections(this.g.nextLong());
+		System.out.println("Exposures and infections have been simulated.");
+		System.out.println();
+	}
+
+	private void loadWaypoints(String waypointFilename, DatasetManifest manifest, boolean pipelined,
+			Random sourceRandom, ExecutionConfig execution) {
+		if (pipelined) {
+			this.selectSources((int) manifest.getDistinctMobileIDs(), sourceRandom);
+			boolean[] isSource = new boolean[(int) manifest.getDistinctMobileIDs()];
+			for (Integer id : this.sourceMobileIDs) {
+				isSource[id.intValue()] = true;
+			}
+			PipelinedIndexBuilder builder = new PipelinedIndexBuilder(waypointFilename, id -> isSource[id],
+					this.sojournWidth, execution);
+			this.mobileDictionary = builder.getMobileDictionary();
+			this.placeDictionary = builder.getPlaceDictionary();
+			this.contact = new ContactEngine(this.sourceMobileIDs, builder.getSojournIndex(),
+					builder.getExposureLists(), builder.getVulnerableMobileIDs(), builder.getPlaceDictionary().size());
+		} else {
+			EncodedWaypointCSVReader wpReader = new EncodedWaypointCSVReader(waypointFilename);
+			if (this.renumbered) {
+				/* the dictionaries still decode to the external IDs */
+				this.originalPlaceIDs = wpReader.renumberForLocality().originalPlaceIDs();
+			}
+			if (this.checkpoint != null) {
+				this.checkpoint.writeLoad(wpReader.getColumns(), wpReader.getMobileDictionary(),
+						wpReader.getPlaceDictionary(), this.originalPlaceIDs);
+			}
+			this.mobileDictionary = wpReader.getMobileDictionary();
+			this.placeDictionary = wpReader.getPlaceDictionary();
+			this.selectSources(wpReader.numMobileIDs(), sourceRandom); // codes are 0, 1, ..., numMobileIDs - 1
+			this.createEngine(wpReader.getColumns(), wpReader.getDeviceIndex(), wpReader.numMobileIDs(),
+					wpReader.numPlaceIDs());
+		}
+	}
+
+	private void createEngine(WaypointColumns waypoints, DeviceIndex devices, int numMobileIDs, int numPlaces) {
+		if (this.dwellIntervals) {
+			this.contact = ContactEngine.fromDwellIntervals(this.sojournWidth, this.sourceMobileIDs, waypoints,
+					numMobileIDs, numPlaces);
+		} else if (this.compressed) {
+			CompressedWaypointStore store = new CompressedWaypointStore(waypoints, numMobileIDs);
+			this.contact = new ContactEngine(this.sojournWidth, this.sourceMobileIDs, store, numMobileIDs,
+					numPlaces);
+		} else {
+			this.contact = new ContactEngine(this.sojournWidth, this.sourceMobileIDs, waypoints, devices,
+					numMobileIDs, numPlaces);
+		}
+	}
+
+	/*
+	 * Checkpoint directory of this file and mode; null if the file cannot be
+	 * hashed. The sources are not part of the key, since they are checkpointed.
+	 */
+	private Checkpoint openCheckpoint(String waypointFilename) {
+		try {
+			String key = IndexCache.key(IndexCache.contentHash(waypointFilename) + this.mode(), this.sojournWidth,
+					Collections.emptySet());
+			return new Checkpoint(this.checkpointDirectory + "/" + key);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not hash " + waypointFilename + "; no checkpoints will be written.");
+			return null;
+		}
+	}
+
+	/*
+	 * Builds the engine from the last phase of the checkpoint, and returns that
+	 * phase; leaves the engine null, and returns null, if there is none or the
+	 * checkpoint cannot be read.
+	 */
+	private Checkpoint.Phase resumeFromCheckpoint(Random sourceRandom, ExecutionConfig execution) {
+		Checkpoint.Phase last = this.checkpoint.lastCompleted();
+		if (last == null) {
+			return null;
+		}
+		if (this.dwellIntervals && last == Checkpoint.Phase.SOJOURNS) {
+			last = Checkpoint.Phase.LOAD; // exposures of dwell intervals are built together with the sojourns
+		}
+		try {
+			Checkpoint.Load load = this.checkpoint.readLoad(last.compareTo(Checkpoint.Phase.EXPOSURES) < 0);
+			if (last.compareTo(Checkpoint.Phase.EXPOSURES) < 0 && load.getWaypoints().size() == 0) {
+				System.out.println("The checkpoint stops before " + Checkpoint.Phase.EXPOSURES
+						+ " and has no waypoints; starting over.");
+				return null;
+			}
+			this.mobileDictionary = load.getMobileDictionary();
+			this.placeDictionary = load.getPlaceDictionary();
+			this.originalPlaceIDs = load.getOriginalPlaceIDs();
+			if (last == Checkpoint.Phase.LOAD && this.checkpoint.has(Checkpoint.Phase.SOJOURNS)) {
+				this.sourceMobileIDs = new HashSet<>();
+				this.checkpoint.readSojourns(this.sourceMobileIDs);
+			} else if (last == Checkpoint.Phase.LOAD) {
+				this.selectSources(load.numMobileIDs(), sourceRandom);
+			}
+			if (last == Checkpoint.Phase.LOAD) {
+				this.createEngine(load.getWaypoints(), new DeviceIndex(load.getWaypoints(), load.numMobileIDs()),
+						load.numMobileIDs(), load.numPlaces());
+				System.out.println("Resumed from the checkpoint, after phase " + last + ".");
+			} else {
+				this.contact = ContactEngine.resume(this.checkpoint, load, this.compressed);
+				this.sourceMobileIDs = this.contact.getSourceMobileIDs();
+			}
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not read the checkpoint; starting over.");
+			this.contact = null;
+			return null;
+		}
+		this.contact.setExecutionConfig(execution);
+		this.contact.setCheckpoint(this.checkpoint);
+		return last;
+	}
+
+	/*
+	 * Computes the exposures now, logging each one with its source and times.
+	 */
+	private void writeExposureEvents(String waypointFilename) {
+		String filename = WaypointInput.baseName(waypointFilename) + "-EVENTS-" + this.identifier + ".bin";
+		try (ExposureEventWriter writer = new ExposureEventWriter(filename)) {
+			this.contact.setExposureEventWriter(writer);
+			this.contact.getExposureLists();
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not write exposure events.");
+		} finally {
+			this.contact.setExposureEventWriter(null);
+		}
+	}
+
+	/*
+	 * Key of the index cache entry for this file, the sojourn width and the
+	 * sources; null if the file cannot be hashed.
+	 */
+	private String indexCacheKey(String waypointFilename) {
+		try {
+			return IndexCache.key(IndexCache.contentHash(waypointFilename) + this.mode(), this.sojournWidth,
+					this.sourceMobileIDs);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not hash " + waypointFilename + "; the index cache will not be used.");
+			return null;
+		}
+	}
+
+	/*
+	 * Options which change the indexes, for the keys of cached or checkpointed
+	 * state
+	 */
+	private String mode() {
+		return (this.dwellIntervals ? ":dwell" : "") + (this.renumbered ? ":renumbered" : "");
+	}
+
+	private void selectSources(int numMobileIDs, Random random) {
 		/*
 		 * Number of sources is Poisson(mu); mu = # mobileIDs * infection rate.
 		 * Approximate by rounding mu + Z*sqrt(mu), where Z is Gaussian.
 		 */
 		double mu = (double) numMobileIDs * this.initialInfectionRate;
-		g = new Random();
-		int sourceNumber = (int) Math.round(mu + Math.sqrt(mu) * (g.nextGaussian()));
+		int sourceNumber = (int) Math.round(mu + Math.sqrt(mu) * (random.nextGaussian()));
 		this.sourceMobileIDs = new HashSet<>();
 		/*
 		 * Randomly select the sources from among all mobileIDs
 		 */
 		while (this.sourceMobileIDs.size() < sourceNumber) {
-			this.sourceMobileIDs.add(Integer.valueOf(g.nextInt(numMobileIDs)));
+			this.sourceMobileIDs.add(Integer.valueOf(random.nextInt(numMobileIDs)));
 		}
 		System.out.println("A random subset of " + sourceNumber + " mobileIDs has been selected as sources.");
-
-		this.contact = new PlaceDependentContactMaker<Integer, Integer>(this.sojournWidth,
-				this.meanInfectionProbability, this.seed, this.sourceMobileIDs, this.wpReader.getWaypointList());
-
-		System.out.println("Exposures and infections have been simulated.");
-		System.out.println();
 	}
 
 	/**
 	 * 
-	 * @param args path to input file of FractalRabbit waypoints
+	 * @param args path to input file of FractalRabbit waypoints, optionally
+	 *             followed by any of --pipelined, --cache, --dwell,
+	 *             --compressed, --events, --renumber, --checkpoint, --threads n;
+	 *             with --batch, the path is a directory
+	 *             or a glob such as data/scenario-*.csv.gz, and every file it
+	 *             names is processed (see BatchRunner)
 	 */
 	public static void main(String[] args) {
 		// boilerplate
@@ -71,7 +362,31 @@ public class MainClass {
 		boolean verboseStatistics = true;
 		// contact rabbit main class
 		String filename = args[0];
-		MainClass mainClass = new MainClass(filename);
+		boolean pipelined = Arrays.asList(args).contains("--pipelined");
+		boolean cached = Arrays.asList(args).contains("--cache");
+		boolean dwell = Arrays.asList(args).contains("--dwell");
+		boolean compressed = Arrays.asList(args).contains("--compressed");
+		boolean events = Arrays.asList(args).contains("--events");
+		boolean renumber = Arrays.asList(args).contains("--renumber");
+		boolean checkpointed = Arrays.asList(args).contains("--checkpoint");
+		int threads = Arrays.asList(args).indexOf("--threads");
+		if (threads >= 0 && (threads + 1 >= args.length || !args[threads + 1].matches("[1-9][0-9]{0,5}"))) {
+			System.out.println("Usage: --threads n, where n is a positive number of threads.");
+			return;
+		}
+		ExecutionConfig execution = (threads < 0) ? ExecutionConfig.common()
+				: ExecutionConfig.dedicated(Integer.parseInt(args[threads + 1]));
+		System.out.println("Contacts computed in the " + execution.toString() + ".");
+		if (Arrays.asList(args).contains("--batch")) {
+			BatchRunner batch = new BatchRunner(Math.max(2, rt.availableProcessors() / 2),
+					rt.maxMemory() / 4 * 3);
+			batch.run(filename, file -> new MainClass(file, pipelined, cached, dwell, compressed, events, renumber,
+					checkpointed, execution));
+			execution.close();
+			return;
+		}
+		MainClass mainClass = new MainClass(filename, pipelined, cached, dwell, compressed, events, renumber,
+				checkpointed, execution);
 
 		/////////////////////////////// DIAGNOSTICS
 		/////////////////////////////// ////////////////////////////////////////////////
@@ -90,44 +405,91 @@ public class MainClass {
 				System.out.println(e.getValue() + " instances of " + e.getKey() + " exposures.");
 			}
 		}
-		System.out.println("Testing constancy of probability for each place.");
-		int counter = 0;
-		for(Map.Entry<Integer,Double> e : mainClass.contact.getProbabilitiesForEachPlace().entrySet()) {
-			counter++;
-			if(counter % 1000 ==0 ) {
-				System.out.println("Exposure at place " + e.getKey() + " leads to infection with probability " + e.getValue());
+		ExposureAnalytics analytics = mainClass.contact.analyze(mainClass.topK);
+		System.out.println("_/ _/ _/ Places and sources with the most exposures _/ _/ _/ ");
+		for (int i = 0; i < analytics.topPlaces().length; i++) {
+			System.out.println("Place " + mainClass.placeDictionary.decode(analytics.topPlaces()[i]) + " has "
+					+ analytics.topPlaceExposures()[i] + " exposures.");
+		}
+		for (int i = 0; i < analytics.topSources().length; i++) {
+			System.out.println("Source " + mainClass.mobileDictionary.decode(analytics.topSources()[i]) + " exposed "
+					+ analytics.topSourceDevices()[i] + " mobileIDs.");
+		}
+		long[] histogram = analytics.placeHistogram();
+		for (int b = 0; b < histogram.length; b++) {
+			if (histogram[b] > 0) {
+				System.out.println(histogram[b] + " places with " + ((b == 0) ? "0" : (1L << (b - 1)) + " to "
+						+ ((1L << b) - 1)) + " exposures.");
 			}
 		}
+		System.out.println("Testing constancy of probability for each place.");
+		for (int place = 999; place < mainClass.contact.getNumPlaces(); place += 1000) {
+			System.out.println("Exposure at place " + mainClass.placeDictionary.decode(place)
+					+ " leads to infection with probability " + mainClass.variableModel.infectionProbability(place));
+		}
 		
 		
 		
-		System.out.println("Sources: " + mainClass.sourceMobileIDs.toString());
+		System.out.println("Sources: " + mainClass.decode(mainClass.sourceMobileIDs));
 		System.out.println("Constant Probability Final Result: " + mainClass.sourceMobileIDs.size() + " sources led to "
 				+ mainClass.contact.getInfectedMobileIDs().size() + " infected targets.");
-		System.out.println("Targets: " + mainClass.contact.getInfectedMobileIDs().toString());
+		System.out.println("Targets: " + mainClass.decode(mainClass.contact.getInfectedMobileIDs()));
 		System.out.println("Variable Probability Final Result: " + mainClass.sourceMobileIDs.size() + " sources led to "
-				+ mainClass.contact.getVariableRateInfectedMobileIDs().size() + " infected targets.");
-		System.out.println("Targets: " + mainClass.contact.getVariableRateInfectedMobileIDs().toString());
+				+ mainClass.contact.getInfectedMobileIDs(mainClass.variableModel).size() + " infected targets.");
+		System.out.println(
+				"Targets: " + mainClass.decode(mainClass.contact.getInfectedMobileIDs(mainClass.variableModel)));
 
 		/////////////////////////////////// CSV OUTPUT
 		/////////////////////////////////// /////////////////////////////////////////////
-		long identifier = System.currentTimeMillis() % 1000000;
-		String prefix = FilenameUtils.removeExtension(filename); // removes ".csv"
-		SortedSet<Integer> sourcesSorted = new TreeSet<>(mainClass.sourceMobileIDs);
-		SetOfIntegersCSVWriter cw1 = new SetOfIntegersCSVWriter(sourcesSorted);
-		cw1.writeElements(prefix + "-SOURCES-" + identifier);
+		mainClass.writeSourcesAndTargets(filename);
+		System.out.println("Sources and targets written to file.");
+		execution.close();
+	}
+
+	/*
+	 * External IDs of the mobileIDs, in order of code, as in the SOURCES and
+	 * TARGETS files
+	 */
+	private List<String> decode(Set<Integer> mobileIDs) {
+		List<String> ids = new ArrayList<>(mobileIDs.size());
+		for (Integer id : new TreeSet<>(mobileIDs)) {
+			ids.add(this.mobileDictionary.decode(id.intValue()));
+		}
+		return ids;
+	}
+
+	/*
+	 * Writes the SOURCES and TARGETS files, named after the waypoint file.
+	 */
+	void writeSourcesAndTargets(String waypointFilename) {
+		String prefix = WaypointInput.baseName(waypointFilename); // removes ".csv" or ".csv.gz"
+		SortedSet<Integer> sourcesSorted = new TreeSet<>(this.sourceMobileIDs);
+		SetOfIntegersCSVWriter cw1 = new SetOfIntegersCSVWriter(sourcesSorted, this.mobileDictionary);
+		cw1.writeElements(prefix + "-SOURCES-" + this.identifier);
 		/*
 		 * Either print the variable probability target list, or the constant
 		 * probability target list
 		 */
-		SortedSet<Integer> targetsSorted = new TreeSet<>();
-		if (mainClass.probabilityVariesByPlaceForTargets) {
-			targetsSorted.addAll(mainClass.contact.getVariableRateInfectedMobileIDs());
-		} else {
-			targetsSorted.addAll(mainClass.contact.getInfectedMobileIDs());
+		SortedSet<Integer> targetsSorted = new TreeSet<>(this.getTargets());
+		SetOfIntegersCSVWriter cw2 = new SetOfIntegersCSVWriter(targetsSorted, this.mobileDictionary);
+		cw2.writeElements(prefix + "-TARGETS-" + this.identifier);
+		if (this.checkpoint != null) {
+			this.checkpoint.clear(); // the run is complete
 		}
-		SetOfIntegersCSVWriter cw2 = new SetOfIntegersCSVWriter(targetsSorted);
-		cw2.writeElements(prefix + "-TARGETS-" + identifier);
-		System.out.println("Sources and targets written to file.");
+	}
+
+	private Set<Integer> getTargets() {
+		return this.contact.getInfectedMobileIDs(
+				this.probabilityVariesByPlaceForTargets ? this.variableModel : this.constantModel);
+	}
+
+	/*
+	 * Counts reported for this file in the batch summary, in the order of
+	 * BatchRunner.SUMMARY_HEADER after the file name.
+	 */
+	long[] summaryCounts() {
+		return new long[] { this.mobileDictionary.size(), this.sourceMobileIDs.size(),
+				this.contact.getExposedMobileIDs().size(), this.contact.exposureCountSummary().getSum(),
+				this.getTargets().size() };
 	}
 }
@@ -0,0 +1,273 @@
+package mainpackage;
+
+/**
+ * Loads a waypoint file once, and answers queries about it over HTTP on
+ * localhost, until stopped:
+ *
+ * GET /exposures?sources=A,B,C[&width=w][&from=a&to=b]
+ * GET /infections?sources=A,B,C&p=0.1&seed=s[&width=w][&from=a&to=b][&model=constant|place]
+ * GET /contacts?device=X[&window=w]
+ *
+ * IDs are those of the waypoint file. Widths and windows are in days; with
+ * from and to, only waypoints with from <= timestamp < to are considered, and
+ * only the days they span are read.
+ * Requests run concurrently on a bounded pool of threads; the indexes they
+ * share are never modified after loading.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import simulators.ConstantRateModel;
+import simulators.ContactEngine;
+import simulators.ContactQueries;
+import simulators.InfectionModel;
+import simulators.PlaceDependentRateModel;
+import utilities.EncodedWaypointCSVReader;
+import utilities.IDDictionary;
+import utilities.Window;
+
+public class QueryServer {
+	final double sojournWidth = 1.0 / 48.0; // unit = days
+	final int defaultPort = 8080;
+	final int queuedRequests = 256; // beyond this, the accepting thread runs requests itself
+	private final IDDictionary mobileDictionary;
+	private final ContactQueries queries;
+
+	/**
+	 * Thrown for a malformed request; answered with status 400.
+	 */
+	private static final class BadRequestException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BadRequestException(String message) {
+			super(message);
+		}
+	}
+
+	public QueryServer(String waypointFilename) {
+		EncodedWaypointCSVReader wpReader = new EncodedWaypointCSVReader(waypointFilename);
+		this.mobileDictionary = wpReader.getMobileDictionary();
+		this.queries = new ContactQueries(this.sojournWidth, wpReader.getColumns(), wpReader.numMobileIDs(),
+				wpReader.numPlaceIDs());
+	}
+
+	/**
+	 * Binds to localhost only, and serves until the process is stopped.
+	 */
+	public void serve(int port) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(this.queuedRequests), new ThreadPoolExecutor.CallerRunsPolicy());
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/exposures", exchange -> this.respond(exchange, this::exposures));
+		server.createContext("/infections", exchange -> this.respond(exchange, this::infections));
+		server.createContext("/contacts", exchange -> this.respond(exchange, this::contacts));
+		server.setExecutor(executor);
+		server.start();
+		System.out.println("Serving queries on http://localhost:" + port + " with " + threads + " threads.");
+	}
+
+	private String exposures(Map<String, String> parameters) {
+		Set<Integer> sources = this.sources(parameters);
+		ContactEngine engine = this.engineFor(sources, parameters);
+		LongSummaryStatistics summary = engine.exposureCountSummary();
+		Map<String, Integer> byDevice = new TreeMap<>();
+		for (Integer d : engine.getExposedMobileIDs()) {
+			byDevice.put(this.mobileDictionary.decode(d), engine.getExposureLists().count(d));
+		}
+		return "{\"sources\": " + sources.size() + ", \"exposed\": " + summary.getCount() + ", \"exposures\": "
+				+ summary.getSum() + ", \"vulnerable\": " + engine.getVulnerableMobileIDs().size()
+				+ ", \"exposuresByDevice\": " + toJson(byDevice) + "}";
+	}
+
+	private String infections(Map<String, String> parameters) {
+		Set<Integer> sources = this.sources(parameters);
+		double p = this.doubleParameter(parameters, "p", Double.NaN);
+		if (!(p > 0.0 && p < 1.0)) {
+			throw new BadRequestException("p must be given, with 0 < p < 1");
+		}
+		long seed = this.longParameter(parameters, "seed");
+		String modelName = parameters.getOrDefault("model", "constant");
+		InfectionModel model;
+		if (modelName.equals("constant")) {
+			model = new ConstantRateModel(p);
+		} else if (modelName.equals("place")) {
+			model = new PlaceDependentRateModel(p, seed);
+		} else {
+			throw new BadRequestException("Unknown model " + modelName);
+		}
+		ContactEngine engine = this.engineFor(sources, parameters);
+		engine.registerModel(model);
+		engine.simulateInfections(seed);
+		Set<String> infected = new TreeSet<>();
+		for (Integer d : engine.getInfectedMobileIDs(model)) {
+			infected.add(this.mobileDictionary.decode(d));
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"model\": \"").append(model.getName()).append("\", \"infected\": [");
+		String separator = "";
+		for (String id : infected) {
+			sb.append(separator).append(quote(id));
+			separator = ", ";
+		}
+		return sb.append("]}").toString();
+	}
+
+	private String contacts(Map<String, String> parameters) {
+		String device = parameters.get("device");
+		if (device == null) {
+			throw new BadRequestException("device must be given");
+		}
+		int d = this.mobileDictionary.codeOf(device);
+		if (d < 0) {
+			throw new BadRequestException("Unknown device " + device);
+		}
+		double window = this.doubleParameter(parameters, "window", this.queries.getDefaultWidth());
+		Map<String, Integer> byDevice = new TreeMap<>();
+		for (Map.Entry<Integer, Integer> e : this.queries.contactsOf(d, window).entrySet()) {
+			byDevice.put(this.mobileDictionary.decode(e.getKey()), e.getValue());
+		}
+		return "{\"device\": " + quote(device) + ", \"waypoints\": " + this.queries.waypointCount(d)
+				+ ", \"contacts\": " + toJson(byDevice) + "}";
+	}
+
+	private ContactEngine engineFor(Set<Integer> sources, Map<String, String> parameters) {
+		double width = this.doubleParameter(parameters, "width", this.queries.getDefaultWidth());
+		Window window = new Window(this.doubleParameter(parameters, "from", Double.NEGATIVE_INFINITY),
+				this.doubleParameter(parameters, "to", Double.POSITIVE_INFINITY));
+		return this.queries.engineFor(sources, width, window);
+	}
+
+	private Set<Integer> sources(Map<String, String> parameters) {
+		String list = parameters.get("sources");
+		if (list == null || list.isBlank()) {
+			throw new BadRequestException("sources must be given, separated by commas");
+		}
+		Set<Integer> sources = new HashSet<>();
+		for (String id : list.split(",")) {
+			int code = this.mobileDictionary.codeOf(id.trim());
+			if (code < 0) {
+				throw new BadRequestException("Unknown source " + id.trim());
+			}
+			sources.add(Integer.valueOf(code));
+		}
+		return sources;
+	}
+
+	private double doubleParameter(Map<String, String> parameters, String name, double defaultValue) {
+		String value = parameters.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException ex) {
+			throw new BadRequestException(name + " is not a number: " + value);
+		}
+	}
+
+	private long longParameter(Map<String, String> parameters, String name) {
+		String value = parameters.get(name);
+		if (value == null) {
+			throw new BadRequestException(name + " must be given");
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException ex) {
+			throw new BadRequestException(name + " is not an integer: " + value);
+		}
+	}
+
+	private void respond(HttpExchange exchange, Function<Map<String, String>, String> query) throws IOException {
+		int status;
+		String body;
+		long start = System.nanoTime();
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				throw new BadRequestException("Only GET is supported");
+			}
+			body = query.apply(parseQuery(exchange.getRequestURI().getRawQuery()));
+			status = 200;
+		} catch (BadRequestException ex) {
+			body = "{\"error\": " + quote(ex.getMessage()) + "}";
+			status = 400;
+		} catch (RuntimeException ex) {
+			System.out.println(ex.toString());
+			body = "{\"error\": " + quote(ex.toString()) + "}";
+			status = 500;
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+		System.out.println(exchange.getRequestURI() + " answered with status " + status + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms.");
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	private static String toJson(Map<String, Integer> map) {
+		StringBuilder sb = new StringBuilder("{");
+		String separator = "";
+		for (Map.Entry<String, Integer> e : map.entrySet()) {
+			sb.append(separator).append(quote(e.getKey())).append(": ").append(e.getValue());
+			separator = ", ";
+		}
+		return sb.append("}").toString();
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 *
+	 * @param args path to input file of FractalRabbit waypoints, optionally
+	 *             followed by the port
+	 */
+	public static void main(String[] args) {
+		System.out.println("Java Runtime " + Runtime.version().toString());
+		QueryServer queryServer = new QueryServer(args[0]);
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : queryServer.defaultPort;
+		try {
+			queryServer.serve(port);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not start the query server on port " + port);
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import utilities.DeviceIndex;
+import utilities.SojournIndex;
+import utilities.WaypointColumns;
+
+/**
+ * Estimates of the exposures from samples, for a quick first look at a
+ * scenario, without building the exposure lists. Only the source sojourns are
+ * needed in full.
+ *
+ * Places: exposures can only happen at places with source sojourns. These are
+ * stratified by the number of sojourns, in powers of two, since places with
+ * more sojourns tend to have more exposures. A fixed fraction of each stratum
+ * (at least two places) is sampled, chosen by a hash of the placeID. One pass
+ * over the rows counts the exposures at the sampled places exactly, with no
+ * searches at the others. The stratified estimate of the total has a variance
+ * that is estimated from the sample.
+ *
+ * Devices: the number of exposed devices and the distribution of exposures
+ * per device are not sums over places. A device exposed at two places would
+ * be counted twice. So they come from a Bernoulli sample of the non-source
+ * devices, again chosen by hash, whose rows are read through the device index.
+ * Each sampled device stands for 1 / rate devices (Horvitz-Thompson).
+ *
+ * Error bounds are half widths of normal 95% intervals.
+ */
+public final class ApproximateExposures {
+
+	static final double Z95 = 1.959964; // two-sided 95% normal quantile
+	static final int MIN_PER_STRATUM = 2; // so that each stratum has a sample variance
+
+	private final double placeRate, deviceRate;
+	private final int placesWithSojourns, sampledPlaces, sampledDevices;
+	private final double[] totalExposures; // estimate, half width
+	private final double[] exposedDevices; // estimate, half width
+	private final double[] placeHistogram; // estimated number of places with exposures in [2^(b-1), 2^b)
+	private final ExposureStatistics deviceSample;
+
+	/**
+	 * Estimate with its error bound.
+	 */
+	public static final class Estimate {
+		private final double value, halfWidth;
+
+		Estimate(double[] estimate) {
+			this.value = estimate[0];
+			this.halfWidth = estimate[1];
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		/**
+		 * @return half width of the 95% confidence interval
+		 */
+		public double getHalfWidth() {
+			return halfWidth;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.1f +/- %.1f", this.value, this.halfWidth);
+		}
+	}
+
+	/**
+	 * @param sojourns     source sojourns
+	 * @param waypoints    all waypoints, with dense mobileIDs and placeIDs
+	 * @param devices      device index of the waypoints
+	 * @param isSource     true for the source mobileIDs
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param placeRate    fraction of each stratum of places sampled, in (0, 1]
+	 * @param deviceRate   probability that a device is sampled, in (0, 1]
+	 * @param seed         of the hashes choosing the samples
+	 */
+	public ApproximateExposures(SojournIndex sojourns, WaypointColumns waypoints, DeviceIndex devices,
+			IntPredicate isSource, int numMobileIDs, double placeRate, double deviceRate, long seed) {
+		this(sojourns, waypoints, devices, isSource, numMobileIDs, placeRate, deviceRate, seed,
+				ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, with the scans of rows and devices run and sized as configured.
+	 */
+	public ApproximateExposures(SojournIndex sojourns, WaypointColumns waypoints, DeviceIndex devices,
+			IntPredicate isSource, int numMobileIDs, double placeRate, double deviceRate, long seed,
+			ExecutionConfig execution) {
+		if (!(placeRate > 0.0 && placeRate <= 1.0 && deviceRate > 0.0 && deviceRate <= 1.0)) {
+			throw new IllegalArgumentException("Sampling rates must be in (0, 1]");
+		}
+		this.placeRate = placeRate;
+		this.deviceRate = deviceRate;
+		/*
+		 * Strata of places with sojourns; within each, the places with the smallest
+		 * hashes are sampled
+		 */
+		int numPlaces = sojourns.numPlaces();
+		int[] stratumOf = new int[numPlaces];
+		int[] stratumSize = new int[Integer.SIZE];
+		int withSojourns = 0;
+		for (int v = 0; v < numPlaces; v++) {
+			stratumOf[v] = -1;
+			if (sojourns.hasSojourns(v)) {
+				stratumOf[v] = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(sojourns.count(v));
+				stratumSize[stratumOf[v]]++;
+				withSojourns++;
+			}
+		}
+		this.placesWithSojourns = withSojourns;
+		long[][] keys = new long[Integer.SIZE][];
+		int[] filled = new int[Integer.SIZE];
+		for (int h = 0; h < Integer.SIZE; h++) {
+			keys[h] = new long[stratumSize[h]];
+		}
+		for (int v = 0; v < numPlaces; v++) {
+			if (stratumOf[v] >= 0) {
+				/*
+				 * High half orders by hash, low half holds the placeID
+				 */
+				keys[stratumOf[v]][filled[stratumOf[v]]++] = (mix(v ^ seed) & 0xFFFFFFFF00000000L) | v;
+			}
+		}
+		int[] sampleSize = new int[Integer.SIZE];
+		int[] slotOf = new int[numPlaces];
+		Arrays.fill(slotOf, -1);
+		int[] slotStratum = new int[withSojourns];
+		int slots = 0;
+		for (int h = 0; h < Integer.SIZE; h++) {
+			if (stratumSize[h] == 0) {
+				continue;
+			}
+			Arrays.sort(keys[h]);
+			sampleSize[h] = (int) Math.min(stratumSize[h],
+					Math.max(MIN_PER_STRATUM, Math.ceil(placeRate * stratumSize[h])));
+			for (int j = 0; j < sampleSize[h]; j++) {
+				int v = (int) keys[h][j];
+				slotOf[v] = slots;
+				slotStratum[slots++] = h;
+			}
+		}
+		this.sampledPlaces = slots;
+		int rowGrain = execution.grain(ExecutionConfig.Phase.EXPOSURE_ROWS, waypoints.size());
+		long[] exposuresAt = execution.invoke(
+				new PlaceSampleTask(sojourns, waypoints, isSource, slotOf, slots, rowGrain, 0, waypoints.size()));
+		/*
+		 * Stratified estimate of the total, and of the histogram of places by
+		 * exposures
+		 */
+		double[] sum = new double[Integer.SIZE], sumOfSquares = new double[Integer.SIZE];
+		this.placeHistogram = new double[Integer.SIZE + 1];
+		this.placeHistogram[0] = numPlaces - withSojourns;
+		for (int j = 0; j < slots; j++) {
+			int h = slotStratum[j];
+			double y = exposuresAt[j];
+			sum[h] += y;
+			sumOfSquares[h] += y * y;
+			int bin = Long.SIZE - Long.numberOfLeadingZeros(exposuresAt[j]);
+			this.placeHistogram[Math.min(bin, Integer.SIZE)] += (double) stratumSize[h] / sampleSize[h];
+		}
+		double total = 0.0, variance = 0.0;
+		for (int h = 0; h < Integer.SIZE; h++) {
+			int n = sampleSize[h], bigN = stratumSize[h];
+			if (n == 0) {
+				continue;
+			}
+			double mean = sum[h] / n;
+			total += bigN * mean;
+			if (n > 1 && n < bigN) {
+				double s2 = Math.max(0.0, (sumOfSquares[h] - n * mean * mean) / (n - 1));
+				variance += (double) bigN * bigN * (1.0 - (double) n / bigN) * s2 / n;
+			}
+		}
+		this.totalExposures = new double[] { total, Z95 * Math.sqrt(variance) };
+		/*
+		 * Bernoulli sample of devices: each exposed device in the sample stands for
+		 * 1 / rate, with variance (1 - rate) / rate^2
+		 */
+		int deviceGrain = execution.grain(ExecutionConfig.Phase.DEVICE_SCAN, numMobileIDs);
+		this.deviceSample = execution.invoke(new DeviceSampleTask(sojourns, waypoints, devices, isSource, deviceRate,
+				seed, deviceGrain, 0, numMobileIDs));
+		this.deviceSample.freeze();
+		IntStream ids = IntStream.range(0, numMobileIDs);
+		if (execution.isParallel(ExecutionConfig.Phase.PLACE_SET, numMobileIDs)) {
+			ids = ids.parallel();
+		}
+		this.sampledDevices = (int) ids.filter(d -> !isSource.test(d) && sampled(d, seed, deviceRate)).count();
+		double exposedInSample = this.deviceSample.getDevices();
+		this.exposedDevices = new double[] { exposedInSample / deviceRate,
+				Z95 * Math.sqrt(exposedInSample * (1.0 - deviceRate)) / deviceRate };
+	}
+
+	/*
+	 * Murmur3 finalizer, so that consecutive IDs get unrelated hashes
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	/*
+	 * True for a fraction rate of the mobileIDs
+	 */
+	private static boolean sampled(int mobileID, long seed, double rate) {
+		return (mix(mobileID ^ Long.rotateLeft(seed, 32)) >>> 11) * 0x1.0p-53 < rate;
+	}
+
+	/**
+	 * @return estimated total number of exposures, from the sampled places
+	 */
+	public Estimate totalExposures() {
+		return new Estimate(this.totalExposures);
+	}
+
+	/**
+	 * @return estimated number of devices with at least one exposure, from the
+	 *         sampled devices
+	 */
+	public Estimate exposedDevices() {
+		return new Estimate(this.exposedDevices);
+	}
+
+	/**
+	 * @return estimated pairs (k, N(k)), where N(k) is the number of mobileIDs
+	 *         with k >= 1 exposures
+	 */
+	public Map<Long, Double> tally() {
+		Map<Long, Double> tally = new TreeMap<>();
+		for (Map.Entry<Long, Long> e : this.deviceSample.tally().entrySet()) {
+			tally.put(e.getKey(), e.getValue() / this.deviceRate);
+		}
+		return tally;
+	}
+
+	/**
+	 * @return estimated number of places with 0 exposures (b = 0), or with 2^(b-1)
+	 *         to 2^b - 1 exposures, as in ExposureAnalytics.placeHistogram()
+	 */
+	public double[] placeHistogram() {
+		return this.placeHistogram.clone();
+	}
+
+	/**
+	 * @return exposures of the sampled devices, which are the same as in the exact
+	 *         exposure lists
+	 */
+	public ExposureStatistics getDeviceSample() {
+		return deviceSample;
+	}
+
+	public int getPlacesWithSojourns() {
+		return placesWithSojourns;
+	}
+
+	public int getSampledPlaces() {
+		return sampledPlaces;
+	}
+
+	public int getSampledDevices() {
+		return sampledDevices;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s exposures from %d of %d places with sojourns (rate %.4f); "
+						+ "%s exposed devices from %d sampled devices (rate %.4f)",
+				this.totalExposures(), this.sampledPlaces, this.placesWithSojourns, this.placeRate,
+				this.exposedDevices(), this.sampledDevices, this.deviceRate);
+	}
+
+	/*
+	 * Exposures at each sampled place, from rows [from, to).
+	 */
+	private static final class PlaceSampleTask extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final WaypointColumns waypoints;
+		private final IntPredicate isSource;
+		private final int[] slotOf; // -1 for places not sampled
+		private final int slots, grain, from, to;
+
+		PlaceSampleTask(SojournIndex sojourns, WaypointColumns waypoints, IntPredicate isSource, int[] slotOf,
+				int slots, int grain, int from, int to) {
+			this.sojourns = sojourns;
+			this.waypoints = waypoints;
+			this.isSource = isSource;
+			this.slotOf = slotOf;
+			this.slots = slots;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				PlaceSampleTask right = new PlaceSampleTask(this.sojourns, this.waypoints, this.isSource, this.slotOf,
+						this.slots, this.grain, mid, this.to);
+				right.fork();
+				long[] left = new PlaceSampleTask(this.sojourns, this.waypoints, this.isSource, this.slotOf,
+						this.slots, this.grain, this.from, mid).compute();
+				long[] other = right.join();
+				for (int j = 0; j < this.slots; j++) {
+					left[j] += other[j];
+				}
+				return left;
+			}
+			long[] exposures = new long[this.slots];
+			for (int i = this.from; i < this.to; i++) {
+				int place = this.waypoints.placeID(i);
+				if (place < this.slotOf.length && this.slotOf[place] >= 0
+						&& !this.isSource.test(this.waypoints.mobileID(i))) {
+					exposures[this.slotOf[place]] += this.sojourns.countContaining(place, this.waypoints.timeStamp(i));
+				}
+			}
+			return exposures;
+		}
+	}
+
+	/*
+	 * Exposures of each sampled non-source device among mobileIDs [from, to).
+	 */
+	private static final class DeviceSampleTask extends RecursiveTask<ExposureStatistics> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final WaypointColumns waypoints;
+		private final DeviceIndex devices;
+		private final IntPredicate isSource;
+		private final double rate;
+		private final long seed;
+		private final int grain, from, to;
+
+		DeviceSampleTask(SojournIndex sojourns, WaypointColumns waypoints, DeviceIndex devices, IntPredicate isSource,
+				double rate, long seed, int grain, int from, int to) {
+			this.sojourns = sojourns;
+			this.waypoints = waypoints;
+			this.devices = devices;
+			this.isSource = isSource;
+			this.rate = rate;
+			this.seed = seed;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected ExposureStatistics compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				DeviceSampleTask right = new DeviceSampleTask(this.sojourns, this.waypoints, this.devices,
+						this.isSource, this.rate, this.seed, this.grain, mid, this.to);
+				right.fork();
+				ExposureStatistics left = new DeviceSampleTask(this.sojourns, this.waypoints, this.devices,
+						this.isSource, this.rate, this.seed, this.grain, this.from, mid).compute();
+				left.merge(right.join());
+				return left;
+			}
+			ExposureStatistics statistics = new ExposureStatistics();
+			for (int d = this.from; d < this.to; d++) {
+				if (this.isSource.test(d) || !sampled(d, this.seed, this.rate)) {
+					continue;
+				}
+				int k = 0;
+				for (int r = this.devices.start(d); r < this.devices.end(d); r++) {
+					int i = this.devices.row(r);
+					k += this.sojourns.countContaining(this.waypoints.placeID(i), this.waypoints.timeStamp(i));
+				}
+				statistics.acceptDevice(k);
+			}
+			return statistics;
+		}
+	}
+
+}
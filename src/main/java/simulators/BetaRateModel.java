@@ -0,0 +1,53 @@
+/**
+ * Infection probability Z_v at place v, where (Z_v) are independent
+ * Beta(alpha, beta) distributed, with mean alpha / (alpha + beta). The default
+ * shape (0.8, 7.2) has mean 0.1, as in BetaDistributedVariates.
+ */
+package simulators;
+
+import org.apache.commons.math3.distribution.BetaDistribution;
+import org.apache.commons.math3.random.ISAACRandom;
+
+public class BetaRateModel implements InfectionModel {
+	private final double alpha, beta;
+	private final long seed;
+	private double[] probabilities; // indexed by placeID
+
+	public BetaRateModel(long seed) {
+		this(0.8, 7.2, seed);
+	}
+
+	/**
+	 * @param alpha first shape parameter
+	 * @param beta  second shape parameter
+	 * @param seed  for random simulation of probabilities at each place
+	 */
+	public BetaRateModel(double alpha, double beta, long seed) {
+		this.alpha = alpha;
+		this.beta = beta;
+		this.seed = seed;
+		this.probabilities = new double[0];
+	}
+
+	@Override
+	public String getName() {
+		return "Beta(" + this.alpha + ", " + this.beta + ") p";
+	}
+
+	@Override
+	public void assignPlaceProbabilities(int numPlaces) {
+		BetaDistribution betaD = new BetaDistribution(new ISAACRandom(this.seed), this.alpha, this.beta);
+		this.probabilities = betaD.sample(numPlaces);
+	}
+
+	@Override
+	public void restorePlaceProbabilities(double[] probabilities) {
+		this.probabilities = probabilities;
+	}
+
+	@Override
+	public double infectionProbability(int placeID) {
+		return this.probabilities[placeID];
+	}
+
+}
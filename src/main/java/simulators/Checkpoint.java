@@ -0,0 +1,422 @@
+/**
+ *
+ */
+package simulators;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import utilities.IDDictionary;
+import utilities.SojournIndex;
+import utilities.WaypointColumns;
+
+/**
+ * State of a long run, written after each phase so that a restart resumes from
+ * the last phase completed rather than from the waypoint file. Each phase has
+ * its own file in the checkpoint directory of the run, written to a temporary
+ * file and renamed, so a crash mid-write leaves the previous phases intact.
+ *
+ * The files are written straight from the arrays of the engine through a
+ * buffered stream, element by element, so a checkpoint never holds a second
+ * copy of the state in memory. Writing a phase deletes the files of the later
+ * phases, which were computed from the state it replaces.
+ */
+public final class Checkpoint {
+
+	private static final int MAGIC = 0x43434b50; // "CCKP"
+	private static final int VERSION = 3;
+	private static final String SUFFIX = ".ckpt";
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	/**
+	 * Phases of a run, in order; each reads the state of the ones before.
+	 */
+	public enum Phase {
+		LOAD, // dictionary and waypoint columns
+		SOJOURNS, // width, sources and their SojournIndex
+		EXPOSURES, // ExposureLists and vulnerable mobileIDs
+		PLACE_PROBABILITIES, // per model
+		INFECTIONS // per model, with the seed of the trials
+	}
+
+	/**
+	 * Contents of the LOAD phase.
+	 */
+	public static final class Load {
+		private final IDDictionary mobileDictionary, placeDictionary;
+		private final int[] originalPlaceIDs;
+		private final WaypointColumns waypoints;
+
+		Load(IDDictionary mobileDictionary, IDDictionary placeDictionary, int[] originalPlaceIDs,
+				WaypointColumns waypoints) {
+			this.mobileDictionary = mobileDictionary;
+			this.placeDictionary = placeDictionary;
+			this.originalPlaceIDs = originalPlaceIDs;
+			this.waypoints = waypoints;
+		}
+
+		public IDDictionary getMobileDictionary() {
+			return mobileDictionary;
+		}
+
+		public IDDictionary getPlaceDictionary() {
+			return placeDictionary;
+		}
+
+		public int numMobileIDs() {
+			return mobileDictionary.size();
+		}
+
+		public int numPlaces() {
+			return placeDictionary.size();
+		}
+
+		/**
+		 * @return code in the file of each placeID, or null if the placeIDs are
+		 *         those of the file
+		 */
+		public int[] getOriginalPlaceIDs() {
+			return originalPlaceIDs;
+		}
+
+		/**
+		 * @return the waypoints, or null if they were not read
+		 */
+		public WaypointColumns getWaypoints() {
+			return waypoints;
+		}
+	}
+
+	/*
+	 * Writes the body of a phase file
+	 */
+	private interface Body {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private final File directory;
+
+	/**
+	 * @param directory created if it does not exist; one per run, e.g. named
+	 *                  after a hash of the waypoint file and the options
+	 */
+	public Checkpoint(String directory) {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			System.out.println("Could not create checkpoint directory " + directory);
+		}
+	}
+
+	/**
+	 * @return the last phase of an unbroken run of phase files from LOAD, or null
+	 *         if there is no LOAD file
+	 */
+	public Phase lastCompleted() {
+		Phase last = null;
+		for (Phase phase : Phase.values()) {
+			if (!this.has(phase)) {
+				break;
+			}
+			last = phase;
+		}
+		return last;
+	}
+
+	public boolean has(Phase phase) {
+		return this.phaseFile(phase).isFile();
+	}
+
+	/**
+	 * Deletes every phase file, e.g. once the results of the run are written.
+	 */
+	public void clear() {
+		for (Phase phase : Phase.values()) {
+			this.phaseFile(phase).delete();
+		}
+		this.directory.delete();
+	}
+
+	public void writeLoad(WaypointColumns waypoints, IDDictionary mobileDictionary, IDDictionary placeDictionary) {
+		this.writeLoad(waypoints, mobileDictionary, placeDictionary, null);
+	}
+
+	/**
+	 * @param originalPlaceIDs code in the file of each placeID, or null if the
+	 *                         placeIDs are those of the file
+	 */
+	public void writeLoad(WaypointColumns waypoints, IDDictionary mobileDictionary, IDDictionary placeDictionary,
+			int[] originalPlaceIDs) {
+		this.write(Phase.LOAD, out -> {
+			writeDictionary(out, mobileDictionary);
+			writeDictionary(out, placeDictionary);
+			writeInts(out, (originalPlaceIDs == null) ? new int[0] : originalPlaceIDs);
+			out.writeInt(waypoints.size());
+			for (int i = 0; i < waypoints.size(); i++) {
+				out.writeInt(waypoints.mobileID(i));
+				out.writeDouble(waypoints.timeStamp(i));
+				out.writeInt(waypoints.placeID(i));
+			}
+		});
+	}
+
+	/**
+	 * @param withWaypoints false to stop after the dictionary, when a later phase
+	 *                      makes the waypoints unnecessary
+	 */
+	public Load readLoad(boolean withWaypoints) throws IOException {
+		try (DataInputStream in = this.open(Phase.LOAD)) {
+			IDDictionary mobileDictionary = readDictionary(in);
+			IDDictionary placeDictionary = readDictionary(in);
+			int[] originalPlaceIDs = readInts(in);
+			if (originalPlaceIDs.length == 0) {
+				originalPlaceIDs = null;
+			}
+			if (!withWaypoints) {
+				return new Load(mobileDictionary, placeDictionary, originalPlaceIDs, null);
+			}
+			int n = in.readInt();
+			WaypointColumns waypoints = new WaypointColumns(n);
+			for (int i = 0; i < n; i++) {
+				int mobileID = in.readInt();
+				double timeStamp = in.readDouble();
+				waypoints.add(mobileID, timeStamp, in.readInt());
+			}
+			return new Load(mobileDictionary, placeDictionary, originalPlaceIDs, waypoints);
+		}
+	}
+
+	public void writeSojourns(Set<Integer> sources, SojournIndex sojourns) {
+		this.write(Phase.SOJOURNS, out -> {
+			out.writeDouble(sojourns.getWidth());
+			out.writeInt(sources.size());
+			for (Integer id : sources) {
+				out.writeInt(id.intValue());
+			}
+			writeInts(out, sojourns.offsets());
+			out.writeInt(sojourns.startTimes().length);
+			for (double t : sojourns.startTimes()) {
+				out.writeDouble(t);
+			}
+			writeInts(out, sojourns.sourceIDs());
+		});
+	}
+
+	/**
+	 * @param sources filled with the source mobileIDs
+	 */
+	public SojournIndex readSojourns(Set<Integer> sources) throws IOException {
+		try (DataInputStream in = this.open(Phase.SOJOURNS)) {
+			double width = in.readDouble();
+			int numSources = in.readInt();
+			for (int i = 0; i < numSources; i++) {
+				sources.add(Integer.valueOf(in.readInt()));
+			}
+			int[] offsets = readInts(in);
+			double[] startTimes = new double[in.readInt()];
+			for (int i = 0; i < startTimes.length; i++) {
+				startTimes[i] = in.readDouble();
+			}
+			return new SojournIndex(width, offsets, startTimes, readInts(in));
+		}
+	}
+
+	public void writeExposures(ExposureLists exposures, boolean[] isVulnerable) {
+		this.write(Phase.EXPOSURES, out -> {
+			writeInts(out, exposures.offsets());
+			writeInts(out, exposures.places());
+			int count = 0;
+			for (boolean vulnerable : isVulnerable) {
+				count += vulnerable ? 1 : 0;
+			}
+			out.writeInt(count);
+			for (int d = 0; d < isVulnerable.length; d++) {
+				if (isVulnerable[d]) {
+					out.writeInt(d);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param vulnerable filled with the vulnerable mobileIDs
+	 */
+	public ExposureLists readExposures(Set<Integer> vulnerable) throws IOException {
+		try (DataInputStream in = this.open(Phase.EXPOSURES)) {
+			int[] offsets = readInts(in);
+			int[] places = readInts(in);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				vulnerable.add(Integer.valueOf(in.readInt()));
+			}
+			return new ExposureLists(offsets, places);
+		}
+	}
+
+	/**
+	 * Writes the probabilities the models have assigned, by model name.
+	 */
+	public void writePlaceProbabilities(List<InfectionModel> models, int numPlaces) {
+		this.write(Phase.PLACE_PROBABILITIES, out -> {
+			out.writeInt(models.size());
+			out.writeInt(numPlaces);
+			for (InfectionModel model : models) {
+				out.writeUTF(model.getName());
+				for (int v = 0; v < numPlaces; v++) {
+					out.writeDouble(model.infectionProbability(v));
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return probabilities of each place, by model name
+	 */
+	public Map<String, double[]> readPlaceProbabilities() throws IOException {
+		try (DataInputStream in = this.open(Phase.PLACE_PROBABILITIES)) {
+			int numModels = in.readInt();
+			int numPlaces = in.readInt();
+			Map<String, double[]> probabilities = new HashMap<>();
+			for (int i = 0; i < numModels; i++) {
+				String name = in.readUTF();
+				double[] p = new double[numPlaces];
+				for (int v = 0; v < numPlaces; v++) {
+					p[v] = in.readDouble();
+				}
+				probabilities.put(name, p);
+			}
+			return probabilities;
+		}
+	}
+
+	/**
+	 * @param infected parallel to models
+	 */
+	public void writeInfections(long seed, List<InfectionModel> models, List<BitSet> infected) {
+		this.write(Phase.INFECTIONS, out -> {
+			out.writeLong(seed);
+			out.writeInt(models.size());
+			for (int i = 0; i < models.size(); i++) {
+				BitSet bits = infected.get(i);
+				out.writeUTF(models.get(i).getName());
+				out.writeInt(bits.cardinality());
+				for (int d = bits.nextSetBit(0); d >= 0; d = bits.nextSetBit(d + 1)) {
+					out.writeInt(d);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param infected filled with the infected mobileIDs, by model name
+	 * @return seed of the Bernoulli trials
+	 */
+	public long readInfections(Map<String, BitSet> infected) throws IOException {
+		try (DataInputStream in = this.open(Phase.INFECTIONS)) {
+			long seed = in.readLong();
+			int numModels = in.readInt();
+			for (int i = 0; i < numModels; i++) {
+				String name = in.readUTF();
+				BitSet bits = new BitSet();
+				int count = in.readInt();
+				for (int j = 0; j < count; j++) {
+					bits.set(in.readInt());
+				}
+				infected.put(name, bits);
+			}
+			return seed;
+		}
+	}
+
+	/*
+	 * Later phases are deleted first, so that they are never resumed on top of
+	 * the new state; then the phase is written to a temporary file and renamed.
+	 */
+	private void write(Phase phase, Body body) {
+		for (int p = Phase.values().length - 1; p > phase.ordinal(); p--) {
+			this.phaseFile(Phase.values()[p]).delete();
+		}
+		File file = this.phaseFile(phase);
+		File partial = new File(this.directory, phase.name().toLowerCase() + ".partial");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(partial), BUFFER_BYTES))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(phase.ordinal());
+			body.write(out);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not write the " + phase + " checkpoint.");
+			partial.delete();
+			return;
+		}
+		try {
+			Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			System.out.println("Checkpoint written after phase " + phase + ".");
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not write the " + phase + " checkpoint.");
+			partial.delete();
+		}
+	}
+
+	private DataInputStream open(Phase phase) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(this.phaseFile(phase)), BUFFER_BYTES));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != phase.ordinal()) {
+			in.close();
+			throw new IOException("Not a " + phase + " checkpoint of this version: " + this.phaseFile(phase));
+		}
+		return in;
+	}
+
+	private File phaseFile(Phase phase) {
+		return new File(this.directory, phase.name().toLowerCase() + SUFFIX);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int x : values) {
+			out.writeInt(x);
+		}
+	}
+
+	private static void writeDictionary(DataOutputStream out, IDDictionary dictionary) throws IOException {
+		out.writeInt(dictionary.size());
+		for (int code = 0; code < dictionary.size(); code++) {
+			out.writeUTF(dictionary.decode(code));
+		}
+	}
+
+	private static IDDictionary readDictionary(DataInputStream in) throws IOException {
+		IDDictionary dictionary = new IDDictionary();
+		int size = in.readInt();
+		for (int code = 0; code < size; code++) {
+			dictionary.encode(in.readUTF());
+		}
+		return dictionary;
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+}
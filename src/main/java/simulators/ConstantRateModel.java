@@ -0,0 +1,37 @@
+/**
+ * Infection probability p is the same at every place, so k exposures lead to
+ * infection with probability 1 - (1-p)^k, as in CountBasedContactMaker.
+ */
+package simulators;
+
+public class ConstantRateModel implements InfectionModel {
+	private final double transferProb;
+
+	/**
+	 * @param probability infection probability of a single exposure
+	 */
+	public ConstantRateModel(double probability) {
+		this.transferProb = probability;
+	}
+
+	@Override
+	public String getName() {
+		return "constant p = " + this.transferProb;
+	}
+
+	@Override
+	public void assignPlaceProbabilities(int numPlaces) {
+		// nothing to assign
+	}
+
+	@Override
+	public void restorePlaceProbabilities(double[] probabilities) {
+		// the same at every place
+	}
+
+	@Override
+	public double infectionProbability(int placeID) {
+		return this.transferProb;
+	}
+
+}
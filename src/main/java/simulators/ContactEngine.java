@@ -0,0 +1,598 @@
+/**
+ * One engine for the exposure mechanism shared by contactMaker,
+ * CountBasedContactMaker and PlaceDependentContactMaker:
+ *
+ * An exposure means that a mobileID waypoint has time stamp s with
+ * t <= s < t + w
+ * for some time stamp t of a source at the SAME placeID.
+ *
+ * Exposures are computed once, on primitive columns with dense IDs. Any number
+ * of InfectionModels may then be registered; simulateInfections() evaluates all
+ * of them in a single fused pass over the exposure lists, so adding a model
+ * does not add a scan.
+ *
+ * Stages are computed on first access and remembered: a caller asking only for
+ * exposures never samples infections.
+ */
+package simulators;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import utilities.CompressedWaypointStore;
+import utilities.DeviceIndex;
+import utilities.DwellIntervals;
+import utilities.ExposureEventWriter;
+import utilities.SojournIndex;
+import utilities.WaypointColumns;
+
+public class ContactEngine implements ContactMaker<Integer> {
+	double timeWidth;
+	private final int numMobileIDs, numPlaces;
+	private Set<Integer> sourceMobileIDs;
+	private boolean[] isSource, isVulnerable; // indexed by mobileID
+	private SojournIndex sojournIndex;
+	private ExposureLists exposureLists;
+	private final List<InfectionModel> models;
+	private final List<BitSet> infected; // parallel to models; empty until simulated
+	private WaypointColumns waypoints; // null if the indexes were supplied prebuilt, or compressed
+	private CompressedWaypointStore compressedWaypoints; // null unless the waypoints are compressed
+	private DeviceIndex deviceIndex; // null unless supplied with the waypoints
+	private ExposureEventWriter eventWriter; // null for no exposure event log
+	private ExecutionConfig execution;
+	private long infectionSeed;
+	private LazyStage sojournStage, exposureStage, infectionStage;
+	private Checkpoint checkpoint; // null unless phases are checkpointed
+	private Map<String, double[]> restoredProbabilities; // by model name, from a checkpoint; null once used
+	private Map<String, BitSet> restoredInfections; // by model name, from a checkpoint; null once used
+	private long restoredSeed;
+
+	/**
+	 * @param width        sojourn width, in days
+	 * @param sources      dense codes of the source mobileIDs
+	 * @param waypoints    all waypoints, with dense mobileIDs and placeIDs
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param numPlaces    placeIDs are 0, 1, ..., numPlaces - 1
+	 */
+	public ContactEngine(double width, Set<Integer> sources, WaypointColumns waypoints, int numMobileIDs,
+			int numPlaces) {
+		this(width, sources, waypoints, null, numMobileIDs, numPlaces);
+	}
+
+	/**
+	 * As above, with the device index built while loading: the sojourns are built
+	 * from the rows of the sources only.
+	 *
+	 * @param devices null if there is no device index
+	 */
+	public ContactEngine(double width, Set<Integer> sources, WaypointColumns waypoints, DeviceIndex devices,
+			int numMobileIDs, int numPlaces) {
+		this.timeWidth = width;
+		this.numMobileIDs = numMobileIDs;
+		this.numPlaces = numPlaces;
+		this.assignSources(sources);
+		this.models = new ArrayList<>();
+		this.infected = new ArrayList<>();
+		this.waypoints = waypoints;
+		this.deviceIndex = devices;
+		this.infectionSeed = new SplittableRandom().nextLong();
+		this.createStages();
+	}
+
+	/**
+	 * As above, with the waypoints held in compressed blocks, which are decoded
+	 * as each stage scans them.
+	 */
+	public ContactEngine(double width, Set<Integer> sources, CompressedWaypointStore waypoints, int numMobileIDs,
+			int numPlaces) {
+		this.timeWidth = width;
+		this.numMobileIDs = numMobileIDs;
+		this.numPlaces = numPlaces;
+		this.assignSources(sources);
+		this.models = new ArrayList<>();
+		this.infected = new ArrayList<>();
+		this.compressedWaypoints = waypoints;
+		this.infectionSeed = new SplittableRandom().nextLong();
+		this.createStages();
+	}
+
+	/**
+	 * Starts from indexes already built, e.g. by PipelinedIndexBuilder.
+	 */
+	public ContactEngine(Set<Integer> sources, SojournIndex sojourns, ExposureLists exposures,
+			Set<Integer> vulnerable, int numPlaces) {
+		this.timeWidth = sojourns.getWidth();
+		this.numMobileIDs = exposures.numMobileIDs();
+		this.numPlaces = numPlaces;
+		this.assignSources(sources);
+		this.models = new ArrayList<>();
+		this.infected = new ArrayList<>();
+		this.sojournIndex = sojourns;
+		this.exposureLists = exposures;
+		this.isVulnerable = new boolean[this.numMobileIDs];
+		for (Integer id : vulnerable) {
+			this.isVulnerable[id.intValue()] = true;
+		}
+		this.waypoints = null;
+		this.infectionSeed = new SplittableRandom().nextLong();
+		this.createStages();
+		this.sojournStage.markComputed();
+		this.exposureStage.markComputed();
+	}
+
+	/**
+	 * Interval mode: exposures are overlaps of dwell intervals (runs of
+	 * consecutive pings at one place) rather than pings inside sojourns. The
+	 * SojournIndex of the sources is built as well, for getSojournIndex().
+	 */
+	public static ContactEngine fromDwellIntervals(double width, Set<Integer> sources, WaypointColumns waypoints,
+			int numMobileIDs, int numPlaces) {
+		boolean[] isSource = new boolean[numMobileIDs];
+		for (Integer id : sources) {
+			isSource[id.intValue()] = true;
+		}
+		SojournIndex sojourns = new SojournIndex(waypoints, id -> isSource[id], width, numPlaces);
+		DwellIntervals intervals = new DwellIntervals(waypoints, width, numMobileIDs, numPlaces);
+		boolean[] vulnerable = new boolean[numMobileIDs];
+		ExposureLists exposures = ExposureLists.fromDwellIntervals(intervals, id -> isSource[id], numMobileIDs,
+				vulnerable);
+		System.out.println(exposures.totalExposures() + " overlaps of dwell intervals computed.");
+		Set<Integer> vulnerableSet = new HashSet<>();
+		for (int d = 0; d < numMobileIDs; d++) {
+			if (vulnerable[d]) {
+				vulnerableSet.add(Integer.valueOf(d));
+			}
+		}
+		return new ContactEngine(sources, sojourns, exposures, vulnerableSet, numPlaces);
+	}
+
+	/**
+	 * Resumes a run from the last phase of the checkpoint, if it is SOJOURNS or
+	 * later; a checkpoint ending with LOAD is resumed by the caller, who chooses
+	 * the sources. Place probabilities and infections in the checkpoint are used
+	 * by the next simulateInfections(), for the models with the same names. The
+	 * phases completed from now on are written to the checkpoint.
+	 *
+	 * @param load       with the waypoints if the checkpoint ends before EXPOSURES
+	 * @param compressed true to hold those waypoints in compressed blocks
+	 * @return null if the checkpoint has no phase after LOAD
+	 */
+	public static ContactEngine resume(Checkpoint checkpoint, Checkpoint.Load load, boolean compressed)
+			throws IOException {
+		Checkpoint.Phase last = checkpoint.lastCompleted();
+		if (last == null || last == Checkpoint.Phase.LOAD) {
+			return null;
+		}
+		Set<Integer> sources = new HashSet<>();
+		SojournIndex sojourns = checkpoint.readSojourns(sources);
+		ContactEngine engine;
+		if (last == Checkpoint.Phase.SOJOURNS) {
+			WaypointColumns waypoints = load.getWaypoints();
+			engine = compressed
+					? new ContactEngine(sojourns.getWidth(), sources,
+							new CompressedWaypointStore(waypoints, load.numMobileIDs()), load.numMobileIDs(),
+							load.numPlaces())
+					: new ContactEngine(sojourns.getWidth(), sources, waypoints,
+							new DeviceIndex(waypoints, load.numMobileIDs()), load.numMobileIDs(), load.numPlaces());
+			engine.sojournIndex = sojourns;
+			engine.sojournStage.markComputed();
+		} else {
+			Set<Integer> vulnerable = new HashSet<>();
+			ExposureLists exposures = checkpoint.readExposures(vulnerable);
+			engine = new ContactEngine(sources, sojourns, exposures, vulnerable, load.numPlaces());
+		}
+		if (last.compareTo(Checkpoint.Phase.PLACE_PROBABILITIES) >= 0) {
+			engine.restoredProbabilities = checkpoint.readPlaceProbabilities();
+		}
+		if (last == Checkpoint.Phase.INFECTIONS) {
+			engine.restoredInfections = new HashMap<>();
+			engine.restoredSeed = checkpoint.readInfections(engine.restoredInfections);
+		}
+		engine.checkpoint = checkpoint;
+		System.out.println("Resumed from the checkpoint, after phase " + last + ".");
+		return engine;
+	}
+
+	private void createStages() {
+		this.execution = ExecutionConfig.common();
+		this.sojournStage = new LazyStage("source sojourns", () -> this.execution.run(this::buildSojournIndex));
+		this.exposureStage = new LazyStage("exposure lists", () -> this.execution.run(this::buildExposureLists),
+				this.sojournStage);
+		this.infectionStage = new LazyStage("infections", this::sampleInfections, this.exposureStage);
+	}
+
+	/*
+	 * Deterministic extraction from waypoints
+	 */
+	private void buildSojournIndex() {
+		this.requireWaypoints();
+		if (this.compressedWaypoints != null) {
+			this.sojournIndex = new SojournIndex(this.compressedWaypoints, id -> this.isSource[id], this.timeWidth,
+					this.numPlaces);
+		} else if (this.deviceIndex != null) {
+			int[] sources = this.sourceMobileIDs.stream().mapToInt(Integer::intValue).sorted().toArray();
+			this.sojournIndex = new SojournIndex(this.waypoints, this.deviceIndex, sources, this.timeWidth,
+					this.numPlaces);
+		} else {
+			this.sojournIndex = new SojournIndex(this.waypoints, id -> this.isSource[id], this.timeWidth,
+					this.numPlaces);
+		}
+		System.out.println("Number of waypoints attributed to source mobileIDs: " + this.sojournIndex.size());
+		if (this.checkpoint != null) {
+			this.checkpoint.writeSojourns(this.sourceMobileIDs, this.sojournIndex);
+		}
+	}
+
+	private void buildExposureLists() {
+		this.requireWaypoints();
+		this.isVulnerable = new boolean[this.numMobileIDs];
+		if (this.compressedWaypoints != null) {
+			this.exposureLists = ExposureLists.fromStore(this.sojournIndex, this.compressedWaypoints,
+					id -> this.isSource[id], this.numMobileIDs, this.isVulnerable, this.eventWriter, this.execution);
+		} else {
+			this.exposureLists = ExposureLists.fromWaypoints(this.sojournIndex, this.waypoints,
+					id -> this.isSource[id], this.numMobileIDs, this.isVulnerable, this.eventWriter, this.execution);
+		}
+		System.out.println(this.exposureLists.totalExposures() + " exposures computed.");
+		if (this.checkpoint != null) {
+			this.checkpoint.writeExposures(this.exposureLists, this.isVulnerable);
+		}
+	}
+
+	private void requireWaypoints() {
+		if (this.waypoints == null && this.compressedWaypoints == null) {
+			throw new IllegalStateException("Indexes were supplied prebuilt, without waypoints");
+		}
+	}
+
+	private void assignSources(Set<Integer> sources) {
+		this.sourceMobileIDs = sources;
+		this.isSource = new boolean[this.numMobileIDs];
+		for (Integer id : sources) {
+			this.isSource[id.intValue()] = true;
+		}
+	}
+
+	/**
+	 * New sources: sojourns, exposures and infections are recomputed on next
+	 * access.
+	 */
+	public void setSources(Set<Integer> sources) {
+		this.requireWaypoints();
+		this.assignSources(sources);
+		this.sojournStage.invalidate();
+	}
+
+	/**
+	 * New sojourn width: sojourns, exposures and infections are recomputed on next
+	 * access.
+	 */
+	public void setTimeWidth(double width) {
+		this.requireWaypoints();
+		this.timeWidth = width;
+		this.sojournStage.invalidate();
+	}
+
+	/**
+	 * Each exposure found by the next computation of the exposure lists is also
+	 * written, with its source and times, to this log; exposures already computed
+	 * are not recomputed. The caller closes the writer.
+	 *
+	 * @param writer null to stop logging
+	 */
+	public void setExposureEventWriter(ExposureEventWriter writer) {
+		this.requireWaypoints();
+		this.eventWriter = writer;
+	}
+
+	/**
+	 * The sojourns and exposures computed from now on run in the pool of this
+	 * configuration, split as it says; results already computed are kept.
+	 */
+	public void setExecutionConfig(ExecutionConfig execution) {
+		this.execution = execution;
+	}
+
+	/**
+	 * Each phase computed from now on is written to the checkpoint; phases
+	 * already computed are written now, unless the checkpoint has them.
+	 *
+	 * @param checkpoint null to stop checkpointing
+	 */
+	public void setCheckpoint(Checkpoint checkpoint) {
+		this.checkpoint = checkpoint;
+		if (checkpoint == null) {
+			return;
+		}
+		if (this.sojournStage.isComputed() && !checkpoint.has(Checkpoint.Phase.SOJOURNS)) {
+			checkpoint.writeSojourns(this.sourceMobileIDs, this.sojournIndex);
+		}
+		if (this.exposureStage.isComputed() && !checkpoint.has(Checkpoint.Phase.EXPOSURES)) {
+			checkpoint.writeExposures(this.exposureLists, this.isVulnerable);
+		}
+	}
+
+	/**
+	 * New seed for the Bernoulli trials: only infections are recomputed on next
+	 * access.
+	 */
+	public void setInfectionSeed(long seed) {
+		this.infectionSeed = seed;
+		this.infectionStage.invalidate();
+	}
+
+	/**
+	 * Adds a model to those evaluated by simulateInfections().
+	 */
+	public void registerModel(InfectionModel model) {
+		this.models.add(model);
+		this.infectionStage.invalidate();
+	}
+
+	/**
+	 * Fused pass: each exposed mobileID's exposure list is read once, and the
+	 * non-infection probability Prod_i(1 - p_i) is accumulated for every model at
+	 * the same time. Each model then has its own Bernoulli trial per mobileID.
+	 *
+	 * @param seed for the Bernoulli trials; each model gets an independent stream
+	 */
+	public void simulateInfections(long seed) {
+		this.setInfectionSeed(seed);
+		this.infectionStage.ensure();
+	}
+
+	private void sampleInfections() {
+		int m = this.models.size();
+		/*
+		 * Escape probability of one exposure, per model and place
+		 */
+		double[][] escape = new double[m][this.numPlaces];
+		SplittableRandom root = new SplittableRandom(this.infectionSeed);
+		SplittableRandom[] trials = new SplittableRandom[m];
+		this.infected.clear();
+		boolean restored = true;
+		for (int i = 0; i < m; i++) {
+			InfectionModel model = this.models.get(i);
+			double[] probabilities = (this.restoredProbabilities == null) ? null
+					: this.restoredProbabilities.get(model.getName());
+			if (probabilities != null && probabilities.length == this.numPlaces) {
+				model.restorePlaceProbabilities(probabilities);
+			} else {
+				model.assignPlaceProbabilities(this.numPlaces);
+				restored = false;
+			}
+			for (int v = 0; v < this.numPlaces; v++) {
+				escape[i][v] = 1.0 - model.infectionProbability(v);
+			}
+			trials[i] = root.split();
+			this.infected.add(new BitSet(this.numMobileIDs));
+		}
+		this.restoredProbabilities = null;
+		if (this.checkpoint != null && !restored) {
+			this.checkpoint.writePlaceProbabilities(this.models, this.numPlaces);
+		}
+		if (this.restoreInfections()) {
+			return;
+		}
+		double[] product = new double[m];
+		for (int d = 0; d < this.numMobileIDs; d++) {
+			int k = this.exposureLists.count(d);
+			if (k == 0) {
+				continue;
+			}
+			Arrays.fill(product, 1.0);
+			for (int j = 0; j < k; j++) {
+				int v = this.exposureLists.place(d, j);
+				for (int i = 0; i < m; i++) {
+					product[i] *= escape[i][v];
+				}
+			}
+			/*
+			 * Select losers in Bernoulli trials where success means remaining uninfected.
+			 */
+			for (int i = 0; i < m; i++) {
+				if (trials[i].nextDouble() > product[i]) {
+					this.infected.get(i).set(d);
+				}
+			}
+		}
+		for (int i = 0; i < m; i++) {
+			System.out.println(this.infected.get(i).cardinality() + " Infections computed with "
+					+ this.models.get(i).getName());
+		}
+		if (this.checkpoint != null) {
+			this.checkpoint.writeInfections(this.infectionSeed, this.models, this.infected);
+		}
+	}
+
+	/*
+	 * Infections of a resumed run, if the checkpoint has them for every model
+	 */
+	private boolean restoreInfections() {
+		Map<String, BitSet> restored = this.restoredInfections;
+		this.restoredInfections = null;
+		if (restored == null || !this.models.stream().allMatch(model -> restored.containsKey(model.getName()))) {
+			return false;
+		}
+		for (int i = 0; i < this.models.size(); i++) {
+			this.infected.set(i, restored.get(this.models.get(i).getName()));
+			System.out.println(this.infected.get(i).cardinality() + " Infections restored for "
+					+ this.models.get(i).getName());
+		}
+		this.infectionSeed = this.restoredSeed;
+		return true;
+	}
+
+	/**
+	 * @return mobileIDs infected under this model, by the last simulateInfections()
+	 *         or, if there was none, by a simulation with the current seed
+	 */
+	public Set<Integer> getInfectedMobileIDs(InfectionModel model) {
+		int i = this.models.indexOf(model);
+		if (i < 0) {
+			throw new IllegalStateException(model.getName() + " is not registered");
+		}
+		this.infectionStage.ensure();
+		return toSet(this.infected.get(i));
+	}
+
+	/**
+	 * @override
+	 * @return mobileIDs infected under the first registered model
+	 */
+	public Set<Integer> getInfectedMobileIDs() {
+		return this.getInfectedMobileIDs(this.models.get(0));
+	}
+
+	/**
+	 * @override Summary statistics for number of exposures, conditional on at least
+	 *           one exposure event
+	 */
+	public LongSummaryStatistics exposureCountSummary() {
+		this.exposureStage.ensure();
+		return this.exposureLists.statistics().summary();
+	}
+
+	/**
+	 * @override
+	 * @return pairs (k, N(k)), where N(k) is the number of mobileIDs with k
+	 *         exposures
+	 */
+	public Map<Long, Long> tallyExposureStatistics() {
+		this.exposureStage.ensure();
+		return this.exposureLists.statistics().tally();
+	}
+
+	/**
+	 * @return statistics accumulated while the exposures were found
+	 */
+	public ExposureStatistics getExposureStatistics() {
+		this.exposureStage.ensure();
+		return this.exposureLists.statistics();
+	}
+
+	/**
+	 * @override
+	 * @return mobileIDs with at least one exposure
+	 */
+	public Set<Integer> getExposedMobileIDs() {
+		this.exposureStage.ensure();
+		Set<Integer> exposed = new HashSet<>();
+		for (int d = 0; d < this.numMobileIDs; d++) {
+			if (this.exposureLists.count(d) > 0) {
+				exposed.add(Integer.valueOf(d));
+			}
+		}
+		return exposed;
+	}
+
+	/**
+	 * @return non-source mobileIDs which visit places also visited by sources
+	 */
+	public Set<Integer> getVulnerableMobileIDs() {
+		this.exposureStage.ensure();
+		Set<Integer> vulnerable = new HashSet<>();
+		for (int d = 0; d < this.numMobileIDs; d++) {
+			if (this.isVulnerable[d]) {
+				vulnerable.add(Integer.valueOf(d));
+			}
+		}
+		return vulnerable;
+	}
+
+	/**
+	 * Estimates of the exposures from samples of places and devices, without
+	 * computing the exposure lists; only the source sojourns are built in full.
+	 *
+	 * @param placeRate  fraction of the places with sojourns sampled
+	 * @param deviceRate fraction of the devices sampled
+	 * @param seed       of the hashes choosing the samples
+	 */
+	public ApproximateExposures approximate(double placeRate, double deviceRate, long seed) {
+		if (this.waypoints == null) {
+			throw new IllegalStateException("Approximate exposures need the waypoint columns");
+		}
+		this.sojournStage.ensure();
+		DeviceIndex devices = (this.deviceIndex != null) ? this.deviceIndex
+				: new DeviceIndex(this.waypoints, this.numMobileIDs);
+		return this.execution.call(() -> new ApproximateExposures(this.sojournIndex, this.waypoints, devices,
+				id -> this.isSource[id], this.numMobileIDs, placeRate, deviceRate, seed, this.execution));
+	}
+
+	/**
+	 * Top k places by exposures, top k sources by devices exposed, and the
+	 * histogram of places by exposures. Sources are ranked only if the waypoints
+	 * are at hand, i.e. not when the indexes were supplied prebuilt.
+	 */
+	public ExposureAnalytics analyze(int k) {
+		this.exposureStage.ensure();
+		int[] devicesBySource = null;
+		if (this.compressedWaypoints != null) {
+			devicesBySource = ExposureAnalytics.devicesExposedBySource(this.sojournIndex, this.compressedWaypoints,
+					id -> this.isSource[id], this.numMobileIDs, this.execution);
+		} else if (this.waypoints != null) {
+			DeviceIndex devices = (this.deviceIndex != null) ? this.deviceIndex
+					: new DeviceIndex(this.waypoints, this.numMobileIDs);
+			devicesBySource = ExposureAnalytics.devicesExposedBySource(this.sojournIndex, this.waypoints, devices,
+					id -> this.isSource[id], this.numMobileIDs, this.execution);
+		}
+		return new ExposureAnalytics(this.exposureLists.statistics().exposuresByPlace(this.numPlaces),
+				devicesBySource, k);
+	}
+
+	private static Set<Integer> toSet(BitSet bits) {
+		Set<Integer> set = new HashSet<>();
+		for (int d = bits.nextSetBit(0); d >= 0; d = bits.nextSetBit(d + 1)) {
+			set.add(Integer.valueOf(d));
+		}
+		return set;
+	}
+
+	/**
+	 * @return the sourceMobileIDs
+	 */
+	public Set<Integer> getSourceMobileIDs() {
+		return sourceMobileIDs;
+	}
+
+	/**
+	 * @return the sojourns of the sources, by place
+	 */
+	public SojournIndex getSojournIndex() {
+		this.sojournStage.ensure();
+		return sojournIndex;
+	}
+
+	/**
+	 * @return the exposures, by mobileID
+	 */
+	public ExposureLists getExposureLists() {
+		this.exposureStage.ensure();
+		return exposureLists;
+	}
+
+	/**
+	 * @return the registered models, in order of registration
+	 */
+	public List<InfectionModel> getModels() {
+		return models;
+	}
+
+	public int getNumMobileIDs() {
+		return numMobileIDs;
+	}
+
+	public int getNumPlaces() {
+		return numPlaces;
+	}
+
+}
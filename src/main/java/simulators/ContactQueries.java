@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import utilities.DeviceIndex;
+import utilities.PlaceBuffers;
+import utilities.SojournIndex;
+import utilities.TimeSegments;
+import utilities.WaypointColumns;
+import utilities.Window;
+
+/**
+ * Read-only indexes of one waypoint file, built once and then shared by any
+ * number of threads answering queries:
+ *
+ * - every waypoint, by day, then by place, sorted by time (TimeSegments);
+ * - the rows of every mobileID (the device index).
+ *
+ * A query for a new source set reads only the rows of the sources and the
+ * waypoints at places the sources visited, on the days it asks about, instead
+ * of the whole file.
+ */
+public final class ContactQueries {
+
+	private final double defaultWidth;
+	private final int numMobileIDs, numPlaces;
+	private final WaypointColumns waypoints;
+	private final TimeSegments segments;
+	private final DeviceIndex devices;
+
+	/**
+	 * @param width        default sojourn width, in days
+	 * @param waypoints    all waypoints, with dense mobileIDs and placeIDs
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param numPlaces    placeIDs are 0, 1, ..., numPlaces - 1
+	 * @param span         length of each time segment, in days
+	 */
+	public ContactQueries(double width, WaypointColumns waypoints, int numMobileIDs, int numPlaces, double span) {
+		this.defaultWidth = width;
+		this.numMobileIDs = numMobileIDs;
+		this.numPlaces = numPlaces;
+		this.waypoints = waypoints;
+		this.segments = new TimeSegments(waypoints, numPlaces, span);
+		this.devices = new DeviceIndex(waypoints, numMobileIDs);
+		System.out.println("Device index built for " + waypoints.size() + " waypoints.");
+	}
+
+	public ContactQueries(double width, WaypointColumns waypoints, int numMobileIDs, int numPlaces) {
+		this(width, waypoints, numMobileIDs, numPlaces, 1.0);
+	}
+
+	/**
+	 * Computes the sojourns and exposures of this source set. The engine returned
+	 * belongs to the caller; the shared indexes are only read.
+	 */
+	public ContactEngine engineFor(Set<Integer> sources) {
+		return this.engineFor(sources, this.defaultWidth, null);
+	}
+
+	public ContactEngine engineFor(Set<Integer> sources, double width) {
+		return this.engineFor(sources, width, null);
+	}
+
+	/**
+	 * As if the waypoint file held only the waypoints with timestamps in the
+	 * window: only the segments overlapping it are read.
+	 *
+	 * @param window null for all time
+	 */
+	public ContactEngine engineFor(Set<Integer> sources, double width, Window window) {
+		if (window == null) {
+			window = new Window(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		}
+		boolean[] isSource = new boolean[this.numMobileIDs];
+		PlaceBuffers sourceBuffers = new PlaceBuffers(this.numPlaces);
+		for (Integer id : sources) {
+			int d = id.intValue();
+			isSource[d] = true;
+			for (int r = this.devices.start(d); r < this.devices.end(d); r++) {
+				int row = this.devices.row(r);
+				if (window.contains(this.waypoints.timeStamp(row))) {
+					sourceBuffers.add(this.waypoints.placeID(row), this.waypoints.timeStamp(row), d);
+				}
+			}
+		}
+		SojournIndex sojourns = new SojournIndex(sourceBuffers, width);
+		ExposureLists.PairBuffer pairs = new ExposureLists.PairBuffer();
+		Set<Integer> vulnerable = new HashSet<>();
+		if (this.segments.numSegments() > 0) {
+			for (int k = this.segments.firstSegment(window); k <= this.segments.lastSegment(window); k++) {
+				this.addExposures(k, sojourns, isSource, window, pairs, vulnerable);
+			}
+		}
+		return new ContactEngine(sources, sojourns, pairs.toExposureLists(this.numMobileIDs), vulnerable,
+				this.numPlaces);
+	}
+
+	/*
+	 * Exposures of the non-source waypoints of segment k. Sojourns which began in
+	 * an earlier segment are in the index too, so exposures spilling over a
+	 * segment boundary are found.
+	 */
+	private void addExposures(int k, SojournIndex sojourns, boolean[] isSource, Window window,
+			ExposureLists.PairBuffer pairs, Set<Integer> vulnerable) {
+		SojournIndex segment = this.segments.segment(k);
+		double[] times = segment.startTimes();
+		int[] ids = segment.sourceIDs();
+		for (int v = 0; v < sojourns.numPlaces(); v++) {
+			if (!sojourns.hasSojourns(v)) {
+				continue;
+			}
+			int from = this.segments.lowerBound(k, v, window.startTime());
+			int to = this.segments.lowerBound(k, v, window.endTime());
+			for (int j = from; j < to; j++) {
+				if (!isSource[ids[j]]) {
+					vulnerable.add(Integer.valueOf(ids[j]));
+					pairs.add(ids[j], v, sojourns.countContaining(v, times[j]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param mobileID the device whose contacts are wanted
+	 * @param window   two waypoints are in contact if they are at the same place
+	 *                 and their timestamps differ by less than window
+	 * @return for each other mobileID in contact with this one, the number of
+	 *         pairs of waypoints in contact
+	 */
+	public Map<Integer, Integer> contactsOf(int mobileID, double window) {
+		Map<Integer, Integer> contacts = new HashMap<>();
+		for (int r = this.devices.start(mobileID); r < this.devices.end(mobileID); r++) {
+			int row = this.devices.row(r);
+			int v = this.waypoints.placeID(row);
+			double t = this.waypoints.timeStamp(row);
+			for (int k = this.segments.segmentOf(t - window); k <= this.segments.segmentOf(t + window); k++) {
+				int[] ids = this.segments.segment(k).sourceIDs();
+				int to = this.segments.lowerBound(k, v, t + window);
+				for (int j = this.segments.lowerBound(k, v, Math.nextUp(t - window)); j < to; j++) {
+					if (ids[j] != mobileID) {
+						contacts.merge(Integer.valueOf(ids[j]), 1, Integer::sum);
+					}
+				}
+			}
+		}
+		return contacts;
+	}
+
+	/**
+	 * @return number of waypoints of this mobileID
+	 */
+	public int waypointCount(int mobileID) {
+		return this.devices.count(mobileID);
+	}
+
+	public double getDefaultWidth() {
+		return defaultWidth;
+	}
+
+	public int getNumMobileIDs() {
+		return numMobileIDs;
+	}
+
+	public int getNumPlaces() {
+		return numPlaces;
+	}
+
+}
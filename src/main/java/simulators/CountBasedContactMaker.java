@@ -17,16 +17,20 @@
 package simulators;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.LongSummaryStatistics;
 import java.util.Map;
 import java.util.Set;
 import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import simulators.ExecutionConfig.Phase;
 import utilities.Sojourn;
 import utilities.Waypoint;
 
@@ -49,11 +53,22 @@ public class CountBasedContactMaker implements ContactMaker<Integer> {
 	double timeWidth, transferProb;
 	private Predicate<Waypoint> waypointComesFromSourceID;
 	private Predicate<Double> infectedGivenExposures;
+	private final ExecutionConfig execution;
 
 	/**
 	 * 
 	 */
 	public CountBasedContactMaker(double width, double probability, Set<Integer> sources, List<Waypoint> waypoints) {
+		this(width, probability, sources, waypoints, ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, with the parallel phases run in the pool of the execution
+	 * configuration, and sequentially for inputs up to its thresholds.
+	 */
+	public CountBasedContactMaker(double width, double probability, Set<Integer> sources, List<Waypoint> waypoints,
+			ExecutionConfig execution) {
+		this.execution = execution;
 		this.timeWidth = width;
 		this.transferProb = probability;
 		this.sourceMobileIDs = sources;
@@ -61,8 +76,10 @@ public class CountBasedContactMaker implements ContactMaker<Integer> {
 		this.waypointComesFromSourceID = (wp) -> this.sourceMobileIDs.contains(Integer.valueOf(wp.mobileID()));
 		g = new SplittableRandom();
 		this.infectedGivenExposures = (k) -> (g.nextDouble() > Math.pow(1.0 - this.transferProb, k));
-		this.aggregateSojournsForEachPlace();
-		this.countExposuresSimulateInfections();
+		this.execution.run(() -> {
+			this.aggregateSojournsForEachPlace();
+			this.countExposuresSimulateInfections();
+		});
 	}
 
 	/**
@@ -74,16 +91,16 @@ public class CountBasedContactMaker implements ContactMaker<Integer> {
 		 * Extract from the waypoint list the "hot" waypoints associated with
 		 * sourceMobileIDs.
 		 */
-		List<Waypoint> sourceWaypoints = this.waypointList.parallelStream().filter(this.waypointComesFromSourceID::test)
-				.collect(Collectors.toUnmodifiableList());
+		List<Waypoint> sourceWaypoints = this.execution.stream(Phase.WAYPOINT_SCAN, this.waypointList)
+				.filter(this.waypointComesFromSourceID::test).collect(Collectors.toUnmodifiableList());
 		System.out.println("Number of waypoints attributed to source mobileIDs: " + sourceWaypoints.size());
 		/*
 		 * Determine the set of places occurring in the list of "hot" waypoints
 		 */
-		Set<Integer> sourcePlaces = sourceWaypoints.parallelStream().mapToInt(wp -> wp.placeID()).distinct().boxed()
-				.collect(Collectors.toUnmodifiableSet());
+		Set<Integer> sourcePlaces = this.execution.stream(Phase.WAYPOINT_SCAN, sourceWaypoints)
+				.mapToInt(wp -> wp.placeID()).distinct().boxed().collect(Collectors.toUnmodifiableSet());
 		System.out.println("Number of distinct placeIDs for source mobileIDs: " + sourcePlaces.size());
-		this.sojournsForEachPlace = sourcePlaces.parallelStream()
+		this.sojournsForEachPlace = this.execution.stream(Phase.PLACE_SET, sourcePlaces)
 				.collect(Collectors.toMap(place -> place, place -> new ArrayList<Sojourn>()));
 		/*
 		 * Whenever a source mobileID visits a hot place, an episode is created for this
@@ -108,37 +125,31 @@ public class CountBasedContactMaker implements ContactMaker<Integer> {
 				.contains(Integer.valueOf(wp.placeID())); // place selector
 		// Logical AND
 		Predicate<Waypoint> isSusceptible = isVulnerable.and((this.waypointComesFromSourceID).negate());
-		List<Waypoint> susceptibleWaypoints = this.waypointList.parallelStream().filter(isSusceptible::test)
-				.collect(Collectors.toList());
+		List<Waypoint> susceptibleWaypoints = this.execution.stream(Phase.WAYPOINT_SCAN, this.waypointList)
+				.filter(isSusceptible::test).collect(Collectors.toList());
 		/*
 		 * Set the exposed mobile IDs as those which are NOT sources, and which sometime
 		 * visited a place visited by a source.
 		 */
-		this.exposedMobileIDs = susceptibleWaypoints.parallelStream().mapToInt(wp -> wp.mobileID()).distinct().boxed()
-				.collect(Collectors.toSet());
+		this.exposedMobileIDs = this.execution.stream(Phase.WAYPOINT_SCAN, susceptibleWaypoints)
+				.mapToInt(wp -> wp.mobileID()).distinct().boxed().collect(Collectors.toSet());
 		System.out.println("Number of non-source mobileIDs which visit places also visited by sources: "
 				+ this.exposedMobileIDs.size());
 		/*
-		 * Key of "exposureCounts" is mobileID. For loop will set values. By
-		 * construction, every waypoint in "susceptibleWaypoints" has a placeID visited
-		 * by one or more sources
+		 * Key of "exposureCounts" is mobileID. By construction, every waypoint in
+		 * "susceptibleWaypoints" has a placeID visited by one or more sources.
+		 *
+		 * Counted in parallel: each task sums its own block of waypoints into its own
+		 * array, indexed by the rank of the mobileID among the exposed ones, and the
+		 * arrays are then added together.
 		 */
-		this.exposureCounts = this.exposedMobileIDs.stream().collect(Collectors.toMap(id -> id, id -> Long.valueOf(0)));
-		long sum, value;
-		Integer place, mobileID;
-		for (Waypoint wp : susceptibleWaypoints) {
-			place = Integer.valueOf(wp.placeID());
-			sum = 0;
-			for (Sojourn soj : this.sojournsForEachPlace.get(place)) {
-				if (soj.contains(wp.timeStamp())) {
-					sum++;
-				}
-			}
-			if (sum > 0) {
-				mobileID = Integer.valueOf(wp.mobileID());
-				value = exposureCounts.get(mobileID);
-				exposureCounts.put(mobileID, value + sum);
-			}
+		int[] ids = this.exposedMobileIDs.stream().mapToInt(Integer::intValue).sorted().toArray();
+		int grain = this.execution.grain(Phase.WAYPOINT_SCAN, susceptibleWaypoints.size());
+		long[] counts = this.execution.invoke(new ExposureCountTask(this.sojournsForEachPlace, susceptibleWaypoints,
+				ids, grain, 0, susceptibleWaypoints.size()));
+		this.exposureCounts = new HashMap<>();
+		for (int k = 0; k < ids.length; k++) {
+			this.exposureCounts.put(Integer.valueOf(ids[k]), Long.valueOf(counts[k]));
 		}
 		System.out.println("Exposures computed");
 		/*
@@ -156,6 +167,64 @@ public class CountBasedContactMaker implements ContactMaker<Integer> {
 
 	}
 
+	/*
+	 * Number of source sojourns at the place of wp which contain its timestamp
+	 */
+	private static long countContaining(Map<Integer, List<Sojourn>> sojournsForEachPlace, Waypoint wp) {
+		long k = 0;
+		for (Sojourn soj : sojournsForEachPlace.get(Integer.valueOf(wp.placeID()))) {
+			if (soj.contains(wp.timeStamp())) {
+				k++;
+			}
+		}
+		return k;
+	}
+
+	/*
+	 * Exposures of waypoints [from, to), summed by the rank of their mobileID in
+	 * the sorted ids.
+	 */
+	private static final class ExposureCountTask extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		private final Map<Integer, List<Sojourn>> sojournsForEachPlace;
+		private final List<Waypoint> waypoints;
+		private final int[] ids;
+		private final int grain, from, to;
+
+		ExposureCountTask(Map<Integer, List<Sojourn>> sojournsForEachPlace, List<Waypoint> waypoints, int[] ids,
+				int grain, int from, int to) {
+			this.sojournsForEachPlace = sojournsForEachPlace;
+			this.waypoints = waypoints;
+			this.ids = ids;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				ExposureCountTask right = new ExposureCountTask(this.sojournsForEachPlace, this.waypoints, this.ids,
+						this.grain, mid, this.to);
+				right.fork();
+				long[] left = new ExposureCountTask(this.sojournsForEachPlace, this.waypoints, this.ids, this.grain,
+						this.from, mid).compute();
+				long[] other = right.join();
+				for (int k = 0; k < left.length; k++) {
+					left[k] += other[k];
+				}
+				return left;
+			}
+			long[] counts = new long[this.ids.length];
+			for (int i = this.from; i < this.to; i++) {
+				Waypoint wp = this.waypoints.get(i);
+				counts[Arrays.binarySearch(this.ids, wp.mobileID())] += countContaining(this.sojournsForEachPlace, wp);
+			}
+			return counts;
+		}
+	}
+
 	/**
 	 * @return the exposureCounts
 	 */
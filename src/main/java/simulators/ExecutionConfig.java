@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Where the parallel phases of a contact maker run, and how finely they are
+ * split: either the common ForkJoinPool, or a dedicated pool with a given
+ * number of threads, and for each phase the input size up to which it runs
+ * sequentially, in one task.
+ *
+ * Work started with run() or invoke() stays in the pool: parallel streams and
+ * fork/join tasks started from inside it use its workers, not those of the
+ * common pool, so a job sharing a host can be held to the cores it is given.
+ */
+public final class ExecutionConfig implements AutoCloseable {
+
+	/*
+	 * Leaf tasks per worker thread of a large input, so that idle workers have
+	 * something to steal
+	 */
+	static final int TASKS_PER_THREAD = 8;
+
+	/**
+	 * Phases whose parallelism is configured separately, with the default size
+	 * up to which each runs sequentially.
+	 */
+	public enum Phase {
+		WAYPOINT_SCAN(1 << 14), // filters and exposure counts over lists of waypoints
+		PLACE_SET(1 << 12), // sets and maps over source places or mobileIDs
+		EXPOSURE_ROWS(1 << 14), // rows of waypoint columns scanned for exposures
+		EXPOSURE_BLOCKS(16), // compressed blocks scanned for exposures
+		EXPOSURE_PLACES(1 << 8), // places of pipelined buffers scanned for exposures
+		DEVICE_SCAN(1 << 10); // devices whose rows are read through the device index
+
+		private final int defaultThreshold;
+
+		Phase(int defaultThreshold) {
+			this.defaultThreshold = defaultThreshold;
+		}
+
+		public int defaultThreshold() {
+			return this.defaultThreshold;
+		}
+	}
+
+	private static final ExecutionConfig COMMON = new ExecutionConfig(null, defaultThresholds());
+
+	private final ForkJoinPool pool; // null for the common pool
+	private final int[] thresholds; // indexed by Phase.ordinal()
+
+	private ExecutionConfig(ForkJoinPool pool, int[] thresholds) {
+		this.pool = pool;
+		this.thresholds = thresholds;
+	}
+
+	private static int[] defaultThresholds() {
+		return Arrays.stream(Phase.values()).mapToInt(Phase::defaultThreshold).toArray();
+	}
+
+	/**
+	 * @return the common ForkJoinPool, with the default thresholds
+	 */
+	public static ExecutionConfig common() {
+		return COMMON;
+	}
+
+	/**
+	 * @param threads parallelism of a new pool, used only by this configuration
+	 *                and the copies made from it
+	 * @return the new pool, with the default thresholds
+	 */
+	public static ExecutionConfig dedicated(int threads) {
+		return new ExecutionConfig(new ForkJoinPool(threads), defaultThresholds());
+	}
+
+	/**
+	 * @param threshold largest input which the phase processes sequentially, in
+	 *                  one task
+	 * @return a copy with the new threshold, sharing the pool
+	 */
+	public ExecutionConfig withThreshold(Phase phase, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("Threshold of " + phase + " must be positive: " + threshold);
+		}
+		int[] copy = this.thresholds.clone();
+		copy[phase.ordinal()] = threshold;
+		return new ExecutionConfig(this.pool, copy);
+	}
+
+	/**
+	 * @return number of worker threads
+	 */
+	public int parallelism() {
+		return (this.pool == null) ? ForkJoinPool.getCommonPoolParallelism() : this.pool.getParallelism();
+	}
+
+	public int threshold(Phase phase) {
+		return this.thresholds[phase.ordinal()];
+	}
+
+	/**
+	 * @return true if an input of this size is split between tasks
+	 */
+	public boolean isParallel(Phase phase, long size) {
+		return this.parallelism() > 1 && size > this.threshold(phase);
+	}
+
+	/**
+	 * @return size of the leaf tasks splitting an input of this size: at least
+	 *         the threshold, and large enough for TASKS_PER_THREAD tasks per
+	 *         thread; the whole input if it is not split
+	 */
+	public int grain(Phase phase, int size) {
+		if (!this.isParallel(phase, size)) {
+			return Math.max(1, size);
+		}
+		long perTask = ((long) size + (long) this.parallelism() * TASKS_PER_THREAD - 1)
+				/ ((long) this.parallelism() * TASKS_PER_THREAD);
+		return (int) Math.max(this.threshold(phase), perTask);
+	}
+
+	/**
+	 * @return a parallel stream over the elements if there are more than the
+	 *         threshold, otherwise a sequential one; runs in this pool when
+	 *         consumed inside run()
+	 */
+	public <T> Stream<T> stream(Phase phase, Collection<T> elements) {
+		return this.isParallel(phase, elements.size()) ? elements.parallelStream() : elements.stream();
+	}
+
+	/**
+	 * Runs the task in this pool and waits for its result.
+	 */
+	public <T> T invoke(ForkJoinTask<T> task) {
+		return (this.pool == null) ? task.invoke() : this.pool.invoke(task);
+	}
+
+	/**
+	 * Runs the computation in this pool, so that the parallel work it starts
+	 * stays there, and waits for it to finish.
+	 */
+	public void run(Runnable computation) {
+		this.call(() -> {
+			computation.run();
+			return null;
+		});
+	}
+
+	/**
+	 * As run(), returning the result of the computation.
+	 */
+	public <T> T call(Supplier<T> computation) {
+		if (this.pool == null || ForkJoinTask.getPool() == this.pool) {
+			return computation.get();
+		}
+		return this.pool.submit(computation::get).join();
+	}
+
+	/**
+	 * Shuts down a dedicated pool, which is shared with the copies made by
+	 * withThreshold(); the common pool is left running.
+	 */
+	@Override
+	public void close() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append((this.pool == null) ? "common pool" : "dedicated pool").append(" of ").append(this.parallelism())
+				.append(" threads");
+		for (Phase phase : Phase.values()) {
+			sb.append(", ").append(phase).append(" > ").append(this.threshold(phase));
+		}
+		return sb.toString();
+	}
+
+}
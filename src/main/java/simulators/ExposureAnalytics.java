@@ -0,0 +1,311 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+import utilities.CompressedWaypointStore;
+import utilities.DeviceIndex;
+import utilities.SojournIndex;
+import utilities.TopK;
+import utilities.WaypointColumns;
+
+/**
+ * Which places and which sources account for most exposures:
+ *
+ * - the top k places by number of exposures;
+ * - the top k sources by number of distinct devices they exposed, i.e. devices
+ *   with a waypoint inside one of the source's sojourns;
+ * - a histogram of places by number of exposures, in powers of two.
+ *
+ * Rankings are selected with bounded heaps (TopK) in one pass over the counts,
+ * so they stay cheap however many places and sources there are.
+ */
+public final class ExposureAnalytics {
+
+	private final int[] topPlaces, topSources;
+	private final long[] topPlaceExposures, topSourceDevices;
+	private final long[] placeHistogram;
+
+	/**
+	 * @param exposuresByPlace number of exposures at each place
+	 * @param devicesBySource  number of devices exposed by each mobileID, or null
+	 *                         if the sources were not ranked
+	 * @param k                length of each ranking
+	 */
+	public ExposureAnalytics(int[] exposuresByPlace, int[] devicesBySource, int k) {
+		TopK places = new TopK(k);
+		this.placeHistogram = new long[Integer.SIZE + 1];
+		for (int v = 0; v < exposuresByPlace.length; v++) {
+			if (exposuresByPlace[v] > 0) {
+				places.offer(v, exposuresByPlace[v]);
+			}
+			this.placeHistogram[Integer.SIZE - Integer.numberOfLeadingZeros(exposuresByPlace[v])]++;
+		}
+		this.topPlaces = places.ids();
+		this.topPlaceExposures = places.counts();
+		TopK sources = new TopK((devicesBySource == null) ? 0 : k);
+		if (devicesBySource != null) {
+			for (int d = 0; d < devicesBySource.length; d++) {
+				if (devicesBySource[d] > 0) {
+					sources.offer(d, devicesBySource[d]);
+				}
+			}
+		}
+		this.topSources = sources.ids();
+		this.topSourceDevices = sources.counts();
+	}
+
+	/**
+	 * For each non-source waypoint, the sources whose sojourns at its place
+	 * contain it are credited with its device, once per device. Ranges of devices
+	 * are scanned in parallel, as configured, each through the device index with
+	 * its own counts, so one stamp per source is enough to count each device once
+	 * and the counts of the ranges add up.
+	 *
+	 * @return number of distinct devices exposed by each mobileID (0 for
+	 *         non-sources)
+	 */
+	public static int[] devicesExposedBySource(SojournIndex sojourns, WaypointColumns waypoints,
+			DeviceIndex deviceIndex, IntPredicate isSource, int numMobileIDs, ExecutionConfig execution) {
+		Slots slots = new Slots(isSource, numMobileIDs);
+		int grain = execution.grain(ExecutionConfig.Phase.DEVICE_SCAN, numMobileIDs);
+		return slots.toDevices(execution.invoke(
+				new DeviceRangeTask(sojourns, waypoints, deviceIndex, slots, grain, 0, numMobileIDs)));
+	}
+
+	/**
+	 * As above, over ranges of compressed blocks, which are already in device
+	 * order. A device whose rows straddle two ranges is counted by the range
+	 * holding its first row.
+	 */
+	public static int[] devicesExposedBySource(SojournIndex sojourns, CompressedWaypointStore waypoints,
+			IntPredicate isSource, int numMobileIDs, ExecutionConfig execution) {
+		Slots slots = new Slots(isSource, numMobileIDs);
+		int grain = execution.grain(ExecutionConfig.Phase.EXPOSURE_BLOCKS, waypoints.numBlocks());
+		return slots.toDevices(execution.invoke(
+				new BlockRangeTask(sojourns, waypoints, slots, grain, 0, waypoints.numBlocks())));
+	}
+
+	/*
+	 * Sources numbered 0, 1, ..., so that each task counts into arrays as long as
+	 * the list of sources rather than the mobileIDs
+	 */
+	private static final class Slots {
+		final int[] slotOf; // -1 for non-sources
+		final int[] sourceOf;
+
+		Slots(IntPredicate isSource, int numMobileIDs) {
+			this.slotOf = new int[numMobileIDs];
+			int n = 0;
+			for (int d = 0; d < numMobileIDs; d++) {
+				this.slotOf[d] = isSource.test(d) ? n++ : -1;
+			}
+			this.sourceOf = new int[n];
+			for (int d = 0; d < numMobileIDs; d++) {
+				if (this.slotOf[d] >= 0) {
+					this.sourceOf[this.slotOf[d]] = d;
+				}
+			}
+		}
+
+		int[] toDevices(int[] counts) {
+			int[] devices = new int[this.slotOf.length];
+			for (int k = 0; k < counts.length; k++) {
+				devices[this.sourceOf[k]] = counts[k];
+			}
+			return devices;
+		}
+	}
+
+	/*
+	 * Counts of one task, with the device last credited to each source
+	 */
+	private static final class Tally {
+		final int[] devices, lastDevice;
+
+		Tally(int numSources) {
+			this.devices = new int[numSources];
+			this.lastDevice = new int[numSources];
+			Arrays.fill(this.lastDevice, -1);
+		}
+
+		void credit(SojournIndex sojourns, int[] slotOf, int v, double s, int d) {
+			if (!sojourns.hasSojourns(v)) {
+				return;
+			}
+			int end = sojourns.endContaining(v, s);
+			for (int j = sojourns.firstContaining(v, s); j < end; j++) {
+				int k = slotOf[sojourns.sourceID(j)];
+				if (this.lastDevice[k] != d) {
+					this.lastDevice[k] = d;
+					this.devices[k]++;
+				}
+			}
+		}
+	}
+
+	private static int[] add(int[] left, int[] right) {
+		for (int k = 0; k < left.length; k++) {
+			left[k] += right[k];
+		}
+		return left;
+	}
+
+	/*
+	 * Devices exposed by each source among non-source mobileIDs [from, to).
+	 */
+	private static final class DeviceRangeTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final WaypointColumns waypoints;
+		private final DeviceIndex devices;
+		private final Slots slots;
+		private final int grain, from, to;
+
+		DeviceRangeTask(SojournIndex sojourns, WaypointColumns waypoints, DeviceIndex devices, Slots slots,
+				int grain, int from, int to) {
+			this.sojourns = sojourns;
+			this.waypoints = waypoints;
+			this.devices = devices;
+			this.slots = slots;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				DeviceRangeTask right = new DeviceRangeTask(this.sojourns, this.waypoints, this.devices, this.slots,
+						this.grain, mid, this.to);
+				right.fork();
+				int[] left = new DeviceRangeTask(this.sojourns, this.waypoints, this.devices, this.slots, this.grain,
+						this.from, mid).compute();
+				return add(left, right.join());
+			}
+			Tally tally = new Tally(this.slots.sourceOf.length);
+			for (int d = this.from; d < this.to; d++) {
+				if (this.slots.slotOf[d] >= 0) {
+					continue;
+				}
+				for (int r = this.devices.start(d); r < this.devices.end(d); r++) {
+					int i = this.devices.row(r);
+					tally.credit(this.sojourns, this.slots.slotOf, this.waypoints.placeID(i),
+							this.waypoints.timeStamp(i), d);
+				}
+			}
+			return tally.devices;
+		}
+	}
+
+	/*
+	 * Devices exposed by each source among the non-source mobileIDs whose first
+	 * row is in compressed blocks [from, to); the rows of the last device are
+	 * followed into the next blocks.
+	 */
+	private static final class BlockRangeTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final CompressedWaypointStore waypoints;
+		private final Slots slots;
+		private final int grain, from, to;
+
+		BlockRangeTask(SojournIndex sojourns, CompressedWaypointStore waypoints, Slots slots, int grain, int from,
+				int to) {
+			this.sojourns = sojourns;
+			this.waypoints = waypoints;
+			this.slots = slots;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				BlockRangeTask right = new BlockRangeTask(this.sojourns, this.waypoints, this.slots, this.grain, mid,
+						this.to);
+				right.fork();
+				int[] left = new BlockRangeTask(this.sojourns, this.waypoints, this.slots, this.grain, this.from, mid)
+						.compute();
+				return add(left, right.join());
+			}
+			Tally tally = new Tally(this.slots.sourceOf.length);
+			if (this.from == this.to) {
+				return tally.devices;
+			}
+			/*
+			 * The device continuing from the previous range belongs to it; the one
+			 * continuing into the next range belongs to this one
+			 */
+			int head = (this.from > 0 && this.waypoints.lastMobileID(this.from - 1) == this.waypoints
+					.firstMobileID(this.from)) ? this.waypoints.firstMobileID(this.from) : -1;
+			int tail = this.waypoints.lastMobileID(this.to - 1);
+			int end = this.to;
+			while (tail != head && end < this.waypoints.numBlocks() && this.waypoints.firstMobileID(end) == tail) {
+				end++;
+			}
+			CompressedWaypointStore.Block buffer = new CompressedWaypointStore.Block();
+			this.waypoints.scan(this.from, this.to, null, buffer, block -> this.credit(tally, block, head, -1));
+			this.waypoints.scan(this.to, end, null, buffer, block -> this.credit(tally, block, -1, tail));
+			return tally.devices;
+		}
+
+		/*
+		 * Non-source rows of the block other than those of skipped, or only those
+		 * of only if it is not -1
+		 */
+		private void credit(Tally tally, CompressedWaypointStore.Block block, int skipped, int only) {
+			for (int i = 0; i < block.size; i++) {
+				int d = block.mobileIDs[i];
+				if (d != skipped && (only < 0 || d == only) && this.slots.slotOf[d] < 0) {
+					tally.credit(this.sojourns, this.slots.slotOf, block.placeIDs[i], block.timeStamps[i], d);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return placeIDs with the most exposures, most first
+	 */
+	public int[] topPlaces() {
+		return topPlaces;
+	}
+
+	/**
+	 * @return number of exposures at each of topPlaces()
+	 */
+	public long[] topPlaceExposures() {
+		return topPlaceExposures;
+	}
+
+	/**
+	 * @return source mobileIDs which exposed the most devices, most first; empty if
+	 *         the sources were not ranked
+	 */
+	public int[] topSources() {
+		return topSources;
+	}
+
+	/**
+	 * @return number of devices exposed by each of topSources()
+	 */
+	public long[] topSourceDevices() {
+		return topSourceDevices;
+	}
+
+	/**
+	 * @return h, where h[0] is the number of places without exposures and h[b], for
+	 *         b > 0, the number with 2^(b-1) to 2^b - 1 exposures
+	 */
+	public long[] placeHistogram() {
+		return placeHistogram;
+	}
+
+}
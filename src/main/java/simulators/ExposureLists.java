@@ -0,0 +1,595 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+import utilities.CompressedWaypointStore;
+import utilities.DwellIntervals;
+import utilities.ExposureEventWriter;
+import utilities.PlaceBuffers;
+import utilities.SojournIndex;
+import utilities.WaypointColumns;
+
+/**
+ * Primitive form of exposurePlaceListByID, in compressed sparse row layout: the
+ * exposures of mobileID d are the placeIDs at positions offsets[d] ..
+ * offsets[d+1]-1. Each entry is a single exposure, so a place appears once per
+ * source sojourn containing the waypoint.
+ */
+public final class ExposureLists {
+
+	private final int[] offsets;
+	private final int[] places;
+	private ExposureStatistics statistics; // null until first asked for, unless accumulated while built
+
+	/**
+	 * @param offsets length numMobileIDs + 1
+	 * @param places  exposure placeIDs, grouped by mobileID
+	 */
+	public ExposureLists(int[] offsets, int[] places) {
+		this(offsets, places, null);
+	}
+
+	private ExposureLists(int[] offsets, int[] places, ExposureStatistics statistics) {
+		this.offsets = offsets;
+		this.places = places;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Groups unordered (mobileID, placeID) exposure pairs by mobileID, with a
+	 * counting sort.
+	 *
+	 * @param numMobileIDs number of dense mobileIDs
+	 * @param mobileIDs    exposed mobileID of each pair
+	 * @param placeIDs     exposure place of each pair
+	 * @param n            number of pairs
+	 */
+	public static ExposureLists fromPairs(int numMobileIDs, int[] mobileIDs, int[] placeIDs, int n) {
+		/*
+		 * The statistics are accumulated in the passes of the counting sort: devices
+		 * by number of exposures from the counts, and exposures by place from the
+		 * scatter, into one array for all the pairs.
+		 */
+		ExposureStatistics statistics = new ExposureStatistics();
+		int[] offsets = new int[numMobileIDs + 1];
+		for (int i = 0; i < n; i++) {
+			offsets[mobileIDs[i] + 1]++;
+		}
+		for (int d = 0; d < numMobileIDs; d++) {
+			statistics.acceptDevice(offsets[d + 1]);
+			offsets[d + 1] += offsets[d];
+		}
+		int[] next = new int[numMobileIDs];
+		System.arraycopy(offsets, 0, next, 0, numMobileIDs);
+		int[] places = new int[n];
+		for (int i = 0; i < n; i++) {
+			places[next[mobileIDs[i]]++] = placeIDs[i];
+			statistics.acceptPlace(placeIDs[i], 1);
+		}
+		statistics.freeze();
+		return new ExposureLists(offsets, places, statistics);
+	}
+
+	/**
+	 * Lists the exposures of every non-source waypoint to the sojourns of the
+	 * sources. Blocks of rows are scanned in parallel, each into its own
+	 * PairBuffer; the buffers are concatenated in row order, so the result is the
+	 * same as that of a sequential scan.
+	 *
+	 * @param vulnerable if not null, set to true for each non-source mobileID
+	 *                   visiting a place visited by a source
+	 */
+	public static ExposureLists fromWaypoints(SojournIndex sojourns, WaypointColumns waypoints,
+			IntPredicate isSource, int numMobileIDs, boolean[] vulnerable) {
+		return fromWaypoints(sojourns, waypoints, isSource, numMobileIDs, vulnerable, null,
+				ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, also writing each exposure, with its source and times, to the
+	 * event log, with the blocks of rows run and sized as configured.
+	 *
+	 * @param events null for no log
+	 */
+	public static ExposureLists fromWaypoints(SojournIndex sojourns, WaypointColumns waypoints,
+			IntPredicate isSource, int numMobileIDs, boolean[] vulnerable, ExposureEventWriter events,
+			ExecutionConfig execution) {
+		int grain = execution.grain(ExecutionConfig.Phase.EXPOSURE_ROWS, waypoints.size());
+		PairBuffer pairs = execution.invoke(
+				new RowBlockTask(sojourns, waypoints, isSource, vulnerable, events, grain, 0, waypoints.size()));
+		return pairs.toExposureLists(numMobileIDs);
+	}
+
+	/**
+	 * As fromWaypoints, for compressed waypoints: ranges of blocks are decoded and
+	 * scanned in parallel, each range into its own reused buffer, and concatenated
+	 * in block order.
+	 */
+	public static ExposureLists fromStore(SojournIndex sojourns, CompressedWaypointStore waypoints,
+			IntPredicate isSource, int numMobileIDs, boolean[] vulnerable) {
+		return fromStore(sojourns, waypoints, isSource, numMobileIDs, vulnerable, null, ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, also writing each exposure to the event log, with the ranges of
+	 * blocks run and sized as configured.
+	 *
+	 * @param events null for no log
+	 */
+	public static ExposureLists fromStore(SojournIndex sojourns, CompressedWaypointStore waypoints,
+			IntPredicate isSource, int numMobileIDs, boolean[] vulnerable, ExposureEventWriter events,
+			ExecutionConfig execution) {
+		int grain = execution.grain(ExecutionConfig.Phase.EXPOSURE_BLOCKS, waypoints.numBlocks());
+		PairBuffer pairs = execution.invoke(new BlockRangeTask(sojourns, waypoints, isSource, vulnerable, events,
+				grain, 0, waypoints.numBlocks()));
+		return pairs.toExposureLists(numMobileIDs);
+	}
+
+	/*
+	 * One event per sojourn containing the waypoint; returns their number, as
+	 * countContaining, from the same two searches
+	 */
+	private static int logEvents(SojournIndex sojourns, int id, int place, double s,
+			ExposureEventWriter.Batch batch) {
+		int first = sojourns.firstContaining(place, s), end = sojourns.endContaining(place, s);
+		for (int j = first; j < end; j++) {
+			batch.add(id, sojourns.sourceID(j), place, s, sojourns.startTime(j));
+		}
+		return end - first;
+	}
+
+	/**
+	 * As fromWaypoints, for non-source waypoints already bucketed by place. Ranges
+	 * of places are scanned in parallel, and concatenated in place order.
+	 */
+	public static ExposureLists fromPlaceBuffers(SojournIndex sojourns, PlaceBuffers targets, int numMobileIDs,
+			boolean[] vulnerable) {
+		return fromPlaceBuffers(sojourns, targets, numMobileIDs, vulnerable, ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, with the ranges of places run and sized as configured.
+	 */
+	public static ExposureLists fromPlaceBuffers(SojournIndex sojourns, PlaceBuffers targets, int numMobileIDs,
+			boolean[] vulnerable, ExecutionConfig execution) {
+		int numPlaces = Math.min(sojourns.numPlaces(), targets.numPlaces());
+		int grain = execution.grain(ExecutionConfig.Phase.EXPOSURE_PLACES, numPlaces);
+		PairBuffer pairs = execution.invoke(new PlaceRangeTask(sojourns, targets, vulnerable, grain, 0, numPlaces));
+		return pairs.toExposureLists(numMobileIDs);
+	}
+
+	/**
+	 * Interval mode: each overlap of a source dwell interval with a non-source
+	 * dwell interval at the same place is one exposure. At each place, intervals
+	 * are swept in order of start time; the intervals still open are kept in two
+	 * heaps ordered by end time, one for sources and one for the rest. A new
+	 * interval overlaps exactly the open intervals of the other kind, so the cost
+	 * is O((n + k) log n) for n intervals and k exposures.
+	 *
+	 * @param vulnerable if not null, set to true for each non-source mobileID
+	 *                   staying at a place where a source stays
+	 */
+	public static ExposureLists fromDwellIntervals(DwellIntervals intervals, IntPredicate isSource,
+			int numMobileIDs, boolean[] vulnerable) {
+		PairBuffer pairs = new PairBuffer();
+		EndHeap openSources = new EndHeap(intervals), openTargets = new EndHeap(intervals);
+		int[] offsets = intervals.offsets();
+		for (int v = 0; v < intervals.numPlaces(); v++) {
+			boolean sourceHere = false;
+			for (int i = offsets[v]; i < offsets[v + 1] && !sourceHere; i++) {
+				sourceHere = isSource.test(intervals.mobileID(i));
+			}
+			if (!sourceHere) {
+				continue;
+			}
+			openSources.clear();
+			openTargets.clear();
+			for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+				double start = intervals.start(i);
+				openSources.closeBefore(start);
+				openTargets.closeBefore(start);
+				int id = intervals.mobileID(i);
+				if (isSource.test(id)) {
+					for (int h = 0; h < openTargets.size(); h++) {
+						pairs.add(intervals.mobileID(openTargets.get(h)), v, 1);
+					}
+					openSources.add(i);
+				} else {
+					if (vulnerable != null) {
+						vulnerable[id] = true;
+					}
+					pairs.add(id, v, openSources.size());
+					openTargets.add(i);
+				}
+			}
+		}
+		return pairs.toExposureLists(numMobileIDs);
+	}
+
+	/*
+	 * Binary min-heap of interval indices, ordered by end time
+	 */
+	private static final class EndHeap {
+		private final DwellIntervals intervals;
+		private int[] heap = new int[16];
+		private int size = 0;
+
+		EndHeap(DwellIntervals intervals) {
+			this.intervals = intervals;
+		}
+
+		void clear() {
+			this.size = 0;
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		int get(int h) {
+			return this.heap[h];
+		}
+
+		void add(int index) {
+			if (this.size == this.heap.length) {
+				this.heap = Arrays.copyOf(this.heap, this.size << 1);
+			}
+			int h = this.size++;
+			double end = this.intervals.end(index);
+			while (h > 0 && this.intervals.end(this.heap[(h - 1) >>> 1]) > end) {
+				this.heap[h] = this.heap[(h - 1) >>> 1];
+				h = (h - 1) >>> 1;
+			}
+			this.heap[h] = index;
+		}
+
+		/*
+		 * Removes the intervals ending at or before t; intervals are half open.
+		 */
+		void closeBefore(double t) {
+			while (this.size > 0 && this.intervals.end(this.heap[0]) <= t) {
+				int last = this.heap[--this.size];
+				double end = this.intervals.end(last);
+				int h = 0;
+				while (true) {
+					int child = 2 * h + 1;
+					if (child >= this.size) {
+						break;
+					}
+					if (child + 1 < this.size && this.intervals.end(this.heap[child + 1]) < this.intervals
+							.end(this.heap[child])) {
+						child++;
+					}
+					if (this.intervals.end(this.heap[child]) >= end) {
+						break;
+					}
+					this.heap[h] = this.heap[child];
+					h = child;
+				}
+				this.heap[h] = last;
+			}
+		}
+	}
+
+	/*
+	 * Exposures of rows [from, to). Writes to vulnerable only ever set true, so
+	 * the blocks may share it.
+	 */
+	private static final class RowBlockTask extends RecursiveTask<PairBuffer> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final WaypointColumns waypoints;
+		private final IntPredicate isSource;
+		private final boolean[] vulnerable;
+		private final ExposureEventWriter events; // null for no log
+		private final int grain; // rows not split further
+		private final int from, to;
+
+		RowBlockTask(SojournIndex sojourns, WaypointColumns waypoints, IntPredicate isSource, boolean[] vulnerable,
+				ExposureEventWriter events, int grain, int from, int to) {
+			this.sojourns = sojourns;
+			this.waypoints = waypoints;
+			this.isSource = isSource;
+			this.vulnerable = vulnerable;
+			this.events = events;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected PairBuffer compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				RowBlockTask right = new RowBlockTask(this.sojourns, this.waypoints, this.isSource, this.vulnerable,
+						this.events, this.grain, mid, this.to);
+				right.fork();
+				PairBuffer left = new RowBlockTask(this.sojourns, this.waypoints, this.isSource, this.vulnerable,
+						this.events, this.grain, this.from, mid).compute();
+				left.addAll(right.join());
+				return left;
+			}
+			PairBuffer pairs = new PairBuffer();
+			ExposureEventWriter.Batch batch = (this.events == null) ? null : this.events.newBatch();
+			for (int i = this.from; i < this.to; i++) {
+				int place = this.waypoints.placeID(i);
+				if (this.sojourns.hasSojourns(place) && !this.isSource.test(this.waypoints.mobileID(i))) {
+					if (this.vulnerable != null) {
+						this.vulnerable[this.waypoints.mobileID(i)] = true;
+					}
+					int id = this.waypoints.mobileID(i);
+					double s = this.waypoints.timeStamp(i);
+					pairs.add(id, place, (batch == null) ? this.sojourns.countContaining(place, s)
+							: logEvents(this.sojourns, id, place, s, batch));
+				}
+			}
+			if (batch != null) {
+				batch.flush();
+			}
+			return pairs;
+		}
+	}
+
+	/*
+	 * Exposures of compressed blocks [from, to).
+	 */
+	private static final class BlockRangeTask extends RecursiveTask<PairBuffer> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final CompressedWaypointStore waypoints;
+		private final IntPredicate isSource;
+		private final boolean[] vulnerable;
+		private final ExposureEventWriter events; // null for no log
+		private final int grain; // blocks not split further
+		private final int from, to;
+
+		BlockRangeTask(SojournIndex sojourns, CompressedWaypointStore waypoints, IntPredicate isSource,
+				boolean[] vulnerable, ExposureEventWriter events, int grain, int from, int to) {
+			this.sojourns = sojourns;
+			this.waypoints = waypoints;
+			this.isSource = isSource;
+			this.vulnerable = vulnerable;
+			this.events = events;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected PairBuffer compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				BlockRangeTask right = new BlockRangeTask(this.sojourns, this.waypoints, this.isSource,
+						this.vulnerable, this.events, this.grain, mid, this.to);
+				right.fork();
+				PairBuffer left = new BlockRangeTask(this.sojourns, this.waypoints, this.isSource, this.vulnerable,
+						this.events, this.grain, this.from, mid).compute();
+				left.addAll(right.join());
+				return left;
+			}
+			PairBuffer pairs = new PairBuffer();
+			ExposureEventWriter.Batch batch = (this.events == null) ? null : this.events.newBatch();
+			this.waypoints.scan(this.from, this.to, null, new CompressedWaypointStore.Block(), block -> {
+				for (int i = 0; i < block.size; i++) {
+					int place = block.placeIDs[i];
+					int id = block.mobileIDs[i];
+					if (this.sojourns.hasSojourns(place) && !this.isSource.test(id)) {
+						if (this.vulnerable != null) {
+							this.vulnerable[id] = true;
+						}
+						double s = block.timeStamps[i];
+						pairs.add(id, place, (batch == null) ? this.sojourns.countContaining(place, s)
+								: logEvents(this.sojourns, id, place, s, batch));
+					}
+				}
+			});
+			if (batch != null) {
+				batch.flush();
+			}
+			return pairs;
+		}
+	}
+
+	/*
+	 * Exposures at places [from, to).
+	 */
+	private static final class PlaceRangeTask extends RecursiveTask<PairBuffer> {
+		private static final long serialVersionUID = 1L;
+		private final SojournIndex sojourns;
+		private final PlaceBuffers targets;
+		private final boolean[] vulnerable;
+		private final int grain; // places not split further
+		private final int from, to;
+
+		PlaceRangeTask(SojournIndex sojourns, PlaceBuffers targets, boolean[] vulnerable, int grain, int from,
+				int to) {
+			this.sojourns = sojourns;
+			this.targets = targets;
+			this.vulnerable = vulnerable;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected PairBuffer compute() {
+			if (this.to - this.from > this.grain) {
+				int mid = (this.from + this.to) >>> 1;
+				PlaceRangeTask right = new PlaceRangeTask(this.sojourns, this.targets, this.vulnerable, this.grain,
+						mid, this.to);
+				right.fork();
+				PairBuffer left = new PlaceRangeTask(this.sojourns, this.targets, this.vulnerable, this.grain,
+						this.from, mid).compute();
+				left.addAll(right.join());
+				return left;
+			}
+			PairBuffer pairs = new PairBuffer();
+			for (int v = this.from; v < this.to; v++) {
+				if (!this.sojourns.hasSojourns(v)) {
+					continue;
+				}
+				double[] times = this.targets.times(v);
+				int[] ids = this.targets.mobileIDs(v);
+				for (int j = 0; j < this.targets.count(v); j++) {
+					if (this.vulnerable != null) {
+						this.vulnerable[ids[j]] = true;
+					}
+					pairs.add(ids[j], v, this.sojourns.countContaining(v, times[j]));
+				}
+			}
+			return pairs;
+		}
+	}
+
+	/**
+	 * Growable list of (mobileID, placeID) exposure pairs, before they are grouped
+	 * by mobileID.
+	 */
+	static final class PairBuffer {
+		static final int MAX_PAIRS = Integer.MAX_VALUE - 8; // largest array the VM allocates
+		private int[] mobileIDs = new int[1 << 10];
+		private int[] placeIDs = new int[1 << 10];
+		private int size = 0;
+
+		/**
+		 * Appends the pair (mobileID, placeID) k times, once per exposure.
+		 */
+		void add(int mobileID, int placeID, int k) {
+			this.ensureCapacity((long) this.size + k);
+			for (int r = 0; r < k; r++) {
+				this.mobileIDs[this.size] = mobileID;
+				this.placeIDs[this.size] = placeID;
+				this.size++;
+			}
+		}
+
+		/**
+		 * Appends the pairs of another buffer, after those of this one.
+		 */
+		void addAll(PairBuffer other) {
+			this.ensureCapacity((long) this.size + other.size);
+			System.arraycopy(other.mobileIDs, 0, this.mobileIDs, this.size, other.size);
+			System.arraycopy(other.placeIDs, 0, this.placeIDs, this.size, other.size);
+			this.size += other.size;
+		}
+
+		/*
+		 * Sizes are counted in long, so that too many exposures fail here rather
+		 * than wrap around to a negative size
+		 */
+		private void ensureCapacity(long needed) {
+			if (needed > MAX_PAIRS) {
+				throw new IllegalStateException(
+						"More than " + MAX_PAIRS + " exposures, the most that ExposureLists can hold.");
+			}
+			if (needed > this.mobileIDs.length) {
+				int capacity = (int) Math.min(MAX_PAIRS, Math.max(needed, (long) this.mobileIDs.length << 1));
+				this.mobileIDs = Arrays.copyOf(this.mobileIDs, capacity);
+				this.placeIDs = Arrays.copyOf(this.placeIDs, capacity);
+			}
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		ExposureLists toExposureLists(int numMobileIDs) {
+			return fromPairs(numMobileIDs, this.mobileIDs, this.placeIDs, this.size);
+		}
+	}
+
+	/**
+	 * @return number of mobileIDs, exposed or not
+	 */
+	public int numMobileIDs() {
+		return this.offsets.length - 1;
+	}
+
+	/**
+	 * @return number of exposures of this mobileID
+	 */
+	public int count(int mobileID) {
+		return this.offsets[mobileID + 1] - this.offsets[mobileID];
+	}
+
+	/**
+	 * @return placeID of the j-th exposure of this mobileID
+	 */
+	public int place(int mobileID, int j) {
+		return this.places[this.offsets[mobileID] + j];
+	}
+
+	/**
+	 * @return total number of exposures
+	 */
+	public int totalExposures() {
+		return this.places.length;
+	}
+
+	/**
+	 * @return number of mobileIDs with at least one exposure
+	 */
+	public int numExposed() {
+		int exposed = 0;
+		for (int d = 0; d < this.numMobileIDs(); d++) {
+			if (this.count(d) > 0) {
+				exposed++;
+			}
+		}
+		return exposed;
+	}
+
+	/**
+	 * @return exposure statistics, accumulated while the lists were built, or
+	 *         else in one pass over them on first call; read only
+	 */
+	public synchronized ExposureStatistics statistics() {
+		if (this.statistics == null) {
+			this.statistics = ExposureStatistics.of(this);
+		}
+		return this.statistics;
+	}
+
+	/**
+	 * @return backing array of offsets. Must not be modified.
+	 */
+	public int[] offsets() {
+		return this.offsets;
+	}
+
+	/**
+	 * @return backing array of exposure places. Must not be modified.
+	 */
+	public int[] places() {
+		return this.places;
+	}
+
+	/**
+	 * @return boxed copy, keyed by exposed mobileID, in the form used by
+	 *         PlaceDependentContactMaker
+	 */
+	public Map<Integer, List<Integer>> toMap() {
+		Map<Integer, List<Integer>> map = new HashMap<>();
+		for (int d = 0; d < this.numMobileIDs(); d++) {
+			int k = this.count(d);
+			if (k > 0) {
+				List<Integer> list = new ArrayList<>(k);
+				for (int j = 0; j < k; j++) {
+					list.add(Integer.valueOf(this.place(d, j)));
+				}
+				map.put(Integer.valueOf(d), list);
+			}
+		}
+		return map;
+	}
+
+}
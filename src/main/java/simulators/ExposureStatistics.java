@@ -0,0 +1,173 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+
+/**
+ * Exposure statistics accumulated while the exposures are found, in primitive
+ * arrays: the number of exposures at each place, the number of devices with k
+ * exposures for each k, and their summary (devices, exposures, minimum and
+ * maximum per exposed device). Reading them back costs nothing more.
+ *
+ * Each thread or shard fills its own accumulator; merge() adds another one,
+ * so the blocks of a parallel scan, or the shards of a file, combine to the
+ * statistics of the whole. Not thread safe until frozen, after which the
+ * statistics are read only.
+ */
+public final class ExposureStatistics {
+
+	private int[] exposuresByPlace;
+	private long[] devicesByCount; // devicesByCount[k] = number of devices with k exposures, k >= 1
+	private long devices, exposures;
+	private long min, max; // of the exposures of a device, over exposed devices
+	private boolean frozen; // true once complete
+
+	public ExposureStatistics() {
+		this.exposuresByPlace = new int[0];
+		this.devicesByCount = new long[0];
+		this.devices = 0;
+		this.exposures = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Statistics of exposure lists built elsewhere, e.g. read from the index
+	 * cache, in one pass over them.
+	 */
+	public static ExposureStatistics of(ExposureLists lists) {
+		ExposureStatistics statistics = new ExposureStatistics();
+		for (int d = 0; d < lists.numMobileIDs(); d++) {
+			statistics.acceptDevice(lists.count(d));
+		}
+		for (int v : lists.places()) {
+			statistics.acceptPlace(v, 1);
+		}
+		statistics.freeze();
+		return statistics;
+	}
+
+	/**
+	 * Records k exposures at the place.
+	 */
+	public void acceptPlace(int placeID, int k) {
+		this.requireOpen();
+		if (placeID >= this.exposuresByPlace.length) {
+			this.exposuresByPlace = Arrays.copyOf(this.exposuresByPlace,
+					Math.max(placeID + 1, this.exposuresByPlace.length << 1));
+		}
+		this.exposuresByPlace[placeID] += k;
+	}
+
+	/**
+	 * Records a device with k exposures; devices with none are ignored.
+	 */
+	public void acceptDevice(int k) {
+		this.requireOpen();
+		if (k <= 0) {
+			return;
+		}
+		if (k >= this.devicesByCount.length) {
+			this.devicesByCount = Arrays.copyOf(this.devicesByCount, Math.max(k + 1, this.devicesByCount.length << 1));
+		}
+		this.devicesByCount[k]++;
+		this.devices++;
+		this.exposures += k;
+		this.min = Math.min(this.min, k);
+		this.max = Math.max(this.max, k);
+	}
+
+	/**
+	 * Adds the statistics of another thread or shard. Shards must not share
+	 * devices, or a device exposed in two shards counts as two devices.
+	 */
+	public void merge(ExposureStatistics other) {
+		this.requireOpen();
+		if (other.exposuresByPlace.length > this.exposuresByPlace.length) {
+			this.exposuresByPlace = Arrays.copyOf(this.exposuresByPlace, other.exposuresByPlace.length);
+		}
+		for (int v = 0; v < other.exposuresByPlace.length; v++) {
+			this.exposuresByPlace[v] += other.exposuresByPlace[v];
+		}
+		if (other.devicesByCount.length > this.devicesByCount.length) {
+			this.devicesByCount = Arrays.copyOf(this.devicesByCount, other.devicesByCount.length);
+		}
+		for (int k = 0; k < other.devicesByCount.length; k++) {
+			this.devicesByCount[k] += other.devicesByCount[k];
+		}
+		this.devices += other.devices;
+		this.exposures += other.exposures;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	/**
+	 * Makes the statistics read only, e.g. before they are handed to callers of
+	 * ExposureLists.statistics().
+	 */
+	public void freeze() {
+		this.frozen = true;
+	}
+
+	private void requireOpen() {
+		if (this.frozen) {
+			throw new IllegalStateException("Exposure statistics are complete and read only");
+		}
+	}
+
+	/**
+	 * @return summary of the number of exposures per device, over exposed devices
+	 */
+	public LongSummaryStatistics summary() {
+		return (this.devices == 0) ? new LongSummaryStatistics()
+				: new LongSummaryStatistics(this.devices, this.min, this.max, this.exposures);
+	}
+
+	/**
+	 * @return pairs (k, N(k)), where N(k) is the number of mobileIDs with k >= 1
+	 *         exposures
+	 */
+	public Map<Long, Long> tally() {
+		Map<Long, Long> tally = new HashMap<>();
+		for (int k = 1; k < this.devicesByCount.length; k++) {
+			if (this.devicesByCount[k] > 0) {
+				tally.put(Long.valueOf(k), Long.valueOf(this.devicesByCount[k]));
+			}
+		}
+		return tally;
+	}
+
+	/**
+	 * @return number of devices with exactly k exposures, for k >= 1
+	 */
+	public long devicesWith(int k) {
+		return (k > 0 && k < this.devicesByCount.length) ? this.devicesByCount[k] : 0;
+	}
+
+	/**
+	 * @return number of exposures at each place 0, 1, ..., numPlaces - 1
+	 */
+	public int[] exposuresByPlace(int numPlaces) {
+		return Arrays.copyOf(this.exposuresByPlace, numPlaces);
+	}
+
+	/**
+	 * @return number of devices with at least one exposure
+	 */
+	public long getDevices() {
+		return this.devices;
+	}
+
+	/**
+	 * @return total number of exposures
+	 */
+	public long getExposures() {
+		return this.exposures;
+	}
+
+}
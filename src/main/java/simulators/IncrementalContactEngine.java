@@ -0,0 +1,398 @@
+/**
+ * Exposures and infections maintained as waypoints are appended, e.g. one day
+ * at a time. Same exposure mechanism as ContactEngine: a mobileID waypoint with
+ * time stamp s is exposed once for every source waypoint with time stamp t, at
+ * the same placeID, such that t <= s < t + w.
+ *
+ * append() finds only the exposures involving a new waypoint: new targets are
+ * looked up among all source sojourns, and new source sojourns among the old
+ * targets. updateInfections() then draws only for the mobileIDs which gained
+ * exposures. A mobileID already infected stays infected; one not yet infected
+ * is infected with probability 1 - Prod(1 - p_v) over its NEW exposures, so
+ * after any number of updates each mobileID is infected with the same
+ * probability as in one batch run over the whole history.
+ */
+package simulators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import utilities.WaypointColumns;
+
+public class IncrementalContactEngine {
+	private final double timeWidth;
+	private final Set<Integer> sourceMobileIDs;
+	private boolean[] isSource, isVulnerable; // indexed by mobileID
+	private int numMobileIDs, numPlaces; // highest code seen, plus 1
+	private final TimeSortedBuckets sources, targets;
+	private int[][] exposurePlaces; // exposurePlaces[d] has exposureCounts[d] meaningful entries
+	private int[] exposureCounts;
+	private long totalExposures;
+	private int epoch; // number of appends so far
+	private int[] lastChanged; // epoch in which mobileID d last gained exposures
+	private int[] changeLog; // mobileIDs in order of gaining exposures, once per epoch
+	private int changeLogSize;
+	private final List<ModelState> models;
+	private final SplittableRandom root;
+
+	/*
+	 * Infection state of one registered model.
+	 */
+	private static final class ModelState {
+		final InfectionModel model;
+		final SplittableRandom trials;
+		final BitSet infected = new BitSet();
+		int[] evaluated = new int[0]; // exposures of mobileID d already drawn for
+		int numPlacesAssigned = -1;
+		int changeLogPosition = 0;
+
+		ModelState(InfectionModel model, SplittableRandom trials) {
+			this.model = model;
+			this.trials = trials;
+		}
+	}
+
+	/**
+	 * @param width   sojourn width, in days
+	 * @param sources dense codes of the source mobileIDs; codes may exceed those
+	 *                seen so far
+	 * @param seed    for the Bernoulli trials; each model gets its own stream
+	 */
+	public IncrementalContactEngine(double width, Set<Integer> sources, long seed) {
+		this.timeWidth = width;
+		this.sourceMobileIDs = sources;
+		this.isSource = new boolean[0];
+		this.isVulnerable = new boolean[0];
+		this.sources = new TimeSortedBuckets();
+		this.targets = new TimeSortedBuckets();
+		this.exposurePlaces = new int[0][];
+		this.exposureCounts = new int[0];
+		this.lastChanged = new int[0];
+		this.changeLog = new int[16];
+		this.models = new ArrayList<>();
+		this.root = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Adds a model. Its first updateInfections() draws for every exposure so far.
+	 */
+	public void registerModel(InfectionModel model) {
+		this.models.add(new ModelState(model, this.root.split()));
+	}
+
+	/**
+	 * Adds waypoints, and the exposures they take part in. Cost is proportional
+	 * to the number of new waypoints and new exposures, up to logarithmic factors.
+	 *
+	 * @param waypoints with mobileIDs and placeIDs coded consistently with earlier
+	 *                  appends
+	 */
+	public void append(WaypointColumns waypoints) {
+		this.epoch++;
+		for (int i = 0; i < waypoints.size(); i++) {
+			this.ensureMobileID(waypoints.mobileID(i));
+			this.numPlaces = Math.max(this.numPlaces, waypoints.placeID(i) + 1);
+		}
+		long before = this.totalExposures;
+		/*
+		 * New source sojourns first, exposing the targets already present.
+		 */
+		for (int i = 0; i < waypoints.size(); i++) {
+			int id = waypoints.mobileID(i);
+			if (!this.isSource[id]) {
+				continue;
+			}
+			int v = waypoints.placeID(i);
+			double t = waypoints.timeStamp(i);
+			if (this.sources.count(v) == 0) {
+				for (int j = 0; j < this.targets.count(v); j++) {
+					this.isVulnerable[this.targets.id(v, j)] = true;
+				}
+			}
+			this.sources.insert(v, t, id);
+			int to = this.targets.lowerBound(v, t + this.timeWidth);
+			for (int j = this.targets.lowerBound(v, t); j < to; j++) {
+				this.addExposures(this.targets.id(v, j), v, 1);
+			}
+		}
+		/*
+		 * Then new targets, against all source sojourns, old and new.
+		 */
+		for (int i = 0; i < waypoints.size(); i++) {
+			int id = waypoints.mobileID(i);
+			if (this.isSource[id]) {
+				continue;
+			}
+			int v = waypoints.placeID(i);
+			double s = waypoints.timeStamp(i);
+			if (this.sources.count(v) > 0) {
+				this.isVulnerable[id] = true;
+				// sojourns [t, t + w) containing s: t <= s < t + w
+				int k = this.sources.upperBound(v, s) - this.sources.firstEndingAfter(v, s, this.timeWidth);
+				this.addExposures(id, v, k);
+			}
+			this.targets.insert(v, s, id);
+		}
+		System.out.println(waypoints.size() + " waypoints appended, with " + (this.totalExposures - before)
+				+ " new exposures.");
+	}
+
+	private void addExposures(int mobileID, int placeID, int k) {
+		if (k == 0) {
+			return;
+		}
+		int n = this.exposureCounts[mobileID];
+		if (this.exposurePlaces[mobileID] == null) {
+			this.exposurePlaces[mobileID] = new int[Math.max(4, k)];
+		} else if (n + k > this.exposurePlaces[mobileID].length) {
+			this.exposurePlaces[mobileID] = Arrays.copyOf(this.exposurePlaces[mobileID],
+					Math.max(n + k, n << 1));
+		}
+		Arrays.fill(this.exposurePlaces[mobileID], n, n + k, placeID);
+		this.exposureCounts[mobileID] = n + k;
+		this.totalExposures += k;
+		if (this.lastChanged[mobileID] != this.epoch) {
+			this.lastChanged[mobileID] = this.epoch;
+			if (this.changeLogSize == this.changeLog.length) {
+				this.changeLog = Arrays.copyOf(this.changeLog, this.changeLogSize << 1);
+			}
+			this.changeLog[this.changeLogSize++] = mobileID;
+		}
+	}
+
+	private void ensureMobileID(int mobileID) {
+		if (mobileID < this.numMobileIDs) {
+			return;
+		}
+		if (mobileID >= this.isSource.length) {
+			int capacity = Math.max(mobileID + 1, this.isSource.length + (this.isSource.length >> 1));
+			this.isSource = Arrays.copyOf(this.isSource, capacity);
+			this.isVulnerable = Arrays.copyOf(this.isVulnerable, capacity);
+			this.exposurePlaces = Arrays.copyOf(this.exposurePlaces, capacity);
+			this.exposureCounts = Arrays.copyOf(this.exposureCounts, capacity);
+			this.lastChanged = Arrays.copyOf(this.lastChanged, capacity);
+		}
+		for (int d = this.numMobileIDs; d <= mobileID; d++) {
+			this.isSource[d] = this.sourceMobileIDs.contains(Integer.valueOf(d));
+		}
+		this.numMobileIDs = mobileID + 1;
+	}
+
+	/**
+	 * Draws, for every model, only for the mobileIDs with exposures not yet drawn
+	 * for.
+	 *
+	 * @return number of mobileIDs drawn for, summed over models
+	 */
+	public int updateInfections() {
+		int draws = 0;
+		for (ModelState state : this.models) {
+			if (state.numPlacesAssigned != this.numPlaces) {
+				// probabilities of the earlier places do not change as places are added
+				state.model.assignPlaceProbabilities(this.numPlaces);
+				state.numPlacesAssigned = this.numPlaces;
+			}
+			if (state.evaluated.length < this.numMobileIDs) {
+				state.evaluated = Arrays.copyOf(state.evaluated, this.numMobileIDs);
+			}
+			for (int c = state.changeLogPosition; c < this.changeLogSize; c++) {
+				int d = this.changeLog[c];
+				int k = this.exposureCounts[d];
+				if (state.evaluated[d] == k) {
+					continue;
+				}
+				double product = 1.0;
+				for (int j = state.evaluated[d]; j < k; j++) {
+					product *= 1.0 - state.model.infectionProbability(this.exposurePlaces[d][j]);
+				}
+				state.evaluated[d] = k;
+				if (!state.infected.get(d) && state.trials.nextDouble() > product) {
+					state.infected.set(d);
+				}
+				draws++;
+			}
+			state.changeLogPosition = this.changeLogSize;
+			System.out.println(state.infected.cardinality() + " Infections with " + state.model.getName());
+		}
+		return draws;
+	}
+
+	/**
+	 * @return mobileIDs which gained exposures in the last append
+	 */
+	public Set<Integer> getChangedMobileIDs() {
+		Set<Integer> changed = new HashSet<>();
+		for (int c = this.changeLogSize - 1; c >= 0 && this.lastChanged[this.changeLog[c]] == this.epoch; c--) {
+			changed.add(Integer.valueOf(this.changeLog[c]));
+		}
+		return changed;
+	}
+
+	/**
+	 * @return mobileIDs infected under this model, as of the last
+	 *         updateInfections()
+	 */
+	public Set<Integer> getInfectedMobileIDs(InfectionModel model) {
+		for (ModelState state : this.models) {
+			if (state.model == model) {
+				Set<Integer> set = new HashSet<>();
+				for (int d = state.infected.nextSetBit(0); d >= 0; d = state.infected.nextSetBit(d + 1)) {
+					set.add(Integer.valueOf(d));
+				}
+				return set;
+			}
+		}
+		throw new IllegalStateException(model.getName() + " is not registered");
+	}
+
+	/**
+	 * @return all exposures so far, as compressed sparse rows. Within a mobileID,
+	 *         exposures are in order of discovery.
+	 */
+	public ExposureLists getExposureLists() {
+		int[] offsets = new int[this.numMobileIDs + 1];
+		int[] places = new int[(int) this.totalExposures];
+		for (int d = 0; d < this.numMobileIDs; d++) {
+			int k = this.exposureCounts[d];
+			if (k > 0) {
+				System.arraycopy(this.exposurePlaces[d], 0, places, offsets[d], k);
+			}
+			offsets[d + 1] = offsets[d] + k;
+		}
+		return new ExposureLists(offsets, places);
+	}
+
+	/**
+	 * @return mobileIDs with at least one exposure
+	 */
+	public Set<Integer> getExposedMobileIDs() {
+		Set<Integer> exposed = new HashSet<>();
+		for (int d = 0; d < this.numMobileIDs; d++) {
+			if (this.exposureCounts[d] > 0) {
+				exposed.add(Integer.valueOf(d));
+			}
+		}
+		return exposed;
+	}
+
+	/**
+	 * @return non-source mobileIDs which visit places also visited by sources
+	 */
+	public Set<Integer> getVulnerableMobileIDs() {
+		Set<Integer> vulnerable = new HashSet<>();
+		for (int d = 0; d < this.numMobileIDs; d++) {
+			if (this.isVulnerable[d]) {
+				vulnerable.add(Integer.valueOf(d));
+			}
+		}
+		return vulnerable;
+	}
+
+	public long getTotalExposures() {
+		return totalExposures;
+	}
+
+	public int getNumMobileIDs() {
+		return numMobileIDs;
+	}
+
+	public int getNumPlaces() {
+		return numPlaces;
+	}
+
+	/**
+	 * Per-place timestamps and mobileIDs, kept sorted by time. Appending in time
+	 * order, as when days arrive in order, costs O(1) per waypoint; an earlier
+	 * timestamp is inserted in place.
+	 */
+	private static final class TimeSortedBuckets {
+		private double[][] times = new double[16][];
+		private int[][] ids = new int[16][];
+		private int[] counts = new int[16];
+
+		void insert(int v, double t, int id) {
+			if (v >= this.counts.length) {
+				int capacity = Math.max(v + 1, this.counts.length + (this.counts.length >> 1));
+				this.times = Arrays.copyOf(this.times, capacity);
+				this.ids = Arrays.copyOf(this.ids, capacity);
+				this.counts = Arrays.copyOf(this.counts, capacity);
+			}
+			int n = this.counts[v];
+			if (this.times[v] == null) {
+				this.times[v] = new double[4];
+				this.ids[v] = new int[4];
+			} else if (n == this.times[v].length) {
+				this.times[v] = Arrays.copyOf(this.times[v], n << 1);
+				this.ids[v] = Arrays.copyOf(this.ids[v], n << 1);
+			}
+			int j = (n == 0 || this.times[v][n - 1] <= t) ? n : this.upperBound(v, t);
+			System.arraycopy(this.times[v], j, this.times[v], j + 1, n - j);
+			System.arraycopy(this.ids[v], j, this.ids[v], j + 1, n - j);
+			this.times[v][j] = t;
+			this.ids[v][j] = id;
+			this.counts[v] = n + 1;
+		}
+
+		int count(int v) {
+			return (v < this.counts.length) ? this.counts[v] : 0;
+		}
+
+		int id(int v, int j) {
+			return this.ids[v][j];
+		}
+
+		/*
+		 * Index of the first entry at place v with time >= s
+		 */
+		int lowerBound(int v, double s) {
+			int lo = 0, hi = this.count(v);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.times[v][mid] >= s) {
+					hi = mid;
+				} else {
+					lo = mid + 1;
+				}
+			}
+			return lo;
+		}
+
+		/*
+		 * Index of the first entry at place v with time + width > s
+		 */
+		int firstEndingAfter(int v, double s, double width) {
+			int lo = 0, hi = this.count(v);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.times[v][mid] + width > s) {
+					hi = mid;
+				} else {
+					lo = mid + 1;
+				}
+			}
+			return lo;
+		}
+
+		/*
+		 * Index of the first entry at place v with time > s
+		 */
+		int upperBound(int v, double s) {
+			int lo = 0, hi = this.count(v);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.times[v][mid] > s) {
+					hi = mid;
+				} else {
+					lo = mid + 1;
+				}
+			}
+			return lo;
+		}
+	}
+
+}
@@ -0,0 +1,308 @@
+/**
+ *
+ */
+package simulators;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import utilities.IDDictionary;
+import utilities.SojournIndex;
+
+/**
+ * Directory of SojournIndex and ExposureLists already computed, so that a rerun
+ * on the same waypoints, width and sources goes straight to infection sampling.
+ * Entries are keyed by a SHA-256 hash of the file contents (not its name),
+ * the width and the sorted source set. When the directory exceeds its size
+ * bound, the least recently used entries are deleted.
+ */
+public final class IndexCache {
+
+	private static final int MAGIC = 0x43494458; // "CIDX"
+	private static final int VERSION = 3;
+	private static final String SUFFIX = ".idx";
+
+	private final File directory;
+	private final long maxBytes;
+
+	/**
+	 * Everything a ContactEngine needs, plus the dictionaries to decode mobileIDs
+	 * and placeIDs.
+	 */
+	public static final class Entry {
+		private final SojournIndex sojournIndex;
+		private final ExposureLists exposureLists;
+		private final Set<Integer> vulnerableMobileIDs;
+		private final IDDictionary mobileDictionary, placeDictionary;
+		private final int[] originalPlaceIDs;
+
+		/**
+		 * @param originalPlaceIDs code in the file of each placeID, or null if the
+		 *                         placeIDs are those of the file
+		 */
+		public Entry(SojournIndex sojourns, ExposureLists exposures, Set<Integer> vulnerable,
+				IDDictionary mobileDictionary, IDDictionary placeDictionary, int[] originalPlaceIDs) {
+			this.sojournIndex = sojourns;
+			this.exposureLists = exposures;
+			this.vulnerableMobileIDs = vulnerable;
+			this.mobileDictionary = mobileDictionary;
+			this.placeDictionary = placeDictionary;
+			this.originalPlaceIDs = originalPlaceIDs;
+		}
+
+		public SojournIndex getSojournIndex() {
+			return sojournIndex;
+		}
+
+		public ExposureLists getExposureLists() {
+			return exposureLists;
+		}
+
+		public Set<Integer> getVulnerableMobileIDs() {
+			return vulnerableMobileIDs;
+		}
+
+		public IDDictionary getMobileDictionary() {
+			return mobileDictionary;
+		}
+
+		public IDDictionary getPlaceDictionary() {
+			return placeDictionary;
+		}
+
+		public int getNumPlaces() {
+			return placeDictionary.size();
+		}
+
+		/**
+		 * @return code in the file of each placeID, or null if the placeIDs are
+		 *         those of the file
+		 */
+		public int[] getOriginalPlaceIDs() {
+			return originalPlaceIDs;
+		}
+	}
+
+	/**
+	 * @param directory created if it does not exist
+	 * @param maxBytes  total size of entries kept after each store
+	 */
+	public IndexCache(String directory, long maxBytes) {
+		this.directory = new File(directory);
+		this.maxBytes = maxBytes;
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			System.out.println("Could not create index cache directory " + directory);
+		}
+	}
+
+	/**
+	 * @return hex SHA-256 of the bytes of the file, as stored (compressed or not)
+	 */
+	public static String contentHash(String filename) throws IOException {
+		MessageDigest digest = sha256();
+		byte[] buffer = new byte[1 << 20];
+		try (InputStream in = new FileInputStream(filename)) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @param contentHash of the waypoint file
+	 * @param width       sojourn width, in days
+	 * @param sources     dense codes of the source mobileIDs, in any order
+	 * @return name of the entry for these inputs
+	 */
+	public static String key(String contentHash, double width, Set<Integer> sources) {
+		MessageDigest digest = sha256();
+		digest.update(contentHash.getBytes());
+		long bits = Double.doubleToLongBits(width);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			digest.update((byte) (bits >>> shift));
+		}
+		for (Integer id : new TreeSet<>(sources)) {
+			int code = id.intValue();
+			digest.update(new byte[] { (byte) (code >>> 24), (byte) (code >>> 16), (byte) (code >>> 8), (byte) code });
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * @return the entry, or null if there is none or it cannot be read
+	 */
+	public Entry load(String key) {
+		File file = this.entryFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			double width = in.readDouble();
+			int[] sojournOffsets = readInts(in);
+			double[] startTimes = new double[in.readInt()];
+			for (int i = 0; i < startTimes.length; i++) {
+				startTimes[i] = in.readDouble();
+			}
+			int[] sourceIDs = readInts(in);
+			int[] exposureOffsets = readInts(in);
+			int[] places = readInts(in);
+			int[] vulnerable = readInts(in);
+			Set<Integer> vulnerableSet = new HashSet<>();
+			for (int id : vulnerable) {
+				vulnerableSet.add(Integer.valueOf(id));
+			}
+			IDDictionary mobileDictionary = readDictionary(in);
+			IDDictionary placeDictionary = readDictionary(in);
+			int[] originalPlaceIDs = readInts(in);
+			/*
+			 * Most recently used first, for eviction
+			 */
+			file.setLastModified(System.currentTimeMillis());
+			System.out.println("Sojourns and exposures read from index cache entry " + key);
+			return new Entry(new SojournIndex(width, sojournOffsets, startTimes, sourceIDs),
+					new ExposureLists(exposureOffsets, places), vulnerableSet, mobileDictionary, placeDictionary,
+					(originalPlaceIDs.length == 0) ? null : originalPlaceIDs);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not read index cache entry; it will be rebuilt.");
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the entry to a temporary file and renames it, so a reader never sees
+	 * a partial entry; then evicts least recently used entries.
+	 */
+	public void store(String key, Entry entry) {
+		File file = this.entryFile(key);
+		File partial = new File(this.directory, key + ".partial");
+		SojournIndex sojourns = entry.getSojournIndex();
+		ExposureLists exposures = entry.getExposureLists();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(partial), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(sojourns.getWidth());
+			writeInts(out, sojourns.offsets());
+			out.writeInt(sojourns.startTimes().length);
+			for (double t : sojourns.startTimes()) {
+				out.writeDouble(t);
+			}
+			writeInts(out, sojourns.sourceIDs());
+			writeInts(out, exposures.offsets());
+			writeInts(out, exposures.places());
+			writeInts(out, entry.getVulnerableMobileIDs().stream().mapToInt(Integer::intValue).sorted().toArray());
+			writeDictionary(out, entry.getMobileDictionary());
+			writeDictionary(out, entry.getPlaceDictionary());
+			writeInts(out, (entry.getOriginalPlaceIDs() == null) ? new int[0] : entry.getOriginalPlaceIDs());
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not write index cache entry.");
+			partial.delete();
+			return;
+		}
+		try {
+			Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not write index cache entry.");
+			partial.delete();
+			return;
+		}
+		this.evict();
+	}
+
+	/*
+	 * Keeps the most recently used entries whose total size is within the bound;
+	 * the newest entry is always kept.
+	 */
+	private void evict() {
+		File[] entries = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (entries == null) {
+			return;
+		}
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified).reversed());
+		long total = 0;
+		for (int i = 0; i < entries.length; i++) {
+			total += entries[i].length();
+			if (i > 0 && total > this.maxBytes) {
+				System.out.println("Evicting index cache entry " + entries[i].getName());
+				entries[i].delete();
+			}
+		}
+	}
+
+	private File entryFile(String key) {
+		return new File(this.directory, key + SUFFIX);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int x : values) {
+			out.writeInt(x);
+		}
+	}
+
+	private static void writeDictionary(DataOutputStream out, IDDictionary dictionary) throws IOException {
+		out.writeInt(dictionary.size());
+		for (int code = 0; code < dictionary.size(); code++) {
+			out.writeUTF(dictionary.decode(code));
+		}
+	}
+
+	private static IDDictionary readDictionary(DataInputStream in) throws IOException {
+		IDDictionary dictionary = new IDDictionary();
+		int size = in.readInt();
+		for (int code = 0; code < size; code++) {
+			dictionary.encode(in.readUTF());
+		}
+		return dictionary;
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not available", ex);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,31 @@
+package simulators;
+
+/**
+ * Mechanism turning exposures into infections. A single exposure at place v
+ * infects with probability infectionProbability(v), independently of other
+ * exposures, so a mobileID exposed at places v_1, ..., v_k escapes infection
+ * with probability Prod_i (1 - p(v_i)).
+ * 
+ * Models are registered with a ContactEngine, which evaluates all of them in
+ * one pass over the exposure lists.
+ */
+public interface InfectionModel {
+	String getName();
+
+	/**
+	 * Assigns a probability to every place. Called once before the pass.
+	 * 
+	 * @param numPlaces placeIDs are 0, 1, ..., numPlaces - 1
+	 */
+	void assignPlaceProbabilities(int numPlaces);
+
+	/**
+	 * Takes the probabilities assigned in an earlier run, e.g. from a Checkpoint,
+	 * instead of assigning them again.
+	 * 
+	 * @param probabilities indexed by placeID
+	 */
+	void restorePlaceProbabilities(double[] probabilities);
+
+	double infectionProbability(int placeID);
+}
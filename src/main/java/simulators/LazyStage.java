@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package simulators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One stage of a contact maker's computation, run on first demand and then
+ * remembered. A stage names the stages it reads from; ensure() brings those up
+ * to date first, and invalidate() also invalidates every stage downstream, so
+ * changing a parameter only recomputes what depends on it.
+ */
+public final class LazyStage {
+
+	private final String name;
+	private final Runnable computation;
+	private final List<LazyStage> upstream, downstream;
+	private boolean computed;
+
+	/**
+	 * @param name        for diagnostics
+	 * @param computation sets the fields which hold the result of this stage
+	 * @param inputs      stages whose results the computation reads
+	 */
+	public LazyStage(String name, Runnable computation, LazyStage... inputs) {
+		this.name = name;
+		this.computation = computation;
+		this.upstream = new ArrayList<>();
+		this.downstream = new ArrayList<>();
+		this.computed = false;
+		for (LazyStage input : inputs) {
+			this.upstream.add(input);
+			input.downstream.add(this);
+		}
+	}
+
+	/**
+	 * Runs the computation, after its inputs, unless the result is already
+	 * current.
+	 */
+	public synchronized void ensure() {
+		if (!this.computed) {
+			for (LazyStage input : this.upstream) {
+				input.ensure();
+			}
+			this.computation.run();
+			this.computed = true;
+		}
+	}
+
+	/**
+	 * Discards the result of this stage and of every stage depending on it.
+	 */
+	public void invalidate() {
+		/*
+		 * Only one lock is held at a time here; ensure() locks from downstream to
+		 * upstream, so the opposite order would risk deadlock.
+		 */
+		synchronized (this) {
+			this.computed = false;
+		}
+		for (LazyStage output : this.downstream) {
+			output.invalidate();
+		}
+	}
+
+	/**
+	 * Records that the result was supplied from outside, e.g. a prebuilt index.
+	 */
+	public synchronized void markComputed() {
+		this.computed = true;
+	}
+
+	public synchronized boolean isComputed() {
+		return this.computed;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Pipelined loading. Parsing, source filtering and per-place bucketing run as
+ * separate stages connected by bounded queues, so the indexes are complete
+ * shortly after the last byte of the file is read:
+ *
+ *   parser --> router --+--> source appender (source waypoints, by place)
+ *                       +--> target appender (non-source waypoints, by place)
+ *
+ * Sources are given as dense mobileID codes, which are assigned in order of
+ * first appearance; the number of codes is known before parsing from a cached
+ * DatasetManifest.
+ */
+package simulators;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
+
+import utilities.DatasetManifest;
+import utilities.EncodedWaypointCSVReader;
+import utilities.IDDictionary;
+import utilities.PlaceBuffers;
+import utilities.SojournIndex;
+import utilities.WaypointColumns;
+
+/**
+ * Builds the SojournIndex and the ExposureLists of a waypoint file without
+ * retaining the waypoint list.
+ */
+public final class PipelinedIndexBuilder {
+
+	private static final int BATCH_SIZE = 1 << 14;
+	private static final int QUEUE_CAPACITY = 8; // batches in flight between two stages
+	private static final WaypointColumns END = new WaypointColumns(0);
+
+	final String csvFile;
+	private final IntPredicate isSource;
+	private final double timeWidth;
+	private PlaceBuffers sourceBuffers, targetBuffers;
+	private SojournIndex sojournIndex;
+	private ExposureLists exposureLists;
+	private Set<Integer> vulnerableMobileIDs;
+	private IDDictionary mobileDictionary, placeDictionary;
+	private DatasetManifest manifest;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>(); // first failure of any stage
+
+	/**
+	 * @param filename waypoint file, plain or gzip
+	 * @param isSource accepts the dense codes of source mobileIDs
+	 * @param width    sojourn width, in days
+	 */
+	public PipelinedIndexBuilder(String filename, IntPredicate isSource, double width) {
+		this(filename, isSource, width, ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, with the exposures computed in the pool of this configuration,
+	 * split as it says.
+	 */
+	public PipelinedIndexBuilder(String filename, IntPredicate isSource, double width, ExecutionConfig execution) {
+		this.csvFile = filename;
+		this.isSource = isSource;
+		this.timeWidth = width;
+		this.sourceBuffers = new PlaceBuffers();
+		this.targetBuffers = new PlaceBuffers();
+		this.runPipeline();
+		this.sojournIndex = new SojournIndex(this.sourceBuffers, this.timeWidth);
+		System.out.println("Number of waypoints attributed to source mobileIDs: " + this.sojournIndex.size());
+		this.setExposureLists(execution);
+	}
+
+	private void runPipeline() {
+		BlockingQueue<WaypointColumns> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		BlockingQueue<WaypointColumns> sources = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		BlockingQueue<WaypointColumns> targets = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		Thread router = new Thread(() -> this.route(parsed, sources, targets), "waypoint-router");
+		Thread sourceAppender = new Thread(() -> this.append(sources, this.sourceBuffers), "source-appender");
+		Thread targetAppender = new Thread(() -> this.append(targets, this.targetBuffers), "target-appender");
+		/*
+		 * Daemons, so that a stage stuck despite the failure handling below never
+		 * keeps the JVM alive
+		 */
+		router.setDaemon(true);
+		sourceAppender.setDaemon(true);
+		targetAppender.setDaemon(true);
+		router.start();
+		sourceAppender.start();
+		targetAppender.start();
+		/*
+		 * Parse on this thread; each full batch goes straight to the router. END
+		 * is always sent, so the downstream stages finish even if parsing fails.
+		 */
+		EncodedWaypointCSVReader reader = null;
+		try {
+			reader = new EncodedWaypointCSVReader(this.csvFile, BATCH_SIZE, batch -> {
+				if (this.failure.get() != null) {
+					throw new IllegalStateException("Parsing stopped, since a later stage failed");
+				}
+				put(parsed, batch);
+			});
+		} catch (RuntimeException | Error ex) {
+			this.fail(ex);
+		} finally {
+			put(parsed, END);
+		}
+		try {
+			router.join();
+			sourceAppender.join();
+			targetAppender.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building indexes", ex);
+		}
+		Throwable first = this.failure.get();
+		if (first instanceof RuntimeException) {
+			throw (RuntimeException) first;
+		} else if (first instanceof Error) {
+			throw (Error) first;
+		}
+		this.mobileDictionary = reader.getMobileDictionary();
+		this.placeDictionary = reader.getPlaceDictionary();
+		this.manifest = reader.getManifest();
+	}
+
+	/*
+	 * Router stage: splits each parsed batch into source and non-source waypoints.
+	 * After a failure it drains its input, so the parser never blocks, and it
+	 * always sends END downstream.
+	 */
+	private void route(BlockingQueue<WaypointColumns> parsed, BlockingQueue<WaypointColumns> sources,
+			BlockingQueue<WaypointColumns> targets) {
+		try {
+			WaypointColumns batch;
+			while ((batch = take(parsed)) != END) {
+				WaypointColumns sourceBatch = new WaypointColumns(64);
+				WaypointColumns targetBatch = new WaypointColumns(batch.size());
+				for (int i = 0; i < batch.size(); i++) {
+					if (this.isSource.test(batch.mobileID(i))) {
+						sourceBatch.add(batch.mobileID(i), batch.timeStamp(i), batch.placeID(i));
+					} else {
+						targetBatch.add(batch.mobileID(i), batch.timeStamp(i), batch.placeID(i));
+					}
+				}
+				if (sourceBatch.size() > 0) {
+					put(sources, sourceBatch);
+				}
+				put(targets, targetBatch);
+			}
+		} catch (RuntimeException | Error ex) {
+			this.fail(ex);
+			drain(parsed);
+		} finally {
+			put(sources, END);
+			put(targets, END);
+		}
+	}
+
+	/*
+	 * Appender stage: each stage owns its PlaceBuffers, so no locking is needed.
+	 * After a failure it drains its input, so the router never blocks.
+	 */
+	private void append(BlockingQueue<WaypointColumns> queue, PlaceBuffers buffers) {
+		try {
+			WaypointColumns batch;
+			while ((batch = take(queue)) != END) {
+				buffers.addAll(batch);
+			}
+		} catch (RuntimeException | Error ex) {
+			this.fail(ex);
+			drain(queue);
+		}
+	}
+
+	/*
+	 * Records the failure of a stage; only the first is rethrown.
+	 */
+	private void fail(Throwable ex) {
+		this.failure.compareAndSet(null, ex);
+	}
+
+	private static void drain(BlockingQueue<WaypointColumns> queue) {
+		while (take(queue) != END) {
+			// discarded
+		}
+	}
+
+	/**
+	 * Deterministic listing of exposures, place by place: only places visited by a
+	 * source are examined, and ranges of places are examined in parallel.
+	 */
+	private void setExposureLists(ExecutionConfig execution) {
+		int numMobileIDs = this.mobileDictionary.size();
+		boolean[] vulnerable = new boolean[numMobileIDs];
+		this.exposureLists = ExposureLists.fromPlaceBuffers(this.sojournIndex, this.targetBuffers, numMobileIDs,
+				vulnerable, execution);
+		this.vulnerableMobileIDs = new HashSet<>();
+		for (int d = 0; d < numMobileIDs; d++) {
+			if (vulnerable[d]) {
+				this.vulnerableMobileIDs.add(Integer.valueOf(d));
+			}
+		}
+		System.out.println("Number of non-source mobileIDs which visit places also visited by sources: "
+				+ this.vulnerableMobileIDs.size());
+		System.out.println(this.exposureLists.totalExposures() + " exposures computed.");
+	}
+
+	private static void put(BlockingQueue<WaypointColumns> queue, WaypointColumns batch) {
+		try {
+			queue.put(batch);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading waypoints", ex);
+		}
+	}
+
+	private static WaypointColumns take(BlockingQueue<WaypointColumns> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading waypoints", ex);
+		}
+	}
+
+	/**
+	 * @return sorted sojourns of the sources, by place
+	 */
+	public SojournIndex getSojournIndex() {
+		return sojournIndex;
+	}
+
+	/**
+	 * @return exposures of non-source mobileIDs, by mobileID
+	 */
+	public ExposureLists getExposureLists() {
+		return exposureLists;
+	}
+
+	/**
+	 * @return non-source waypoints, by place
+	 */
+	public PlaceBuffers getTargetBuffers() {
+		return targetBuffers;
+	}
+
+	/**
+	 * @return non-source mobileIDs which visited a place also visited by a source
+	 */
+	public Set<Integer> getVulnerableMobileIDs() {
+		return vulnerableMobileIDs;
+	}
+
+	public IDDictionary getMobileDictionary() {
+		return mobileDictionary;
+	}
+
+	public IDDictionary getPlaceDictionary() {
+		return placeDictionary;
+	}
+
+	public DatasetManifest getManifest() {
+		return manifest;
+	}
+
+}
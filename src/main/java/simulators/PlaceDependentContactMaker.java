@@ -3,11 +3,16 @@
  * (a) infection probability constant (= p) across all places, and
  * (b) infection probability Z_v at place v, where (Z_v) are independent 1/(1+Y) distributed, Y Exponential.
  * Here the mean of Z_v is equal to p.
+ *
+ * Each stage (source sojourns, exposure lists, constant rate infections, place
+ * probabilities, variable rate infections) runs on first access and is then
+ * remembered. Changing a parameter invalidates only the stages depending on it.
  */
 
 package simulators;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -23,6 +28,7 @@ import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import simulators.ExecutionConfig.Phase;
 import utilities.GenericWaypoint;
 import utilities.Sojourn;
 
@@ -42,31 +48,130 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * occurred. Each item in this list is a single exposure.
 	 */
 	private Map<M, List<P>> exposurePlaceListByID;
+	private ExposureStatistics exposureStatistics; // of the lists in exposurePlaceListByID
 	private Set<M> sourceMobileIDs, vulnerableMobileIDs, infectedMobileIDs, variableRateInfectedMobileIDs;
 	double timeWidth, transferProb;
 	private long seed; // for random simulation of probabilities at each place
 	private Predicate<GenericWaypoint<M, P>> waypointComesFromSourceID;
+	private Collection<P> allPlaces; // null if the places are taken from the waypoint list
+	private boolean indexesPrebuilt; // true if sojourns and exposures were supplied
+	private ExecutionConfig execution;
+	private LazyStage sojournStage, exposureStage, constantRateStage, probabilityStage, variableRateStage;
 
 	public PlaceDependentContactMaker(double width, double probability, long seed, Set<M> sources,
 			List<GenericWaypoint<M, P>> waypoints) {
+		this(width, probability, seed, sources, waypoints, ExecutionConfig.common());
+	}
+
+	/**
+	 * As above, with the parallel phases run in the pool of the execution
+	 * configuration, and sequentially for inputs up to its thresholds.
+	 */
+	public PlaceDependentContactMaker(double width, double probability, long seed, Set<M> sources,
+			List<GenericWaypoint<M, P>> waypoints, ExecutionConfig execution) {
+		this.execution = execution;
 		this.timeWidth = width;
 		this.transferProb = probability; // must be > 0 and < 1
 		this.seed = seed;
 		this.sourceMobileIDs = sources;
 		this.waypointList = Collections.unmodifiableList(waypoints);
 		this.waypointComesFromSourceID = (wp) -> this.sourceMobileIDs.contains(wp.mobileID());
+		this.allPlaces = null;
+		this.indexesPrebuilt = false;
 		/*
-		 * Deterministic extraction from waypoints
+		 * Nothing is computed yet: deterministic extraction from waypoints, and
+		 * simulation of infection, happen when a result is first asked for.
 		 */
-		this.aggregateSojournsForEachPlace(); // purely deterministic
-		this.setExposurePlaceList();
-		/*
-		 * Simulation of infection occurs here.
-		 */
-		this.simulateConstantRateInfections();
-		this.probabilitiesForEachPlace = new HashMap<>();
-		this.generateProbabilitiesForAllPlaces();
-		this.simulateVariableRateInfections();
+		this.createStages();
+	}
+
+	/**
+	 * Starts from deterministic structures already built elsewhere, e.g. by
+	 * PipelinedIndexBuilder, so no waypoint list is needed. Only the simulation of
+	 * infection occurs here.
+	 * 
+	 * @param sojourns   source sojourns, keyed by placeID
+	 * @param exposures  exposure places, keyed by exposed mobileID
+	 * @param vulnerable non-source mobileIDs visiting a place visited by a source
+	 * @param allPlaces  every placeID, in the order probabilities are assigned
+	 */
+	public PlaceDependentContactMaker(double width, double probability, long seed, Set<M> sources,
+			Map<P, List<Sojourn>> sojourns, Map<M, List<P>> exposures, Set<M> vulnerable,
+			Collection<P> allPlaces) {
+		this.timeWidth = width;
+		this.transferProb = probability; // must be > 0 and < 1
+		this.seed = seed;
+		this.sourceMobileIDs = sources;
+		this.waypointList = Collections.emptyList();
+		this.waypointComesFromSourceID = (wp) -> this.sourceMobileIDs.contains(wp.mobileID());
+		this.allPlaces = allPlaces;
+		this.indexesPrebuilt = true;
+		this.execution = ExecutionConfig.common();
+		this.sojournsForEachPlace = sojourns;
+		this.exposurePlaceListByID = exposures;
+		this.vulnerableMobileIDs = vulnerable;
+		this.accumulateExposureStatistics();
+		System.out.println("Number of exposed mobileIDs is " + this.exposurePlaceListByID.keySet().size());
+		this.createStages();
+		this.sojournStage.markComputed();
+		this.exposureStage.markComputed();
+	}
+
+	private void createStages() {
+		this.sojournStage = new LazyStage("source sojourns",
+				() -> this.execution.run(this::aggregateSojournsForEachPlace));
+		this.exposureStage = new LazyStage("exposure lists", () -> this.execution.run(this::setExposurePlaceList),
+				this.sojournStage);
+		this.constantRateStage = new LazyStage("constant rate infections", this::sampleConstantRateInfections,
+				this.exposureStage);
+		this.probabilityStage = new LazyStage("place probabilities", this::generateProbabilitiesForAllPlaces);
+		this.variableRateStage = new LazyStage("variable rate infections", this::sampleVariableRateInfections,
+				this.exposureStage, this.probabilityStage);
+	}
+
+	/**
+	 * New sources: every stage except the place probabilities is recomputed on
+	 * next access.
+	 */
+	public void setSources(Set<M> sources) {
+		this.requireWaypoints();
+		this.sourceMobileIDs = sources;
+		this.sojournStage.invalidate();
+	}
+
+	/**
+	 * New sojourn width: every stage except the place probabilities is recomputed
+	 * on next access.
+	 */
+	public void setTimeWidth(double width) {
+		this.requireWaypoints();
+		this.timeWidth = width;
+		this.sojournStage.invalidate();
+	}
+
+	/**
+	 * New infection probability: exposures are kept, infections and place
+	 * probabilities are recomputed on next access.
+	 */
+	public void setTransferProbability(double probability) {
+		this.transferProb = probability;
+		this.constantRateStage.invalidate();
+		this.probabilityStage.invalidate();
+	}
+
+	/**
+	 * New seed for the place probabilities: only the variable rate stages are
+	 * recomputed on next access.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.probabilityStage.invalidate();
+	}
+
+	private void requireWaypoints() {
+		if (this.indexesPrebuilt) {
+			throw new IllegalStateException("Sojourns and exposures were supplied prebuilt, without waypoints");
+		}
 	}
 
 	/**
@@ -78,16 +183,17 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 		 * Extract from the waypoint list the "hot" waypoints associated with
 		 * sourceMobileIDs.
 		 */
-		List<GenericWaypoint<M, P>> sourceWaypoints = this.waypointList.parallelStream()
-				.filter(this.waypointComesFromSourceID::test).collect(Collectors.toUnmodifiableList());
+		List<GenericWaypoint<M, P>> sourceWaypoints = this.execution
+				.stream(Phase.WAYPOINT_SCAN, this.waypointList).filter(this.waypointComesFromSourceID::test)
+				.collect(Collectors.toUnmodifiableList());
 		System.out.println("Number of waypoints attributed to source mobileIDs: " + sourceWaypoints.size());
 		/*
 		 * Determine the set of places occurring in the list of "hot" waypoints
 		 */
-		Set<P> sourcePlaces = sourceWaypoints.parallelStream().map(wp -> wp.placeID()).distinct()
-				.collect(Collectors.toUnmodifiableSet());
+		Set<P> sourcePlaces = this.execution.stream(Phase.WAYPOINT_SCAN, sourceWaypoints).map(wp -> wp.placeID())
+				.distinct().collect(Collectors.toUnmodifiableSet());
 		System.out.println("Number of distinct placeIDs for source mobileIDs: " + sourcePlaces.size());
-		this.sojournsForEachPlace = sourcePlaces.parallelStream()
+		this.sojournsForEachPlace = this.execution.stream(Phase.PLACE_SET, sourcePlaces)
 				.collect(Collectors.toMap(place -> place, place -> new ArrayList<Sojourn>()));
 		/*
 		 * Whenever a source mobileID visits a hot place, an episode is created for this
@@ -112,35 +218,40 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 				.contains(wp.placeID()); // place selector
 		// Logical AND
 		Predicate<GenericWaypoint<M, P>> isSusceptible = isVulnerable.and((this.waypointComesFromSourceID).negate());
-		List<GenericWaypoint<M, P>> susceptibleWaypoints = this.waypointList.parallelStream()
-				.filter(isSusceptible::test).collect(Collectors.toList());
+		List<GenericWaypoint<M, P>> susceptibleWaypoints = this.execution
+				.stream(Phase.WAYPOINT_SCAN, this.waypointList).filter(isSusceptible::test)
+				.collect(Collectors.toList());
 		/*
 		 * Set the vulnerable mobile IDs as those which are NOT sources, and which
 		 * sometime visited a place visited by a source.
 		 */
-		this.vulnerableMobileIDs = susceptibleWaypoints.parallelStream().map(wp -> wp.mobileID()).distinct()
-				.collect(Collectors.toSet());
+		this.vulnerableMobileIDs = this.execution.stream(Phase.WAYPOINT_SCAN, susceptibleWaypoints)
+				.map(wp -> wp.mobileID()).distinct().collect(Collectors.toSet());
 		System.out.println("Number of non-source mobileIDs which visit places also visited by sources: "
 				+ this.vulnerableMobileIDs.size());
 		/*
-		 * Key of "exposurePlaceListByID" is mobileID. Loop will populate list of
-		 * places. By construction, every waypoint in "susceptibleWaypoints" has a
-		 * placeID visited by one or more sources. Every value is a NONEMPTY list.
+		 * Key of "exposurePlaceListByID" is mobileID. The place of each waypoint is
+		 * appended once per source sojourn containing it. By construction, every
+		 * waypoint in "susceptibleWaypoints" has a placeID visited by one or more
+		 * sources. Every value is a NONEMPTY list.
+		 *
+		 * Waypoints are counted in parallel; each thread groups its own block, and
+		 * the blocks are merged in list order, so every list is in the same order as
+		 * in a sequential loop. Each waypoint is counted once; waypoints in no
+		 * sojourn give empty lists, which drop out.
 		 */
-		this.exposurePlaceListByID = new HashMap<>();
-		int counter = 0;
-		for (GenericWaypoint<M, P> wp : susceptibleWaypoints) {
-			for (Sojourn soj : this.sojournsForEachPlace.get(wp.placeID())) {
-				if (soj.contains(wp.timeStamp())) {
-					if (!this.exposurePlaceListByID.keySet().contains(wp.mobileID())) {
-						this.exposurePlaceListByID.put(wp.mobileID(), new ArrayList<P>());
-					}
-					// appends place to end of exposure list
-					this.exposurePlaceListByID.get(wp.mobileID()).add(wp.placeID());
-					counter++;
-				}
-			}
-		}
+		this.exposurePlaceListByID = this.execution.stream(Phase.WAYPOINT_SCAN, susceptibleWaypoints)
+				.map(wp -> Map.entry(wp.mobileID(), Collections.nCopies(this.countContaining(wp), wp.placeID())))
+				.filter(e -> !e.getValue().isEmpty())
+				.collect(Collectors.groupingBy(Map.Entry::getKey, HashMap::new, Collectors.flatMapping(
+						e -> e.getValue().stream(), Collectors.toCollection(ArrayList::new))));
+		/*
+		 * One pass over the list sizes gives both the total for the diagnostics and
+		 * the statistics read back by exposureCountSummary() and
+		 * tallyExposureStatistics()
+		 */
+		this.accumulateExposureStatistics();
+		long counter = this.exposureStatistics.getExposures();
 		///////////////////// DIAGNOSTICS///////////////////////////////////////////////////////////
 		System.out.println(counter + " exposures computed.");
 		System.out.println("Number of exposed mobileIDs is " + this.exposurePlaceListByID.keySet().size());
@@ -154,9 +265,42 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	}
 
 	/*
-	 * Only depends on NUMBER of exposures, not on where they occurred.
+	 * Devices by number of exposures, in primitive arrays; generic places are not
+	 * counted
+	 */
+	private void accumulateExposureStatistics() {
+		this.exposureStatistics = new ExposureStatistics();
+		for (List<P> list : this.exposurePlaceListByID.values()) {
+			this.exposureStatistics.acceptDevice(list.size());
+		}
+	}
+
+	/*
+	 * Number of source sojourns at the place of wp which contain its timestamp
+	 */
+	private int countContaining(GenericWaypoint<M, P> wp) {
+		int k = 0;
+		for (Sojourn soj : this.sojournsForEachPlace.get(wp.placeID())) {
+			if (soj.contains(wp.timeStamp())) {
+				k++;
+			}
+		}
+		return k;
+	}
+
+	/**
+	 * Draws a fresh sample of constant rate infections, computing the exposures
+	 * first if needed.
 	 */
 	public void simulateConstantRateInfections() {
+		this.constantRateStage.invalidate();
+		this.constantRateStage.ensure();
+	}
+
+	/*
+	 * Only depends on NUMBER of exposures, not on where they occurred.
+	 */
+	private void sampleConstantRateInfections() {
 		Random g = new Random();
 		/*
 		 * Map<M,Integer> exposureCounts =
@@ -195,8 +339,9 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 		 * must assign probabilities to ALL places, regardless of whether sources visit
 		 * them.
 		 */
-		List<P> allPlaceList = this.waypointList.stream().map(wp -> wp.placeID()).distinct()
-				.collect(Collectors.toList());
+		this.probabilitiesForEachPlace = new HashMap<>();
+		List<P> allPlaceList = (this.allPlaces != null) ? new ArrayList<>(this.allPlaces)
+				: this.waypointList.stream().map(wp -> wp.placeID()).distinct().collect(Collectors.toList());
 		Random rg = new Random(this.seed);
 		/*
 		 * Given Exponential(1) Z, take random infection probability 1 / (1 + b Z) where
@@ -212,10 +357,19 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 		}
 	}
 
+	/**
+	 * Draws a fresh sample of variable rate infections, computing the exposures
+	 * and place probabilities first if needed.
+	 */
+	public void simulateVariableRateInfections() {
+		this.variableRateStage.invalidate();
+		this.variableRateStage.ensure();
+	}
+
 	/*
 	 * Infection depends on WHERE exposure occurred.
 	 */
-	public void simulateVariableRateInfections() {
+	private void sampleVariableRateInfections() {
 		/*
 		 * Compute the non-infection probability Prod_i(1 - p_i) for each exposed
 		 * mobileID, using the probabilities associated with the places where exposed.
@@ -246,8 +400,8 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 *           one exposure event
 	 */
 	public LongSummaryStatistics exposureCountSummary() {
-		return this.exposurePlaceListByID.values().stream().mapToLong(list -> (long) list.size()).filter(v -> (v > 0))
-				.boxed().collect(Collectors.summarizingLong(v -> v));
+		this.exposureStage.ensure();
+		return this.exposureStatistics.summary();
 	};
 
 	/**
@@ -256,8 +410,8 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 *         exposures
 	 */
 	public Map<Long, Long> tallyExposureStatistics() {
-		return this.exposurePlaceListByID.values().stream()
-				.collect(Collectors.groupingBy(list -> (long) list.size(), Collectors.counting()));
+		this.exposureStage.ensure();
+		return this.exposureStatistics.tally();
 	};
 
 	/**
@@ -265,6 +419,7 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * @return the vulnerableMobileIDs
 	 */
 	public Set<M> getExposedMobileIDs() {
+		this.exposureStage.ensure();
 		return this.exposurePlaceListByID.keySet();
 	};
 
@@ -273,6 +428,7 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * @return the infectedMobileIDs
 	 */
 	public Set<M> getInfectedMobileIDs() {
+		this.constantRateStage.ensure();
 		return infectedMobileIDs;
 	};
 
@@ -280,6 +436,7 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * @return the probabilitiesForEachPlace
 	 */
 	public Map<P, Double> getProbabilitiesForEachPlace() {
+		this.probabilityStage.ensure();
 		return probabilitiesForEachPlace;
 	}
 
@@ -287,6 +444,7 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * @return the exposurePlaceListByID
 	 */
 	public Map<M, List<P>> getExposurePlaceListByID() {
+		this.exposureStage.ensure();
 		return exposurePlaceListByID;
 	}
 
@@ -294,6 +452,7 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * @return the vulnerableMobileIDs
 	 */
 	public Set<M> getVulnerableMobileIDs() {
+		this.exposureStage.ensure();
 		return vulnerableMobileIDs;
 	}
 
@@ -301,6 +460,7 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * @return the variableRateInfectedMobileIDs
 	 */
 	public Set<M> getVariableRateInfectedMobileIDs() {
+		this.variableRateStage.ensure();
 		return variableRateInfectedMobileIDs;
 	}
 
@@ -310,23 +470,6 @@ public class PlaceDependentContactMaker<M, P> implements ContactMaker<M> {
 	 * Function. Given p>0, choose b as multipliers[j-1], where j =
 	 * Math.ceil(200*p).
 	 */
-	final double[] multipliers = new double[] { 1323.28, 579.701, 353.99, 248.013, 187.466, 148.714, 121.994, 102.572,
-			87.8874, 76.4401, 67.2961, 59.8446, 53.6707, 48.4828, 44.0706, 40.2787, 36.9899, 34.1144, 31.5821, 29.3377,
-			27.3369, 25.5439, 23.9294, 22.4693, 21.1436, 19.9356, 18.8309, 17.8176, 16.8854, 16.0255, 15.2302, 14.493,
-			13.8081, 13.1705, 12.5756, 12.0197, 11.4992, 11.0111, 10.5527, 10.1215, 9.71524, 9.33207, 8.97017, 8.62795,
-			8.30396, 7.99688, 7.70551, 7.42878, 7.16569, 6.91533, 6.67686, 6.44954, 6.23265, 6.02555, 5.82765, 5.6384,
-			5.45728, 5.28384, 5.11762, 4.95824, 4.80531, 4.65849, 4.51744, 4.38187, 4.25148, 4.12602, 4.00524, 3.88891,
-			3.7768, 3.66871, 3.56446, 3.46386, 3.36673, 3.27294, 3.18231, 3.09471, 3.01001, 2.92808, 2.8488, 2.77205,
-			2.69774, 2.62576, 2.55601, 2.4884, 2.42285, 2.35928, 2.2976, 2.23775, 2.17965, 2.12323, 2.06844, 2.01521,
-			1.96348, 1.9132, 1.86432, 1.81679, 1.77055, 1.72557, 1.6818, 1.63919, 1.59771, 1.55732, 1.51798, 1.47966,
-			1.44232, 1.40594, 1.37047, 1.3359, 1.30219, 1.26931, 1.23725, 1.20596, 1.17544, 1.14565, 1.11658, 1.0882,
-			1.06049, 1.03344, 1.00701, 0.981206, 0.955994, 0.931362, 0.907292, 0.88377, 0.860779, 0.838305, 0.816333,
-			0.79485, 0.773842, 0.753297, 0.733202, 0.713545, 0.694314, 0.675499, 0.657087, 0.63907, 0.621436, 0.604176,
-			0.58728, 0.57074, 0.554545, 0.538688, 0.52316, 0.507954, 0.49306, 0.478472, 0.464183, 0.450184, 0.43647,
-			0.423033, 0.409866, 0.396965, 0.384322, 0.371931, 0.359787, 0.347884, 0.336217, 0.32478, 0.313568, 0.302576,
-			0.2918, 0.281234, 0.270874, 0.260715, 0.250754, 0.240986, 0.231407, 0.222012, 0.212799, 0.203763, 0.1949,
-			0.186207, 0.177681, 0.169318, 0.161115, 0.153069, 0.145176, 0.137434, 0.12984, 0.12239, 0.115082, 0.107913,
-			0.100881, 0.0939831, 0.0872166, 0.0805792, 0.0740686, 0.0676823, 0.0614183, 0.0552743, 0.0492482, 0.043338,
-			0.0375416, 0.0318572, 0.0262828, 0.0208166, 0.0154569, 0.010202, 0.00505025, 0.0 };
+	final double[] multipliers = PlaceDependentRateModel.MULTIPLIERS;
 
 }
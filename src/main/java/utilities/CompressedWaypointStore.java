@@ -0,0 +1,349 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Waypoints in compressed blocks of BLOCK_SIZE rows, sorted by mobileID and
+ * then by time, so that consecutive rows usually share the mobileID, have close
+ * timestamps, and revisit a few places:
+ *
+ * - mobileIDs are stored as varint deltas from the previous row;
+ * - timestamps are quantized to ticks (1/ticksPerDay of a day) and stored as
+ *   varint deltas; a block whose timestamps are not all exact multiples of a
+ *   tick keeps the raw 8 byte values instead, so decoding is always lossless;
+ * - placeIDs are indexes into a small dictionary of the places of the block.
+ *
+ * Each block also has a summary (time range, place range, mobileID range) so a
+ * scan can skip blocks without decoding them. Scans decode into one reused
+ * Block buffer.
+ */
+public final class CompressedWaypointStore {
+
+	public static final int BLOCK_SIZE = 1 << 10;
+	private static final byte TICKS = 0, RAW = 1;
+
+	private final double ticksPerDay;
+	private final byte[][] blocks;
+	private final int[] counts, firstMobileIDs, lastMobileIDs, minPlaces, maxPlaces;
+	private final double[] minTimes, maxTimes;
+	private final long size, compressedBytes;
+
+	/**
+	 * Decoded rows of one block; the arrays are reused from block to block.
+	 */
+	public static final class Block {
+		public int size;
+		public final int[] mobileIDs = new int[BLOCK_SIZE];
+		public final double[] timeStamps = new double[BLOCK_SIZE];
+		public final int[] placeIDs = new int[BLOCK_SIZE];
+		private final int[] dictionary = new int[BLOCK_SIZE];
+		private int position; // read cursor while decoding
+	}
+
+	/**
+	 * Blocks are encoded from all the waypoints at once, since a block needs the
+	 * rows of its devices in time order and files are not in device order; while
+	 * they are, the columns, a sorted copy of their rows and timestamps (12 bytes
+	 * per row) and the blocks are held together. The store only saves memory once
+	 * the columns are dropped.
+	 *
+	 * @param waypoints    all waypoints, with dense mobileIDs and placeIDs
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param ticksPerDay  time resolution, e.g. 1e6 for timestamps written with
+	 *                     six decimals
+	 */
+	public CompressedWaypointStore(WaypointColumns waypoints, int numMobileIDs, double ticksPerDay) {
+		this.ticksPerDay = ticksPerDay;
+		int n = waypoints.size();
+		this.size = n;
+		/*
+		 * Rows of each mobileID, in time order
+		 */
+		int[] deviceOffsets = new int[numMobileIDs + 1];
+		for (int i = 0; i < n; i++) {
+			deviceOffsets[waypoints.mobileID(i) + 1]++;
+		}
+		for (int d = 0; d < numMobileIDs; d++) {
+			deviceOffsets[d + 1] += deviceOffsets[d];
+		}
+		int[] next = new int[numMobileIDs];
+		System.arraycopy(deviceOffsets, 0, next, 0, numMobileIDs);
+		int[] rows = new int[n];
+		double[] times = new double[n];
+		for (int i = 0; i < n; i++) {
+			int j = next[waypoints.mobileID(i)]++;
+			rows[j] = i;
+			times[j] = waypoints.timeStamp(i);
+		}
+		for (int d = 0; d < numMobileIDs; d++) {
+			if (deviceOffsets[d + 1] - deviceOffsets[d] > 1) {
+				SojournIndex.sortByTime(times, rows, deviceOffsets[d], deviceOffsets[d + 1] - 1);
+			}
+		}
+		int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		this.blocks = new byte[numBlocks][];
+		this.counts = new int[numBlocks];
+		this.firstMobileIDs = new int[numBlocks];
+		this.lastMobileIDs = new int[numBlocks];
+		this.minPlaces = new int[numBlocks];
+		this.maxPlaces = new int[numBlocks];
+		this.minTimes = new double[numBlocks];
+		this.maxTimes = new double[numBlocks];
+		ByteSink sink = new ByteSink();
+		long bytes = 0;
+		for (int b = 0; b < numBlocks; b++) {
+			int from = b * BLOCK_SIZE, to = Math.min(n, from + BLOCK_SIZE);
+			this.blocks[b] = this.encode(waypoints, rows, times, from, to, b, sink);
+			bytes += this.blocks[b].length;
+		}
+		this.compressedBytes = bytes;
+		System.out.println(n + " waypoints compressed into " + numBlocks + " blocks, "
+				+ String.format("%.2f", (n > 0) ? (double) bytes / n : 0.0) + " bytes per waypoint.");
+	}
+
+	public CompressedWaypointStore(WaypointColumns waypoints, int numMobileIDs) {
+		this(waypoints, numMobileIDs, 1e6);
+	}
+
+	private byte[] encode(WaypointColumns waypoints, int[] rows, double[] times, int from, int to, int b,
+			ByteSink sink) {
+		sink.reset();
+		int count = to - from;
+		int[] places = new int[count];
+		boolean exact = true;
+		double minTime = Double.POSITIVE_INFINITY, maxTime = Double.NEGATIVE_INFINITY;
+		for (int j = from; j < to; j++) {
+			places[j - from] = waypoints.placeID(rows[j]);
+			minTime = Math.min(minTime, times[j]);
+			maxTime = Math.max(maxTime, times[j]);
+			double decoded = this.fromTicks(this.toTicks(times[j]));
+			/* bits, not ==, so that -0.0 is kept */
+			exact = exact && Double.doubleToRawLongBits(decoded) == Double.doubleToRawLongBits(times[j]);
+		}
+		/*
+		 * Block dictionary of places: sorted, delta coded
+		 */
+		int[] dictionary = Arrays.stream(places).sorted().distinct().toArray();
+		this.counts[b] = count;
+		this.firstMobileIDs[b] = waypoints.mobileID(rows[from]);
+		this.lastMobileIDs[b] = waypoints.mobileID(rows[to - 1]);
+		this.minPlaces[b] = dictionary[0];
+		this.maxPlaces[b] = dictionary[dictionary.length - 1];
+		this.minTimes[b] = minTime;
+		this.maxTimes[b] = maxTime;
+		sink.put(exact ? TICKS : RAW);
+		sink.putVarLong(dictionary.length);
+		int previousPlace = 0;
+		for (int v : dictionary) {
+			sink.putVarLong(v - previousPlace);
+			previousPlace = v;
+		}
+		int previousID = this.firstMobileIDs[b];
+		long previousTicks = 0;
+		for (int j = from; j < to; j++) {
+			int id = waypoints.mobileID(rows[j]);
+			sink.putVarLong(zigzag(id - previousID));
+			previousID = id;
+			if (exact) {
+				long ticks = this.toTicks(times[j]);
+				sink.putVarLong(zigzag(ticks - previousTicks));
+				previousTicks = ticks;
+			} else {
+				sink.putLong(Double.doubleToRawLongBits(times[j]));
+			}
+			sink.putVarLong(Arrays.binarySearch(dictionary, places[j - from]));
+		}
+		return sink.toByteArray();
+	}
+
+	/**
+	 * Decodes block b into the buffer.
+	 */
+	public void decode(int b, Block into) {
+		byte[] data = this.blocks[b];
+		int[] dictionary = into.dictionary;
+		into.position = 0;
+		boolean exact = data[into.position++] == TICKS;
+		int distinctPlaces = (int) getVarLong(data, into);
+		int place = 0;
+		for (int k = 0; k < distinctPlaces; k++) {
+			place += (int) getVarLong(data, into);
+			dictionary[k] = place;
+		}
+		int id = this.firstMobileIDs[b];
+		long ticks = 0;
+		for (int i = 0; i < this.counts[b]; i++) {
+			id += (int) unzigzag(getVarLong(data, into));
+			into.mobileIDs[i] = id;
+			if (exact) {
+				ticks += unzigzag(getVarLong(data, into));
+				into.timeStamps[i] = this.fromTicks(ticks);
+			} else {
+				long bits = 0;
+				for (int k = 0; k < 8; k++) {
+					bits = (bits << 8) | (data[into.position++] & 0xff);
+				}
+				into.timeStamps[i] = Double.longBitsToDouble(bits);
+			}
+			into.placeIDs[i] = dictionary[(int) getVarLong(data, into)];
+		}
+		into.size = this.counts[b];
+	}
+
+	/**
+	 * Decodes, one after the other into the same buffer, the blocks with
+	 * timestamps overlapping the window; the others are skipped undecoded. Rows of
+	 * a decoded block may still lie outside the window.
+	 *
+	 * @param window null for all blocks
+	 */
+	public void scan(Window window, Consumer<Block> consumer) {
+		this.scan(0, this.numBlocks(), window, new Block(), consumer);
+	}
+
+	/**
+	 * As scan(window, consumer), over blocks [fromBlock, toBlock), with the caller's
+	 * buffer; one buffer per thread allows ranges to be scanned in parallel.
+	 */
+	public void scan(int fromBlock, int toBlock, Window window, Block buffer, Consumer<Block> consumer) {
+		for (int b = fromBlock; b < toBlock; b++) {
+			if (window != null && (this.maxTimes[b] < window.startTime() || this.minTimes[b] >= window.endTime())) {
+				continue;
+			}
+			this.decode(b, buffer);
+			consumer.accept(buffer);
+		}
+	}
+
+	/**
+	 * @return all rows, decoded, in mobileID and time order
+	 */
+	public WaypointColumns toColumns() {
+		WaypointColumns columns = new WaypointColumns((int) this.size);
+		this.scan(null, block -> {
+			for (int i = 0; i < block.size; i++) {
+				columns.add(block.mobileIDs[i], block.timeStamps[i], block.placeIDs[i]);
+			}
+		});
+		return columns;
+	}
+
+	private long toTicks(double t) {
+		return Math.round(t * this.ticksPerDay);
+	}
+
+	private double fromTicks(long ticks) {
+		return ticks / this.ticksPerDay; // correctly rounded, as when the decimal was parsed
+	}
+
+	private static long zigzag(long x) {
+		return (x << 1) ^ (x >> 63);
+	}
+
+	private static long unzigzag(long x) {
+		return (x >>> 1) ^ -(x & 1);
+	}
+
+	private static long getVarLong(byte[] data, Block cursor) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[cursor.position++];
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/*
+	 * Growable byte array for encoding one block
+	 */
+	private static final class ByteSink {
+		private byte[] bytes = new byte[BLOCK_SIZE * 8];
+		private int size;
+
+		void reset() {
+			this.size = 0;
+		}
+
+		void put(byte b) {
+			if (this.size == this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, this.size << 1);
+			}
+			this.bytes[this.size++] = b;
+		}
+
+		void putVarLong(long x) {
+			while ((x & ~0x7fL) != 0) {
+				this.put((byte) ((x & 0x7f) | 0x80));
+				x >>>= 7;
+			}
+			this.put((byte) x);
+		}
+
+		void putLong(long x) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				this.put((byte) (x >>> shift));
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(this.bytes, this.size);
+		}
+	}
+
+	public int numBlocks() {
+		return this.blocks.length;
+	}
+
+	/**
+	 * @return number of rows in block b
+	 */
+	public int count(int b) {
+		return this.counts[b];
+	}
+
+	public double minTime(int b) {
+		return this.minTimes[b];
+	}
+
+	public double maxTime(int b) {
+		return this.maxTimes[b];
+	}
+
+	public int minPlaceID(int b) {
+		return this.minPlaces[b];
+	}
+
+	public int maxPlaceID(int b) {
+		return this.maxPlaces[b];
+	}
+
+	public int firstMobileID(int b) {
+		return this.firstMobileIDs[b];
+	}
+
+	public int lastMobileID(int b) {
+		return this.lastMobileIDs[b];
+	}
+
+	/**
+	 * @return total number of waypoints
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return bytes of encoded block data, not counting the summaries
+	 */
+	public long compressedBytes() {
+		return this.compressedBytes;
+	}
+
+}
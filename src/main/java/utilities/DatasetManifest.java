@@ -0,0 +1,263 @@
+/**
+ * Statistics of a waypoint file, gathered in the same pass which parses it, and
+ * cached next to the input as <waypointfile>.manifest (raw integer IDs) or
+ * <waypointfile>.codes.manifest (dense codes) so that later runs know the sizes
+ * before reading a single row.
+ */
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Minimum and maximum of each column, distinct mobileID and placeID counts,
+ * number of waypoints for each mobileID, and number of waypoints. The integer
+ * IDs are those handed to accept(): raw IDs for GenericWaypointCSVReader, dense
+ * codes for EncodedWaypointCSVReader. Waypoint counts are indexed by mobileID,
+ * so they are only kept for dense codes: raw IDs may be sparse, up to
+ * Integer.MAX_VALUE.
+ */
+public final class DatasetManifest {
+
+	private static final int MAGIC = 0x434d4e46; // "CMNF"
+	private static final int VERSION = 1;
+
+	private long waypointCount;
+	private int minMobileID, maxMobileID, minPlaceID, maxPlaceID;
+	private double minTime, maxTime;
+	private long distinctMobileIDs, distinctPlaceIDs;
+	private final boolean denseCodes; // IDs are dictionary codes rather than raw IDs
+	private int[] waypointsPerDevice; // indexed by mobileID; empty unless denseCodes
+	/*
+	 * Sketches of raw IDs, or the placeIDs seen for dense codes, exist only while
+	 * the manifest is being built; dense mobileIDs are counted in
+	 * waypointsPerDevice.
+	 */
+	private HyperLogLog mobileSketch, placeSketch;
+	private BitSet placesSeen;
+
+	/**
+	 * @param denseCodes true if the IDs are dictionary codes rather than raw IDs
+	 */
+	public DatasetManifest(boolean denseCodes) {
+		this.denseCodes = denseCodes;
+		this.waypointCount = 0;
+		this.minMobileID = Integer.MAX_VALUE;
+		this.maxMobileID = Integer.MIN_VALUE;
+		this.minPlaceID = Integer.MAX_VALUE;
+		this.maxPlaceID = Integer.MIN_VALUE;
+		this.minTime = Double.POSITIVE_INFINITY;
+		this.maxTime = Double.NEGATIVE_INFINITY;
+		this.waypointsPerDevice = new int[denseCodes ? 1 << 10 : 0];
+		if (denseCodes) {
+			this.placesSeen = new BitSet();
+		} else {
+			this.mobileSketch = new HyperLogLog();
+			this.placeSketch = new HyperLogLog();
+		}
+	}
+
+	/**
+	 * Records one parsed row.
+	 */
+	public void accept(int mobileID, double timeStamp, int placeID) {
+		this.waypointCount++;
+		this.minMobileID = Math.min(this.minMobileID, mobileID);
+		this.maxMobileID = Math.max(this.maxMobileID, mobileID);
+		this.minPlaceID = Math.min(this.minPlaceID, placeID);
+		this.maxPlaceID = Math.max(this.maxPlaceID, placeID);
+		this.minTime = Math.min(this.minTime, timeStamp);
+		this.maxTime = Math.max(this.maxTime, timeStamp);
+		if (!this.denseCodes) {
+			this.mobileSketch.offer(mobileID);
+			this.placeSketch.offer(placeID);
+		} else if (mobileID >= 0) {
+			if (mobileID >= this.waypointsPerDevice.length) {
+				this.waypointsPerDevice = Arrays.copyOf(this.waypointsPerDevice,
+						Math.max(mobileID + 1, this.waypointsPerDevice.length << 1));
+			}
+			this.waypointsPerDevice[mobileID]++;
+			this.placesSeen.set(placeID);
+		}
+	}
+
+	/**
+	 * Ends the pass: distinct counts are estimated by the sketches of raw IDs, or
+	 * counted exactly for dense codes, e.g. codes continuing the dictionaries of
+	 * earlier files; the sketches are released.
+	 */
+	public void finish() {
+		if (this.denseCodes) {
+			this.finish(Arrays.stream(this.waypointsPerDevice).filter(count -> count > 0).count(),
+					this.placesSeen.cardinality());
+		} else {
+			this.finish(this.mobileSketch.cardinality(), this.placeSketch.cardinality());
+		}
+	}
+
+	/**
+	 * Ends the pass with exact distinct counts, e.g. dictionary sizes.
+	 */
+	public void finish(long numMobileIDs, long numPlaceIDs) {
+		this.distinctMobileIDs = numMobileIDs;
+		this.distinctPlaceIDs = numPlaceIDs;
+		if (this.denseCodes) {
+			this.waypointsPerDevice = Arrays.copyOf(this.waypointsPerDevice, Math.max(this.maxMobileID + 1, 0));
+		}
+		this.mobileSketch = null;
+		this.placeSketch = null;
+		this.placesSeen = null;
+	}
+
+	/**
+	 * Writes the manifest next to the input, stamped with the size and
+	 * modification time of the input so that a stale manifest is never used.
+	 *
+	 * @param denseCodes true if the IDs are dictionary codes rather than raw IDs
+	 */
+	public void writeCache(String waypointFilename, boolean denseCodes) {
+		File input = new File(waypointFilename);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(cacheFile(waypointFilename, denseCodes))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(input.length());
+			out.writeLong(input.lastModified());
+			out.writeLong(this.waypointCount);
+			out.writeInt(this.minMobileID);
+			out.writeInt(this.maxMobileID);
+			out.writeInt(this.minPlaceID);
+			out.writeInt(this.maxPlaceID);
+			out.writeDouble(this.minTime);
+			out.writeDouble(this.maxTime);
+			out.writeLong(this.distinctMobileIDs);
+			out.writeLong(this.distinctPlaceIDs);
+			out.writeInt(this.waypointsPerDevice.length);
+			for (int count : this.waypointsPerDevice) {
+				out.writeInt(count);
+			}
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not write manifest file.");
+		}
+	}
+
+	/**
+	 * @param denseCodes true if the IDs are dictionary codes rather than raw IDs
+	 * @return the cached manifest of this waypoint file, or null if there is none,
+	 *         or if the file has changed since it was written
+	 */
+	public static DatasetManifest readCache(String waypointFilename, boolean denseCodes) {
+		File input = new File(waypointFilename);
+		File cache = cacheFile(waypointFilename, denseCodes);
+		if (!cache.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != input.length()
+					|| in.readLong() != input.lastModified()) {
+				return null;
+			}
+			DatasetManifest manifest = new DatasetManifest(denseCodes);
+			manifest.waypointCount = in.readLong();
+			manifest.minMobileID = in.readInt();
+			manifest.maxMobileID = in.readInt();
+			manifest.minPlaceID = in.readInt();
+			manifest.maxPlaceID = in.readInt();
+			manifest.minTime = in.readDouble();
+			manifest.maxTime = in.readDouble();
+			manifest.distinctMobileIDs = in.readLong();
+			manifest.distinctPlaceIDs = in.readLong();
+			manifest.waypointsPerDevice = new int[in.readInt()];
+			for (int i = 0; i < manifest.waypointsPerDevice.length; i++) {
+				manifest.waypointsPerDevice[i] = in.readInt();
+			}
+			manifest.mobileSketch = null;
+			manifest.placeSketch = null;
+			manifest.placesSeen = null;
+			return manifest;
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not read manifest file; it will be rebuilt.");
+			return null;
+		}
+	}
+
+	private static File cacheFile(String waypointFilename, boolean denseCodes) {
+		return new File(waypointFilename + (denseCodes ? ".codes.manifest" : ".manifest"));
+	}
+
+	public long getWaypointCount() {
+		return waypointCount;
+	}
+
+	public int getMinMobileID() {
+		return minMobileID;
+	}
+
+	public int getMaxMobileID() {
+		return maxMobileID;
+	}
+
+	public int getMinPlaceID() {
+		return minPlaceID;
+	}
+
+	public int getMaxPlaceID() {
+		return maxPlaceID;
+	}
+
+	/**
+	 * @return earliest timestamp, in days
+	 */
+	public double getMinTime() {
+		return minTime;
+	}
+
+	/**
+	 * @return latest timestamp, in days
+	 */
+	public double getMaxTime() {
+		return maxTime;
+	}
+
+	/**
+	 * @return number of distinct mobileIDs (estimated, unless exact counts were
+	 *         supplied to finish)
+	 */
+	public long getDistinctMobileIDs() {
+		return distinctMobileIDs;
+	}
+
+	/**
+	 * @return number of distinct placeIDs (estimated, unless exact counts were
+	 *         supplied to finish)
+	 */
+	public long getDistinctPlaceIDs() {
+		return distinctPlaceIDs;
+	}
+
+	/**
+	 * @return number of waypoints of each mobileID, indexed by mobileID; empty if
+	 *         the IDs are raw IDs. Must not be modified.
+	 */
+	public int[] getWaypointsPerDevice() {
+		return waypointsPerDevice;
+	}
+
+	@Override
+	public String toString() {
+		return "DatasetManifest [waypoints=" + waypointCount + ", mobileIDs " + minMobileID + ".." + maxMobileID
+				+ " (" + distinctMobileIDs + " distinct), placeIDs " + minPlaceID + ".." + maxPlaceID + " ("
+				+ distinctPlaceIDs + " distinct), time " + minTime + ".." + maxTime + " days]";
+	}
+
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+
+/**
+ * Where the rows of each mobileID are: the trajectory of mobileID d is rows
+ * row(start(d)), ..., row(end(d) - 1), in file order.
+ *
+ * Waypoint files are usually grouped by mobileID, and then the ranges are rows
+ * of the columns themselves and row(r) is r; the index costs two ints per
+ * mobileID. Otherwise a counting sort of the rows by mobileID is kept as well.
+ * The index is built as rows are appended, during loading, so either way a
+ * trajectory is found in constant time, and the waypoints of a few sources are
+ * read without scanning the others.
+ */
+public final class DeviceIndex {
+
+	private int[] start, end;
+	private int[] rows; // null while the rows of each mobileID are contiguous
+	private int size, previous;
+	private boolean grouped;
+
+	public DeviceIndex() {
+		this.start = new int[16];
+		this.end = new int[16];
+		Arrays.fill(this.start, -1);
+		this.rows = null;
+		this.size = 0;
+		this.previous = -1;
+		this.grouped = true;
+	}
+
+	/**
+	 * Indexes waypoints already loaded.
+	 */
+	public DeviceIndex(WaypointColumns waypoints, int numMobileIDs) {
+		this();
+		this.ensureCapacity(numMobileIDs);
+		for (int i = 0; i < waypoints.size(); i++) {
+			this.append(waypoints.mobileID(i));
+		}
+		this.complete(waypoints);
+	}
+
+	/**
+	 * Records the next row of the columns, while loading.
+	 */
+	public void append(int mobileID) {
+		this.ensureCapacity(mobileID + 1);
+		if (this.start[mobileID] < 0) {
+			this.start[mobileID] = this.size;
+		} else if (mobileID != this.previous) {
+			this.grouped = false; // a mobileID came back after another one
+		}
+		this.end[mobileID] = this.size + 1;
+		this.previous = mobileID;
+		this.size++;
+	}
+
+	/**
+	 * Once loading is complete; sorts the rows by mobileID if the file was not
+	 * grouped.
+	 *
+	 * @param waypoints the columns whose rows were appended
+	 */
+	public void complete(WaypointColumns waypoints) {
+		int numMobileIDs = this.start.length;
+		for (int d = 0; d < numMobileIDs; d++) {
+			if (this.start[d] < 0) {
+				this.start[d] = 0; // no rows: empty range
+				this.end[d] = 0;
+			}
+		}
+		if (this.grouped) {
+			return;
+		}
+		int[] offsets = new int[numMobileIDs + 1];
+		for (int i = 0; i < this.size; i++) {
+			offsets[waypoints.mobileID(i) + 1]++;
+		}
+		for (int d = 0; d < numMobileIDs; d++) {
+			offsets[d + 1] += offsets[d];
+		}
+		this.rows = new int[this.size];
+		for (int d = 0; d < numMobileIDs; d++) {
+			this.start[d] = offsets[d];
+			this.end[d] = offsets[d];
+		}
+		for (int i = 0; i < this.size; i++) {
+			this.rows[this.end[waypoints.mobileID(i)]++] = i;
+		}
+		System.out.println("Waypoints are not grouped by mobileID; rows sorted by mobileID for the device index.");
+	}
+
+	private void ensureCapacity(int numMobileIDs) {
+		if (numMobileIDs > this.start.length) {
+			int capacity = Math.max(numMobileIDs, this.start.length + (this.start.length >> 1));
+			int old = this.start.length;
+			this.start = Arrays.copyOf(this.start, capacity);
+			this.end = Arrays.copyOf(this.end, capacity);
+			Arrays.fill(this.start, old, capacity, -1);
+		}
+	}
+
+	/**
+	 * @return first position of the rows of this mobileID
+	 */
+	public int start(int mobileID) {
+		return this.start[mobileID];
+	}
+
+	/**
+	 * @return one past the last position of the rows of this mobileID
+	 */
+	public int end(int mobileID) {
+		return this.end[mobileID];
+	}
+
+	/**
+	 * @return row of the columns at position r of the index
+	 */
+	public int row(int r) {
+		return (this.rows == null) ? r : this.rows[r];
+	}
+
+	/**
+	 * @return number of waypoints of this mobileID
+	 */
+	public int count(int mobileID) {
+		return this.end[mobileID] - this.start[mobileID];
+	}
+
+	/**
+	 * @return true if the rows of each mobileID are contiguous in the columns
+	 */
+	public boolean isGrouped() {
+		return grouped;
+	}
+
+	/**
+	 * @return number of rows indexed
+	 */
+	public int size() {
+		return this.size;
+	}
+
+}
@@ -0,0 +1,162 @@
+/**
+ *
+ */
+package utilities;
+
+/**
+ * Dwell intervals derived from pings: consecutive waypoints of one mobileID at
+ * the same place are taken as a single stay there, from the first of them to
+ * width after the last, but never past the next waypoint of the mobileID at
+ * another place. A single ping becomes a stay [t, t + width), as in a Sojourn.
+ *
+ * Intervals are stored by place, sorted by start time, in the same compressed
+ * sparse row layout as SojournIndex.
+ */
+public final class DwellIntervals {
+
+	private final double width;
+	private final int[] offsets; // intervals at place v are entries offsets[v] .. offsets[v+1]-1
+	private final double[] starts, ends;
+	private final int[] mobileIDs;
+
+	/**
+	 * @param waypoints    all waypoints, with dense mobileIDs and placeIDs
+	 * @param width        length of a stay after its last ping, in days
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param numPlaces    placeIDs are 0, 1, ..., numPlaces - 1
+	 */
+	public DwellIntervals(WaypointColumns waypoints, double width, int numMobileIDs, int numPlaces) {
+		this.width = width;
+		int n = waypoints.size();
+		/*
+		 * Rows of each mobileID, in time order
+		 */
+		int[] deviceOffsets = new int[numMobileIDs + 1];
+		for (int i = 0; i < n; i++) {
+			deviceOffsets[waypoints.mobileID(i) + 1]++;
+		}
+		for (int d = 0; d < numMobileIDs; d++) {
+			deviceOffsets[d + 1] += deviceOffsets[d];
+		}
+		int[] next = new int[numMobileIDs];
+		System.arraycopy(deviceOffsets, 0, next, 0, numMobileIDs);
+		int[] rows = new int[n];
+		double[] times = new double[n];
+		for (int i = 0; i < n; i++) {
+			int j = next[waypoints.mobileID(i)]++;
+			rows[j] = i;
+			times[j] = waypoints.timeStamp(i);
+		}
+		for (int d = 0; d < numMobileIDs; d++) {
+			if (deviceOffsets[d + 1] - deviceOffsets[d] > 1) {
+				SojournIndex.sortByTime(times, rows, deviceOffsets[d], deviceOffsets[d + 1] - 1);
+			}
+		}
+		/*
+		 * Runs of consecutive rows at one place become intervals, bucketed by place.
+		 */
+		double[] runStarts = new double[n], runEnds = new double[n];
+		int[] runPlaces = new int[n], runIDs = new int[n];
+		int runs = 0;
+		for (int d = 0; d < numMobileIDs; d++) {
+			int j = deviceOffsets[d];
+			while (j < deviceOffsets[d + 1]) {
+				int place = waypoints.placeID(rows[j]);
+				int last = j;
+				while (last + 1 < deviceOffsets[d + 1] && waypoints.placeID(rows[last + 1]) == place) {
+					last++;
+				}
+				double end = times[last] + width;
+				if (last + 1 < deviceOffsets[d + 1]) {
+					end = Math.min(end, times[last + 1]); // left for another place
+				}
+				if (end > times[j]) {
+					runStarts[runs] = times[j];
+					runEnds[runs] = end;
+					runPlaces[runs] = place;
+					runIDs[runs] = d;
+					runs++;
+				}
+				j = last + 1;
+			}
+		}
+		this.offsets = new int[numPlaces + 1];
+		for (int r = 0; r < runs; r++) {
+			this.offsets[runPlaces[r] + 1]++;
+		}
+		for (int v = 0; v < numPlaces; v++) {
+			this.offsets[v + 1] += this.offsets[v];
+		}
+		int[] placeNext = new int[numPlaces];
+		System.arraycopy(this.offsets, 0, placeNext, 0, numPlaces);
+		double[] keys = new double[runs];
+		int[] order = new int[runs];
+		for (int r = 0; r < runs; r++) {
+			int j = placeNext[runPlaces[r]]++;
+			keys[j] = runStarts[r];
+			order[j] = r;
+		}
+		for (int v = 0; v < numPlaces; v++) {
+			if (this.offsets[v + 1] - this.offsets[v] > 1) {
+				SojournIndex.sortByTime(keys, order, this.offsets[v], this.offsets[v + 1] - 1);
+			}
+		}
+		this.starts = keys;
+		this.ends = new double[runs];
+		this.mobileIDs = new int[runs];
+		for (int j = 0; j < runs; j++) {
+			this.ends[j] = runEnds[order[j]];
+			this.mobileIDs[j] = runIDs[order[j]];
+		}
+		System.out.println(n + " waypoints merged into " + runs + " dwell intervals.");
+	}
+
+	/**
+	 * @return number of places covered
+	 */
+	public int numPlaces() {
+		return this.offsets.length - 1;
+	}
+
+	/**
+	 * @return number of dwell intervals at this place
+	 */
+	public int count(int placeID) {
+		return this.offsets[placeID + 1] - this.offsets[placeID];
+	}
+
+	/**
+	 * @return total number of dwell intervals
+	 */
+	public int size() {
+		return this.starts.length;
+	}
+
+	public double start(int index) {
+		return this.starts[index];
+	}
+
+	public double end(int index) {
+		return this.ends[index];
+	}
+
+	public int mobileID(int index) {
+		return this.mobileIDs[index];
+	}
+
+	public Window window(int index) {
+		return new Window(this.starts[index], this.ends[index]);
+	}
+
+	public double getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return backing array of offsets. Must not be modified.
+	 */
+	public int[] offsets() {
+		return this.offsets;
+	}
+
+}
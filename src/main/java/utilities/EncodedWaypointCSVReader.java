@@ -0,0 +1,226 @@
+/**
+ * The mobileID and placeID may be arbitrary strings, such as device hashes and
+ * venue names. They are dictionary encoded into dense ints as the file is parsed.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Reads rows of the form mobileID, timestamp (days), placeID into primitive
+ * columns. The dictionaries decode the dense ints back to the external IDs when
+ * results are written.
+ */
+public final class EncodedWaypointCSVReader {
+
+	final String csvFile;
+	private WaypointColumns columns;
+	private IDDictionary mobileDictionary, placeDictionary;
+	private DatasetManifest manifest; // cached from an earlier run, or built while reading
+	private DeviceIndex deviceIndex; // null in streaming mode
+	private final int batchSize;
+	private final Consumer<WaypointColumns> batchConsumer; // null when all rows are retained
+	private final boolean continuing; // true if codes continue the dictionaries of earlier files
+	static final int SHARDS = 16; // contiguous ranges of codes, for the locality diagnostic
+
+	public EncodedWaypointCSVReader(String filename) {
+		this.csvFile = filename;
+		this.manifest = DatasetManifest.readCache(filename, true);
+		this.columns = (this.manifest == null) ? new WaypointColumns()
+				: new WaypointColumns((int) this.manifest.getWaypointCount());
+		this.mobileDictionary = new IDDictionary();
+		this.placeDictionary = new IDDictionary();
+		this.batchSize = 0;
+		this.batchConsumer = null;
+		this.continuing = false;
+		this.readFile();
+	}
+
+	/**
+	 * Reads a file appended to earlier ones, e.g. one more day of waypoints: IDs
+	 * already in the dictionaries keep their codes, and new IDs get the next
+	 * codes. The manifest is built but not cached, since the codes depend on the
+	 * earlier files.
+	 */
+	public EncodedWaypointCSVReader(String filename, IDDictionary mobileDictionary, IDDictionary placeDictionary) {
+		this.csvFile = filename;
+		this.manifest = null;
+		this.columns = new WaypointColumns();
+		this.mobileDictionary = mobileDictionary;
+		this.placeDictionary = placeDictionary;
+		this.batchSize = 0;
+		this.batchConsumer = null;
+		this.continuing = true;
+		this.readFile();
+	}
+
+	/**
+	 * Streaming mode: rows are handed to batchConsumer in batches of batchSize as
+	 * soon as they are parsed, and are not retained, so getColumns() is empty.
+	 * The dictionaries and manifest are built as usual.
+	 */
+	public EncodedWaypointCSVReader(String filename, int batchSize, Consumer<WaypointColumns> batchConsumer) {
+		this.csvFile = filename;
+		this.manifest = DatasetManifest.readCache(filename, true);
+		this.columns = new WaypointColumns(batchSize);
+		this.mobileDictionary = new IDDictionary();
+		this.placeDictionary = new IDDictionary();
+		this.batchSize = batchSize;
+		this.batchConsumer = batchConsumer;
+		this.continuing = false;
+		this.readFile();
+	}
+
+	public void readFile() {
+		DatasetManifest building = (this.manifest == null) ? new DatasetManifest(true) : null;
+		this.deviceIndex = (this.batchConsumer == null) ? new DeviceIndex() : null;
+		long rows = 0;
+		boolean complete = true;
+		try {
+			Reader in = WaypointInput.openReader(this.csvFile); // plain or gzip
+			Iterable<CSVRecord> triples = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in);
+			int mobileID, placeID;
+			double timeStamp;
+			for (CSVRecord triple : triples) {
+				mobileID = this.mobileDictionary.encode(triple.get(0).trim());
+				timeStamp = Double.parseDouble(triple.get(1));
+				placeID = this.placeDictionary.encode(triple.get(2).trim());
+				this.columns.add(mobileID, timeStamp, placeID);
+				if (this.deviceIndex != null) {
+					this.deviceIndex.append(mobileID);
+				}
+				rows++;
+				if (building != null) {
+					building.accept(mobileID, timeStamp, placeID);
+				}
+				if (this.batchConsumer != null && this.columns.size() == this.batchSize) {
+					this.batchConsumer.accept(this.columns);
+					this.columns = new WaypointColumns(this.batchSize);
+				}
+			}
+			in.close();
+
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not find input file.");
+			complete = false;
+		}
+		if (building != null && this.continuing) {
+			building.finish();
+			this.manifest = building;
+		} else if (building != null) {
+			// the dictionaries give exact distinct counts
+			building.finish(this.mobileDictionary.size(), this.placeDictionary.size());
+			if (complete) {
+				building.writeCache(this.csvFile, true);
+			}
+			this.manifest = building;
+		}
+		if (this.batchConsumer != null) {
+			if (this.columns.size() > 0) {
+				this.batchConsumer.accept(this.columns);
+			}
+			this.columns = new WaypointColumns(0);
+		}
+		this.columns.trimToSize();
+		if (this.deviceIndex != null) {
+			this.deviceIndex.complete(this.columns);
+		}
+		System.out.println("Number of waypoints read: " + rows);
+		System.out.println("Number of distinct mobileIDs: " + this.mobileDictionary.size()
+				+ ", number of distinct placeIDs: " + this.placeDictionary.size());
+	}
+
+	/**
+	 * Renumbers devices and places so that those often seen together get nearby
+	 * codes (see LocalityRenumbering), once the file has been read. The
+	 * dictionaries still decode each code to its external ID; the device index
+	 * and the manifest are rebuilt in terms of the new codes, and the manifest is
+	 * not cached, since the codes no longer follow the file.
+	 *
+	 * @return the renumbering, which maps the new codes back to those of the file
+	 */
+	public LocalityRenumbering renumberForLocality() {
+		if (this.deviceIndex == null) {
+			throw new IllegalStateException("Waypoints are not retained in streaming mode; nothing to renumber.");
+		}
+		if (this.continuing) {
+			throw new IllegalStateException("Dictionaries shared with earlier files cannot be renumbered.");
+		}
+		int numMobileIDs = this.numMobileIDs(), numPlaceIDs = this.numPlaceIDs();
+		double before = LocalityRenumbering.crossShardFraction(this.columns, numMobileIDs, numPlaceIDs, SHARDS);
+		LocalityRenumbering renumbering = new LocalityRenumbering(this.columns, numMobileIDs, numPlaceIDs);
+		renumbering.apply(this.columns, this.mobileDictionary, this.placeDictionary);
+		this.deviceIndex = new DeviceIndex(this.columns, numMobileIDs);
+		DatasetManifest renumbered = new DatasetManifest(true);
+		for (int i = 0; i < this.columns.size(); i++) {
+			renumbered.accept(this.columns.mobileID(i), this.columns.timeStamp(i), this.columns.placeID(i));
+		}
+		renumbered.finish(numMobileIDs, numPlaceIDs);
+		this.manifest = renumbered;
+		double after = LocalityRenumbering.crossShardFraction(this.columns, numMobileIDs, numPlaceIDs, SHARDS);
+		System.out.println(String.format(
+				"Renumbered for locality: %.1f%% of device-place pairs cross %d shards of codes, down from %.1f%%.",
+				100.0 * after, SHARDS, 100.0 * before));
+		return renumbering;
+	}
+
+	/**
+	 * @return the waypoint columns, with dense mobileIDs and placeIDs
+	 */
+	public WaypointColumns getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return where the rows of each mobileID are in getColumns(); null in
+	 *         streaming mode
+	 */
+	public DeviceIndex getDeviceIndex() {
+		return deviceIndex;
+	}
+
+	/**
+	 * @return statistics of the waypoint file, in terms of the dense codes
+	 */
+	public DatasetManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * @return the dictionary which decodes dense mobileIDs
+	 */
+	public IDDictionary getMobileDictionary() {
+		return mobileDictionary;
+	}
+
+	/**
+	 * @return the dictionary which decodes dense placeIDs
+	 */
+	public IDDictionary getPlaceDictionary() {
+		return placeDictionary;
+	}
+
+	/**
+	 * Dense mobileIDs run from 0 to numMobileIDs() - 1, whatever the order of the
+	 * file.
+	 *
+	 * @return number of distinct mobileIDs
+	 */
+	public int numMobileIDs() {
+		return this.mobileDictionary.size();
+	}
+
+	/**
+	 * @return number of distinct placeIDs
+	 */
+	public int numPlaceIDs() {
+		return this.placeDictionary.size();
+	}
+
+}
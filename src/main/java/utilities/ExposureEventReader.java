@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads back a log written by ExposureEventWriter, one event at a time.
+ */
+public final class ExposureEventReader {
+
+	/**
+	 * Receives each event of the log.
+	 */
+	@FunctionalInterface
+	public interface Visitor {
+		void accept(int target, int source, int place, double targetTime, double sourceTime);
+	}
+
+	private ExposureEventReader() {
+	}
+
+	/**
+	 * @return number of events read
+	 */
+	public static long read(String filename, Visitor visitor) throws IOException {
+		long events = 0;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(ExposureEventWriter.RECORD_BYTES << 14);
+			buffer.limit(2 * Integer.BYTES);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				/* the header may arrive in pieces */
+			}
+			buffer.flip();
+			if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != ExposureEventWriter.MAGIC
+					|| buffer.getInt() != ExposureEventWriter.VERSION) {
+				throw new IOException(filename + " is not an exposure event log");
+			}
+			buffer.clear();
+			boolean end = false;
+			while (!end) {
+				end = channel.read(buffer) < 0;
+				buffer.flip();
+				while (buffer.remaining() >= ExposureEventWriter.RECORD_BYTES) {
+					visitor.accept(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getDouble(),
+							buffer.getDouble());
+					events++;
+				}
+				if (end && buffer.hasRemaining()) {
+					throw new IOException(filename + " ends with a partial event");
+				}
+				buffer.compact();
+			}
+		}
+		return events;
+	}
+
+}
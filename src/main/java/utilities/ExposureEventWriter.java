@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Binary log of exposure events (target, source, place, target time, source
+ * time): the target mobileID had a waypoint at the place and target time,
+ * inside the sojourn of the source beginning at the source time. IDs are the
+ * dense codes.
+ *
+ * The file is an 8 byte header (MAGIC, VERSION) followed by RECORD_BYTES per
+ * event, big-endian. Events are not in any particular order.
+ *
+ * Writing is double buffered: threads computing exposures fill their own
+ * Batch, and hand full batches to the writer, which copies them into the
+ * filling buffer; when that is full, it is written to the FileChannel on a
+ * background thread while the other buffer fills. Computation waits on the disk
+ * only if the disk is slower than the exposures are found.
+ *
+ * A failed write does not interrupt the computation: later batches are
+ * dropped, and close() throws the IOException of the first failure.
+ */
+public final class ExposureEventWriter implements AutoCloseable {
+
+	public static final int MAGIC = 0x45585045; // "EXPE"
+	public static final int VERSION = 1;
+	public static final int RECORD_BYTES = 3 * Integer.BYTES + 2 * Double.BYTES;
+	private static final int BUFFER_BYTES = RECORD_BYTES << 16;
+	private static final int BATCH_BYTES = RECORD_BYTES << 10;
+
+	private final String filename;
+	private final FileChannel channel;
+	private final ExecutorService background;
+	private ByteBuffer filling, writing;
+	private Future<?> pending; // write of the writing buffer, or null
+	private IOException failure; // of the first failed write, thrown by close()
+	private long events;
+
+	/**
+	 * Events of one thread, handed to the writer RECORD_BYTES << 10 bytes at a
+	 * time. Not thread safe.
+	 */
+	public final class Batch {
+		private final ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+
+		public void add(int target, int source, int place, double targetTime, double sourceTime) {
+			if (this.buffer.remaining() < RECORD_BYTES) {
+				this.flush();
+			}
+			this.buffer.putInt(target).putInt(source).putInt(place).putDouble(targetTime).putDouble(sourceTime);
+		}
+
+		/**
+		 * Hands the events added so far to the writer.
+		 */
+		public void flush() {
+			this.buffer.flip();
+			ExposureEventWriter.this.append(this.buffer);
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * @param filename created, or truncated if it exists
+	 */
+	public ExposureEventWriter(String filename) throws IOException {
+		this.filename = filename;
+		this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.background = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "exposure event writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.filling = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		this.writing = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		this.filling.putInt(MAGIC).putInt(VERSION);
+		this.pending = null;
+		this.events = 0;
+	}
+
+	/**
+	 * @return a new buffer for the events of one thread
+	 */
+	public Batch newBatch() {
+		return new Batch();
+	}
+
+	/*
+	 * Copies whole records from the batch into the filling buffer, switching
+	 * buffers as it fills.
+	 */
+	private synchronized void append(ByteBuffer batch) {
+		this.events += batch.remaining() / RECORD_BYTES;
+		while (batch.hasRemaining() && this.failure == null) {
+			if (this.filling.remaining() < RECORD_BYTES) {
+				try {
+					this.switchBuffers();
+				} catch (IOException ex) {
+					this.failure = ex;
+					break;
+				}
+			}
+			int n = Math.min(batch.remaining(), this.filling.remaining() / RECORD_BYTES * RECORD_BYTES);
+			ByteBuffer slice = batch.slice();
+			slice.limit(n);
+			this.filling.put(slice);
+			batch.position(batch.position() + n);
+		}
+	}
+
+	/*
+	 * Waits for the previous write, then writes the filling buffer in the
+	 * background and fills the other one.
+	 */
+	private void switchBuffers() throws IOException {
+		this.awaitPending();
+		ByteBuffer full = this.filling;
+		full.flip();
+		this.pending = this.background.submit(() -> {
+			while (full.hasRemaining()) {
+				this.channel.write(full);
+			}
+			return null;
+		});
+		this.filling = this.writing;
+		this.writing = full;
+		this.filling.clear();
+	}
+
+	/*
+	 * The write is forgotten before it is waited for, so that its failure is
+	 * reported only once
+	 */
+	private void awaitPending() throws IOException {
+		Future<?> write = this.pending;
+		this.pending = null;
+		if (write == null) {
+			return;
+		}
+		try {
+			write.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing " + this.filename);
+		} catch (ExecutionException ex) {
+			throw new IOException("Could not write " + this.filename, ex.getCause());
+		}
+	}
+
+	/**
+	 * Writes the events still buffered, and closes the file. Batches must have
+	 * been flushed. Closing again has no effect.
+	 *
+	 * @throws IOException of the first failed write, if any
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!this.channel.isOpen()) {
+			return;
+		}
+		try {
+			if (this.failure == null) {
+				this.switchBuffers();
+				this.awaitPending();
+			}
+		} finally {
+			this.background.shutdown();
+			this.channel.close();
+		}
+		if (this.failure != null) {
+			IOException failure = this.failure;
+			this.failure = null;
+			throw failure;
+		}
+		System.out.println(this.events + " exposure events written to " + this.filename);
+	}
+
+	/**
+	 * @return number of events handed to the writer so far
+	 */
+	public synchronized long getEventCount() {
+		return events;
+	}
+
+}
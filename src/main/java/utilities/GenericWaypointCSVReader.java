@@ -3,7 +3,6 @@
  */
 package utilities;
 
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -23,27 +22,48 @@ public final class GenericWaypointCSVReader {
 	 */
 	final String csvFile;
 	private List<GenericWaypoint<Integer, Integer>> waypointList;
+	private DatasetManifest manifest; // cached from an earlier run, or built while reading
 
 	public GenericWaypointCSVReader(String filename) {
 		this.csvFile = filename;
-		this.waypointList = new ArrayList<>();
+		this.manifest = DatasetManifest.readCache(filename, false);
+		this.waypointList = (this.manifest == null) ? new ArrayList<>()
+				: new ArrayList<>((int) this.manifest.getWaypointCount());
 		this.readFile();
 	}
 
 	public void readFile() {
+		DatasetManifest building = (this.manifest == null) ? new DatasetManifest(false) : null;
+		boolean complete = true;
 		try {
-			Reader in = new FileReader(this.csvFile);
+			Reader in = WaypointInput.openReader(this.csvFile); // plain or gzip
 			Iterable<CSVRecord> triples = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in);
+			int mobileID, placeID;
+			double timeStamp;
 			for (CSVRecord triple : triples) {
-				this.waypointList.add(new GenericWaypoint<Integer, Integer>(Integer.parseInt(triple.get(0)),
-						Double.parseDouble(triple.get(1)), Integer.parseInt(triple.get(2))));
+				mobileID = Integer.parseInt(triple.get(0));
+				timeStamp = Double.parseDouble(triple.get(1));
+				placeID = Integer.parseInt(triple.get(2));
+				this.waypointList.add(new GenericWaypoint<Integer, Integer>(mobileID, timeStamp, placeID));
+				if (building != null) {
+					building.accept(mobileID, timeStamp, placeID);
+				}
 			}
 			in.close();
 
 		} catch (IOException ex) {
 			System.out.println(ex.toString());
 			System.out.println("Could not find input file.");
+			complete = false;
 		}
+		if (building != null) {
+			building.finish();
+			if (complete) {
+				building.writeCache(this.csvFile, false);
+			}
+			this.manifest = building;
+		}
+		System.out.println(this.manifest.toString());
 		System.out.println("Number of waypoints read: " + this.waypointList.size());
 		System.out.println("First waypoint: " + this.waypointList.get(0).toString());
 	}
@@ -56,14 +76,19 @@ public final class GenericWaypointCSVReader {
 	}
 
 	/**
-	 * Assumes that the waypoint list is sorted by mobileID, which are consecutive
-	 * integers starting at 0.
+	 * @return statistics of the waypoint file
+	 */
+	public DatasetManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Taken from the manifest, so the file need not be sorted by mobileID.
 	 * 
-	 * @return highest numbered mobileID
+	 * @return highest numbered mobileID, plus 1
 	 */
 	public int lastMobileID() {
-		int nwp = this.waypointList.size();
-		return (1 + this.waypointList.get(nwp - 1).mobileID());
+		return (1 + this.manifest.getMaxMobileID());
 	}
 
 }
@@ -0,0 +1,326 @@
+/**
+ * Reads a gzip file with decompression running ahead of the caller, on its own
+ * thread, so that parsing and inflating overlap.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflated bytes are handed over in large buffers, which the reader returns to
+ * a free list once consumed, so no buffer is allocated after start-up.
+ *
+ * If every member of the archive records its compressed size in the header (the
+ * BGZF "BC" extra field, written by bgzip), the members are inflated in
+ * parallel and delivered in order. A plain gzip member has no length field, so
+ * its end is only found by inflating it; such archives, including concatenated
+ * ones, are inflated sequentially on the decompression thread.
+ */
+public final class GzipPipelineInputStream extends InputStream {
+
+	private static final int SEQUENTIAL_BUFFER_SIZE = 1 << 20;
+	private static final int SEQUENTIAL_BUFFERS = 4;
+	private static final int MEMBER_BUFFER_SIZE = 1 << 16; // BGZF members inflate to at most 64 KB
+
+	private record Chunk(byte[] data, int length) {
+	}
+
+	private static final Chunk END = new Chunk(new byte[0], -1);
+
+	private record Member(long offset, int length) {
+	}
+
+	private final File file;
+	private final BlockingQueue<Future<Chunk>> filled; // in file order
+	private final BlockingQueue<byte[]> free;
+	private final Thread producer;
+	private ExecutorService inflaters; // only for parallel members
+	private volatile IOException failure;
+	private Chunk current;
+	private int position;
+
+	public GzipPipelineInputStream(String filename) throws IOException {
+		this.file = new File(filename);
+		if (!this.file.isFile()) {
+			throw new IOException("No such file: " + filename);
+		}
+		this.filled = new LinkedBlockingQueue<>();
+		List<Member> members = indexMembers(this.file);
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (members != null && members.size() > 1 && threads > 1) {
+			this.free = new ArrayBlockingQueue<>(4 * threads);
+			for (int i = 0; i < 4 * threads; i++) {
+				this.free.add(new byte[MEMBER_BUFFER_SIZE]);
+			}
+			this.inflaters = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "gzip-member-inflater");
+				t.setDaemon(true);
+				return t;
+			});
+			this.producer = new Thread(() -> this.scheduleMembers(members), "gzip-member-scheduler");
+		} else {
+			this.free = new ArrayBlockingQueue<>(SEQUENTIAL_BUFFERS);
+			for (int i = 0; i < SEQUENTIAL_BUFFERS; i++) {
+				this.free.add(new byte[SEQUENTIAL_BUFFER_SIZE]);
+			}
+			this.inflaters = null;
+			this.producer = new Thread(this::inflateSequentially, "gzip-inflater");
+		}
+		this.producer.setDaemon(true);
+		this.current = null;
+		this.position = 0;
+		this.producer.start();
+	}
+
+	/*
+	 * Decompression thread for plain gzip: GZIPInputStream reads any number of
+	 * concatenated members.
+	 */
+	private void inflateSequentially() {
+		try (GZIPInputStream gz = new GZIPInputStream(new FileInputStream(this.file), 1 << 16)) {
+			while (true) {
+				byte[] buffer = this.free.take();
+				int n = gz.readNBytes(buffer, 0, buffer.length);
+				if (n > 0) {
+					this.filled.put(CompletableFuture.completedFuture(new Chunk(buffer, n)));
+				}
+				if (n < buffer.length) {
+					break; // readNBytes only falls short at end of stream
+				}
+			}
+		} catch (IOException ex) {
+			this.failure = ex;
+		} catch (InterruptedException ex) {
+			return; // closed by the reader
+		}
+		this.filled.add(CompletableFuture.completedFuture(END));
+	}
+
+	/*
+	 * Submits one inflation task per member, in file order. A buffer is taken from
+	 * the free list before each submission, which bounds the number of members in
+	 * flight.
+	 */
+	private void scheduleMembers(List<Member> members) {
+		try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+			for (Member member : members) {
+				byte[] buffer = this.free.take();
+				this.filled.put(this.inflaters.submit(() -> this.inflateMember(channel, member, buffer)));
+			}
+			this.filled.put(CompletableFuture.completedFuture(END));
+			/*
+			 * The channel must stay open until the last member has been read.
+			 */
+			this.inflaters.shutdown();
+			this.inflaters.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (IOException ex) {
+			this.failure = ex;
+			this.filled.add(CompletableFuture.completedFuture(END));
+		} catch (InterruptedException ex) {
+			return; // closed by the reader
+		}
+	}
+
+	private Chunk inflateMember(FileChannel channel, Member member, byte[] buffer)
+			throws IOException, DataFormatException {
+		byte[] compressed = new byte[member.length()];
+		ByteBuffer bb = ByteBuffer.wrap(compressed);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, member.offset() + bb.position()) < 0) {
+				throw new ZipException("Truncated gzip member at offset " + member.offset());
+			}
+		}
+		int headerLength = headerLength(compressed);
+		int expectedCRC = readIntLE(compressed, compressed.length - 8);
+		int expectedSize = readIntLE(compressed, compressed.length - 4);
+		byte[] out = buffer;
+		if (expectedSize > buffer.length) {
+			out = new byte[expectedSize]; // not a BGZF writer's member; the pooled buffer goes back unused
+			this.free.add(buffer);
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed, headerLength, compressed.length - headerLength - 8);
+			int n = 0;
+			while (!inflater.finished() && n < out.length) {
+				int k = inflater.inflate(out, n, out.length - n);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += k;
+			}
+			if (!inflater.finished() || n != expectedSize) {
+				throw new ZipException("Corrupt gzip member at offset " + member.offset());
+			}
+			CRC32 crc = new CRC32();
+			crc.update(out, 0, n);
+			if ((int) crc.getValue() != expectedCRC) {
+				throw new ZipException("CRC mismatch in gzip member at offset " + member.offset());
+			}
+			return new Chunk(out, n);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return the members of a BGZF archive, or null if any member lacks the
+	 *         compressed size field
+	 */
+	private static List<Member> indexMembers(File file) throws IOException {
+		List<Member> members = new ArrayList<>();
+		byte[] header = new byte[18];
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long offset = 0;
+			while (offset < size) {
+				ByteBuffer bb = ByteBuffer.wrap(header);
+				while (bb.hasRemaining() && channel.read(bb, offset + bb.position()) > 0) {
+				}
+				int blockSize = bgzfBlockSize(header, bb.position());
+				if (blockSize < 0 || offset + blockSize > size) {
+					return null;
+				}
+				members.add(new Member(offset, blockSize));
+				offset += blockSize;
+			}
+		}
+		return members;
+	}
+
+	/*
+	 * Total size of a BGZF member: ID1 ID2 CM FLG(FEXTRA) ... XLEN=6, then the
+	 * subfield 'B' 'C' SLEN=2 BSIZE, where BSIZE is the member size minus 1.
+	 */
+	private static int bgzfBlockSize(byte[] h, int available) {
+		if (available < 18 || (h[0] & 0xff) != 0x1f || (h[1] & 0xff) != 0x8b || h[2] != 8 || (h[3] & 4) == 0) {
+			return -1;
+		}
+		if (readShortLE(h, 10) != 6 || h[12] != 'B' || h[13] != 'C' || readShortLE(h, 14) != 2) {
+			return -1;
+		}
+		return readShortLE(h, 16) + 1;
+	}
+
+	/*
+	 * Length of a gzip member header, honouring the optional fields named by FLG.
+	 */
+	private static int headerLength(byte[] m) throws ZipException {
+		if ((m[0] & 0xff) != 0x1f || (m[1] & 0xff) != 0x8b || m[2] != 8) {
+			throw new ZipException("Not in gzip format");
+		}
+		int flags = m[3];
+		int n = 10;
+		if ((flags & 4) != 0) {
+			n += 2 + readShortLE(m, n);
+		}
+		if ((flags & 8) != 0) {
+			while (m[n++] != 0) {
+			}
+		}
+		if ((flags & 16) != 0) {
+			while (m[n++] != 0) {
+			}
+		}
+		if ((flags & 2) != 0) {
+			n += 2;
+		}
+		return n;
+	}
+
+	private static int readShortLE(byte[] b, int i) {
+		return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8);
+	}
+
+	private static int readIntLE(byte[] b, int i) {
+		return readShortLE(b, i) | (readShortLE(b, i + 2) << 16);
+	}
+
+	/*
+	 * Moves to the next filled chunk, returning the previous one to the free list.
+	 */
+	private boolean advance() throws IOException {
+		if (this.current == END) {
+			return false;
+		}
+		if (this.current != null && this.current.data().length == this.bufferSize()) {
+			this.free.add(this.current.data());
+		}
+		try {
+			this.current = this.filled.take().get();
+		} catch (InterruptedException ex) {
+			throw new InterruptedIOException("Interrupted while waiting for gzip data");
+		} catch (ExecutionException ex) {
+			this.current = END;
+			Throwable cause = ex.getCause();
+			throw (cause instanceof IOException) ? (IOException) cause : new ZipException(cause.toString());
+		}
+		this.position = 0;
+		if (this.current == END && this.failure != null) {
+			throw this.failure;
+		}
+		return this.current != END;
+	}
+
+	private int bufferSize() {
+		return (this.inflaters == null) ? SEQUENTIAL_BUFFER_SIZE : MEMBER_BUFFER_SIZE;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (this.current == null || this.position >= this.current.length()) {
+			if (!this.advance()) {
+				return -1;
+			}
+		}
+		return this.current.data()[this.position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (this.current == null || this.position >= this.current.length()) {
+			if (!this.advance()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, this.current.length() - this.position);
+		System.arraycopy(this.current.data(), this.position, b, off, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public void close() {
+		this.producer.interrupt();
+		if (this.inflaters != null) {
+			this.inflaters.shutdownNow();
+		}
+	}
+
+}
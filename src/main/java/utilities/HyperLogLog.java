@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package utilities;
+
+/**
+ * HyperLogLog sketch for the approximate number of distinct values in a stream.
+ * With 2^precision registers of one byte each, the relative standard error is
+ * about 1.04 / sqrt(2^precision), e.g. 0.8% for precision 14 (16 KB).
+ * Sketches of the same precision can be merged, so they may be filled on
+ * separate threads.
+ */
+public final class HyperLogLog {
+
+	private final int precision;
+	private final byte[] registers;
+
+	public HyperLogLog() {
+		this(14);
+	}
+
+	/**
+	 * @param precision log2 of the number of registers, between 4 and 18
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18");
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Adds one value to the stream. Repeated values do not change the sketch.
+	 */
+	public void offer(long value) {
+		long hash = mix(value);
+		int register = (int) (hash >>> (64 - this.precision));
+		/*
+		 * Rank is the position of the leftmost 1-bit among the remaining bits. The
+		 * sentinel bit caps the rank when those bits are all zero.
+		 */
+		long remaining = (hash << this.precision) | (1L << (this.precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+		if (rank > this.registers[register]) {
+			this.registers[register] = rank;
+		}
+	}
+
+	/**
+	 * @return estimated number of distinct values offered
+	 */
+	public long cardinality() {
+		int m = this.registers.length;
+		double sum = 0.0;
+		int zeros = 0;
+		for (byte r : this.registers) {
+			sum += 1.0 / (double) (1L << r);
+			if (r == 0) {
+				zeros++;
+			}
+		}
+		double alpha = 0.7213 / (1.0 + 1.079 / (double) m);
+		double estimate = alpha * (double) m * (double) m / sum;
+		if (estimate <= 2.5 * (double) m && zeros > 0) {
+			// small range correction: linear counting
+			estimate = (double) m * Math.log((double) m / (double) zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * @return relative standard error of cardinality()
+	 */
+	public double relativeError() {
+		return 1.04 / Math.sqrt((double) this.registers.length);
+	}
+
+	/**
+	 * Union of two sketches: afterwards this sketch estimates the number of
+	 * distinct values offered to either one.
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != this.precision) {
+			throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of different precision");
+		}
+		for (int i = 0; i < this.registers.length; i++) {
+			if (other.registers[i] > this.registers[i]) {
+				this.registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/*
+	 * SplitMix64 finalizer: consecutive integer IDs must be spread over all 64
+	 * bits.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
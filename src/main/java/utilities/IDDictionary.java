@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of external identifiers, such as device hashes or venue
+ * names. Each distinct identifier is assigned a dense integer code, in order of
+ * first appearance, so the codes are exactly 0, 1, ..., size() - 1. Engines can
+ * then index primitive arrays by code, and results are decoded back to the
+ * external identifiers when they are written.
+ */
+public final class IDDictionary {
+
+	private final Map<String, Integer> codes;
+	private final List<String> identifiers; // identifiers.get(code) is the external ID
+
+	public IDDictionary() {
+		this.codes = new HashMap<>();
+		this.identifiers = new ArrayList<>();
+	}
+
+	/**
+	 * @param identifier external ID, as read from file
+	 * @return dense code of the identifier, creating a new one if not yet seen
+	 */
+	public int encode(String identifier) {
+		Integer code = this.codes.get(identifier);
+		if (code == null) {
+			code = Integer.valueOf(this.identifiers.size());
+			this.codes.put(identifier, code);
+			this.identifiers.add(identifier);
+		}
+		return code.intValue();
+	}
+
+	/**
+	 * @param identifier external ID
+	 * @return dense code of the identifier, or -1 if it has never been encoded
+	 */
+	public int codeOf(String identifier) {
+		Integer code = this.codes.get(identifier);
+		return (code == null) ? -1 : code.intValue();
+	}
+
+	/**
+	 * @param code dense code, between 0 and size() - 1
+	 * @return the external ID which was encoded as this code
+	 */
+	public String decode(int code) {
+		return this.identifiers.get(code);
+	}
+
+	/**
+	 * Reassigns the codes, e.g. with LocalityRenumbering, so that each identifier
+	 * decodes from its new code. Identifiers encoded later get the next codes.
+	 *
+	 * @param newCodes a permutation of 0, 1, ..., size() - 1; newCodes[c] is the
+	 *                 new code of the identifier now encoded as c
+	 */
+	public void renumber(int[] newCodes) {
+		String[] renumbered = new String[this.identifiers.size()];
+		for (int c = 0; c < renumbered.length; c++) {
+			renumbered[newCodes[c]] = this.identifiers.get(c);
+		}
+		for (int c = 0; c < renumbered.length; c++) {
+			this.identifiers.set(c, renumbered[c]);
+			this.codes.put(renumbered[c], Integer.valueOf(c));
+		}
+	}
+
+	/**
+	 * @return number of distinct identifiers encoded so far
+	 */
+	public int size() {
+		return this.identifiers.size();
+	}
+
+}
@@ -0,0 +1,280 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * New dense codes for mobileIDs and placeIDs, such that devices and places
+ * often seen together get nearby codes. Codes from the file are in order of
+ * first appearance, unrelated to co-location, so per-place and per-device
+ * lookups jump around memory.
+ *
+ * The waypoints form a bipartite graph of devices and places, with an edge
+ * for each (device, place) visit. A breadth first search numbers the vertices
+ * in order of discovery, alternating between places and devices. Each search
+ * starts from the busiest place not yet numbered. The devices at a place, and
+ * the places they visit, therefore get consecutive codes, as in reverse
+ * Cuthill-McKee ordering of sparse matrices. A search soon spreads over the
+ * whole graph, though, so a few rounds of barycentric refinement follow: each
+ * place is moved to the mean position of its devices, and each device to the
+ * mean position of its places. Groups of devices sharing places then settle
+ * into runs of codes next to the runs of their places. Index arrays keyed by
+ * code are read in runs, and contiguous shards of codes cut fewer edges.
+ *
+ * The old codes are kept for output, see originalMobileID and originalPlaceID;
+ * apply() renumbers the dictionaries as well, so that they decode the new
+ * codes to the external IDs.
+ */
+public final class LocalityRenumbering {
+
+	static final int ROUNDS = 8; // of refinement, after the breadth first order
+
+	private final int[] newMobileIDs, newPlaceIDs; // indexed by old code
+	private final int[] originalMobileIDs, originalPlaceIDs; // indexed by new code
+
+	/**
+	 * @param waypoints    waypoints with the codes of the file
+	 * @param numMobileIDs mobileIDs are 0, 1, ..., numMobileIDs - 1
+	 * @param numPlaces    placeIDs are 0, 1, ..., numPlaces - 1
+	 */
+	public LocalityRenumbering(WaypointColumns waypoints, int numMobileIDs, int numPlaces) {
+		int[][] devicesOf = adjacency(waypoints, waypoints::placeID, waypoints::mobileID, numPlaces, numMobileIDs);
+		int[][] placesOf = adjacency(waypoints, waypoints::mobileID, waypoints::placeID, numMobileIDs, numPlaces);
+		this.newPlaceIDs = new int[numPlaces];
+		this.newMobileIDs = new int[numMobileIDs];
+		Arrays.fill(this.newPlaceIDs, -1);
+		Arrays.fill(this.newMobileIDs, -1);
+		/*
+		 * Queue of vertices: places are v, devices are numPlaces + d. Each vertex is
+		 * queued once, so one array serves every search.
+		 */
+		int[] queue = new int[numPlaces + numMobileIDs];
+		int head = 0, tail = 0, nextPlace = 0, nextDevice = 0;
+		for (int seed : byDecreasingDegree(devicesOf[0], numPlaces)) {
+			if (this.newPlaceIDs[seed] >= 0) {
+				continue;
+			}
+			this.newPlaceIDs[seed] = nextPlace++;
+			queue[tail++] = seed;
+			while (head < tail) {
+				int x = queue[head++];
+				if (x < numPlaces) {
+					for (int j = devicesOf[0][x]; j < devicesOf[0][x + 1]; j++) {
+						int d = devicesOf[1][j];
+						if (this.newMobileIDs[d] < 0) {
+							this.newMobileIDs[d] = nextDevice++;
+							queue[tail++] = numPlaces + d;
+						}
+					}
+				} else {
+					int d = x - numPlaces;
+					for (int j = placesOf[0][d]; j < placesOf[0][d + 1]; j++) {
+						int v = placesOf[1][j];
+						if (this.newPlaceIDs[v] < 0) {
+							this.newPlaceIDs[v] = nextPlace++;
+							queue[tail++] = v;
+						}
+					}
+				}
+			}
+		}
+		/*
+		 * Devices without waypoints, e.g. codes continuing the dictionary of an
+		 * earlier file, keep their relative order at the end
+		 */
+		for (int d = 0; d < numMobileIDs; d++) {
+			if (this.newMobileIDs[d] < 0) {
+				this.newMobileIDs[d] = nextDevice++;
+			}
+		}
+		/*
+		 * Each round moves every place to the mean position of its devices, then
+		 * every device to the mean position of its places, and ranks them again
+		 */
+		for (int round = 0; round < ROUNDS; round++) {
+			rankByMeanPosition(devicesOf, this.newMobileIDs, numMobileIDs, this.newPlaceIDs);
+			rankByMeanPosition(placesOf, this.newPlaceIDs, numPlaces, this.newMobileIDs);
+		}
+		this.originalPlaceIDs = inverse(this.newPlaceIDs);
+		this.originalMobileIDs = inverse(this.newMobileIDs);
+	}
+
+	/*
+	 * Distinct neighbours of each vertex on the key side, in compressed sparse row
+	 * layout: {offsets, neighbours}
+	 */
+	private static int[][] adjacency(WaypointColumns waypoints, IntUnaryOperator key, IntUnaryOperator value,
+			int numKeys, int numValues) {
+		int n = waypoints.size();
+		int[] rowOffsets = new int[numKeys + 1];
+		for (int i = 0; i < n; i++) {
+			rowOffsets[key.applyAsInt(i) + 1]++;
+		}
+		for (int k = 0; k < numKeys; k++) {
+			rowOffsets[k + 1] += rowOffsets[k];
+		}
+		int[] next = Arrays.copyOf(rowOffsets, numKeys);
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[next[key.applyAsInt(i)]++] = value.applyAsInt(i);
+		}
+		/*
+		 * Repeats are dropped in place; the stamp records the last key to keep each
+		 * value
+		 */
+		int[] offsets = new int[numKeys + 1];
+		int[] stamp = new int[numValues];
+		Arrays.fill(stamp, -1);
+		int kept = 0;
+		for (int k = 0; k < numKeys; k++) {
+			for (int j = rowOffsets[k]; j < rowOffsets[k + 1]; j++) {
+				int w = values[j];
+				if (stamp[w] != k) {
+					stamp[w] = k;
+					values[kept++] = w;
+				}
+			}
+			offsets[k + 1] = kept;
+		}
+		return new int[][] { offsets, Arrays.copyOf(values, kept) };
+	}
+
+	/*
+	 * New codes of the vertices on the key side, in order of the mean relative
+	 * position of their neighbours, ties in order of their current codes
+	 */
+	private static void rankByMeanPosition(int[][] adjacency, int[] neighbourCodes, int numNeighbours,
+			int[] codes) {
+		long[] keys = new long[codes.length];
+		for (int k = 0; k < codes.length; k++) {
+			double position = 0.5;
+			if (adjacency[0][k + 1] > adjacency[0][k]) {
+				long sum = 0;
+				for (int j = adjacency[0][k]; j < adjacency[0][k + 1]; j++) {
+					sum += neighbourCodes[adjacency[1][j]];
+				}
+				position = (double) sum / (adjacency[0][k + 1] - adjacency[0][k]) / numNeighbours;
+			}
+			/* position in [0, 1) in the high bits, current code in the low bits */
+			keys[k] = ((long) (position * (1 << 30)) << 32) | codes[k];
+		}
+		Arrays.sort(keys);
+		int[] vertexOf = inverse(codes);
+		for (int r = 0; r < keys.length; r++) {
+			codes[vertexOf[(int) keys[r]]] = r;
+		}
+	}
+
+	/*
+	 * Vertices sorted by decreasing degree, ties in increasing order, with a
+	 * counting sort
+	 */
+	private static int[] byDecreasingDegree(int[] offsets, int numVertices) {
+		int maxDegree = 0;
+		for (int v = 0; v < numVertices; v++) {
+			maxDegree = Math.max(maxDegree, offsets[v + 1] - offsets[v]);
+		}
+		int[] start = new int[maxDegree + 2];
+		for (int v = 0; v < numVertices; v++) {
+			start[maxDegree - (offsets[v + 1] - offsets[v]) + 1]++;
+		}
+		for (int g = 0; g <= maxDegree; g++) {
+			start[g + 1] += start[g];
+		}
+		int[] order = new int[numVertices];
+		for (int v = 0; v < numVertices; v++) {
+			order[start[maxDegree - (offsets[v + 1] - offsets[v])]++] = v;
+		}
+		return order;
+	}
+
+	private static int[] inverse(int[] permutation) {
+		int[] inverse = new int[permutation.length];
+		for (int i = 0; i < permutation.length; i++) {
+			inverse[permutation[i]] = i;
+		}
+		return inverse;
+	}
+
+	/**
+	 * Renumbers the waypoints and the dictionaries, and regroups the rows by new
+	 * mobileID, stably, so that each device's rows stay in file order.
+	 */
+	public void apply(WaypointColumns waypoints, IDDictionary mobileDictionary, IDDictionary placeDictionary) {
+		waypoints.renumber(this.newMobileIDs, this.newPlaceIDs);
+		mobileDictionary.renumber(this.newMobileIDs);
+		placeDictionary.renumber(this.newPlaceIDs);
+		int n = waypoints.size();
+		int[] start = new int[this.newMobileIDs.length + 1];
+		for (int i = 0; i < n; i++) {
+			start[waypoints.mobileID(i) + 1]++;
+		}
+		for (int d = 0; d < this.newMobileIDs.length; d++) {
+			start[d + 1] += start[d];
+		}
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[start[waypoints.mobileID(i)]++] = i;
+		}
+		waypoints.reorder(order);
+	}
+
+	/**
+	 * Fraction of the distinct (device, place) pairs whose device and place fall
+	 * in different shards, when the codes of each are cut into this many
+	 * contiguous ranges of equal length. About 1 - 1 / shards for unrelated codes.
+	 */
+	public static double crossShardFraction(WaypointColumns waypoints, int numMobileIDs, int numPlaces,
+			int shards) {
+		int[][] placesOf = adjacency(waypoints, waypoints::mobileID, waypoints::placeID, numMobileIDs, numPlaces);
+		long crossing = 0;
+		for (int d = 0; d < numMobileIDs; d++) {
+			int deviceShard = (int) ((long) d * shards / numMobileIDs);
+			for (int j = placesOf[0][d]; j < placesOf[0][d + 1]; j++) {
+				if ((int) ((long) placesOf[1][j] * shards / numPlaces) != deviceShard) {
+					crossing++;
+				}
+			}
+		}
+		return (placesOf[1].length == 0) ? 0.0 : (double) crossing / placesOf[1].length;
+	}
+
+	/**
+	 * @return new code of each old mobileID code
+	 */
+	public int[] newMobileIDs() {
+		return this.newMobileIDs.clone();
+	}
+
+	/**
+	 * @return new code of each old placeID code
+	 */
+	public int[] newPlaceIDs() {
+		return this.newPlaceIDs.clone();
+	}
+
+	/**
+	 * @return code of the file of each new placeID code
+	 */
+	public int[] originalPlaceIDs() {
+		return this.originalPlaceIDs.clone();
+	}
+
+	/**
+	 * @return code of the file for this new mobileID code
+	 */
+	public int originalMobileID(int mobileID) {
+		return this.originalMobileIDs[mobileID];
+	}
+
+	/**
+	 * @return code of the file for this new placeID code
+	 */
+	public int originalPlaceID(int placeID) {
+		return this.originalPlaceIDs[placeID];
+	}
+
+}
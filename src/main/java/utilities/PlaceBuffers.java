@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+
+/**
+ * Waypoints bucketed by placeID: for each place, the timestamps and mobileIDs
+ * of the waypoints there, in order of arrival. Places are dense codes, and the
+ * place dimension grows as new codes appear, so rows can be appended while the
+ * file is still being parsed.
+ */
+public final class PlaceBuffers {
+
+	private double[][] times; // times[placeID] has counts[placeID] meaningful entries
+	private int[][] mobileIDs;
+	private int[] counts;
+	private int numPlaces; // highest placeID seen, plus 1
+	private long size;
+
+	public PlaceBuffers() {
+		this(1 << 10);
+	}
+
+	/**
+	 * @param expectedPlaces number of places to allocate before the first resize
+	 */
+	public PlaceBuffers(int expectedPlaces) {
+		int capacity = Math.max(expectedPlaces, 16);
+		this.times = new double[capacity][];
+		this.mobileIDs = new int[capacity][];
+		this.counts = new int[capacity];
+		this.numPlaces = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Appends the waypoint (mobileID, timeStamp, placeID) to the bucket of its
+	 * place.
+	 */
+	public void add(int placeID, double timeStamp, int mobileID) {
+		if (placeID >= this.counts.length) {
+			int capacity = Math.max(placeID + 1, this.counts.length + (this.counts.length >> 1));
+			this.times = Arrays.copyOf(this.times, capacity);
+			this.mobileIDs = Arrays.copyOf(this.mobileIDs, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+		}
+		int n = this.counts[placeID];
+		if (n == 0 && this.times[placeID] == null) {
+			this.times[placeID] = new double[4];
+			this.mobileIDs[placeID] = new int[4];
+		} else if (n == this.times[placeID].length) {
+			this.times[placeID] = Arrays.copyOf(this.times[placeID], n << 1);
+			this.mobileIDs[placeID] = Arrays.copyOf(this.mobileIDs[placeID], n << 1);
+		}
+		this.times[placeID][n] = timeStamp;
+		this.mobileIDs[placeID][n] = mobileID;
+		this.counts[placeID] = n + 1;
+		this.numPlaces = Math.max(this.numPlaces, placeID + 1);
+		this.size++;
+	}
+
+	/**
+	 * Appends every row of a batch.
+	 */
+	public void addAll(WaypointColumns batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			this.add(batch.placeID(i), batch.timeStamp(i), batch.mobileID(i));
+		}
+	}
+
+	/**
+	 * @return highest placeID appended, plus 1
+	 */
+	public int numPlaces() {
+		return this.numPlaces;
+	}
+
+	/**
+	 * @return total number of waypoints appended
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return number of waypoints at this place
+	 */
+	public int count(int placeID) {
+		return (placeID < this.counts.length) ? this.counts[placeID] : 0;
+	}
+
+	/**
+	 * @return backing array of timestamps at this place (only the first
+	 *         count(placeID) are meaningful), or null if there are none
+	 */
+	public double[] times(int placeID) {
+		return (placeID < this.times.length) ? this.times[placeID] : null;
+	}
+
+	/**
+	 * @return backing array of mobileIDs at this place, parallel to times(placeID)
+	 */
+	public int[] mobileIDs(int placeID) {
+		return (placeID < this.mobileIDs.length) ? this.mobileIDs[placeID] : null;
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel least-significant-digit radix sort of waypoint rows by placeID and
+ * then timestamp, on the primitive columns, without comparisons or boxing.
+ *
+ * Timestamps are mapped to longs with the same order (sortableBits), and
+ * sorted first, RADIX_BITS at a time, then placeIDs; since every pass is
+ * stable, the result is ordered by placeID, and by time within a place, with
+ * ties in row order. Digits on which all keys agree are skipped, so a file
+ * spanning a few days of timestamps needs far fewer than 64 bits of passes.
+ *
+ * Each pass splits the rows into chunks: the chunks count their digits in
+ * parallel, the counts give every (digit, chunk) pair its own output range, and
+ * the chunks then scatter their rows in parallel.
+ */
+public final class RadixSort {
+
+	private static final int RADIX_BITS = 11;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int MASK = RADIX - 1;
+	private static final int ROWS_PER_CHUNK = 1 << 16; // below this, a pass runs on one thread
+
+	private RadixSort() {
+	}
+
+	/**
+	 * @return a long whose signed order is the order of the doubles (with -0.0
+	 *         before 0.0, and NaNs last)
+	 */
+	public static long sortableBits(double x) {
+		long bits = Double.doubleToLongBits(x);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return order such that rows order[0], order[1], ... are sorted by placeID
+	 *         and then by timestamp; rows with equal keys keep their order
+	 */
+	public static int[] sortByPlaceAndTime(WaypointColumns waypoints) {
+		int n = waypoints.size();
+		int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(),
+				(n + ROWS_PER_CHUNK - 1) / ROWS_PER_CHUNK));
+		long[] times = new long[n], timesOut = new long[n];
+		int[] places = new int[n], placesOut = new int[n];
+		int[] order = new int[n], orderOut = new int[n];
+		initialize(waypoints, times, places, order, chunks);
+		long varyingTimeBits = 0;
+		int varyingPlaceBits = 0;
+		for (int i = 1; i < n; i++) {
+			varyingTimeBits |= times[i] ^ times[0];
+			varyingPlaceBits |= places[i] ^ places[0];
+		}
+		int[][] counts = new int[chunks][RADIX];
+		for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+			if (((varyingTimeBits >>> shift) & MASK) == 0) {
+				continue;
+			}
+			timePass(times, timesOut, places, placesOut, order, orderOut, shift, counts);
+			long[] t = times;
+			times = timesOut;
+			timesOut = t;
+			int[] p = places;
+			places = placesOut;
+			placesOut = p;
+			int[] o = order;
+			order = orderOut;
+			orderOut = o;
+		}
+		for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS) {
+			if (((varyingPlaceBits >>> shift) & MASK) == 0) {
+				continue;
+			}
+			placePass(places, placesOut, order, orderOut, shift, counts);
+			int[] p = places;
+			places = placesOut;
+			placesOut = p;
+			int[] o = order;
+			order = orderOut;
+			orderOut = o;
+		}
+		return order;
+	}
+
+	private static void initialize(WaypointColumns waypoints, long[] times, int[] places, int[] order, int chunks) {
+		int n = times.length;
+		double[] timeColumn = waypoints.timeStampColumn();
+		int[] placeColumn = waypoints.placeIDColumn();
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			for (int i = chunkStart(c, chunks, n); i < chunkStart(c + 1, chunks, n); i++) {
+				/* flip the sign bit too, so that unsigned digits follow the signed order */
+				times[i] = sortableBits(timeColumn[i]) ^ Long.MIN_VALUE;
+				places[i] = placeColumn[i];
+				order[i] = i;
+			}
+		});
+	}
+
+	/*
+	 * One stable pass on digit (times >>> shift) & MASK, moving places and order
+	 * along with the keys
+	 */
+	private static void timePass(long[] times, long[] timesOut, int[] places, int[] placesOut, int[] order,
+			int[] orderOut, int shift, int[][] counts) {
+		int n = times.length, chunks = counts.length;
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int[] count = counts[c];
+			Arrays.fill(count, 0);
+			for (int i = chunkStart(c, chunks, n); i < chunkStart(c + 1, chunks, n); i++) {
+				count[(int) (times[i] >>> shift) & MASK]++;
+			}
+		});
+		toOffsets(counts);
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int[] next = counts[c];
+			for (int i = chunkStart(c, chunks, n); i < chunkStart(c + 1, chunks, n); i++) {
+				int j = next[(int) (times[i] >>> shift) & MASK]++;
+				timesOut[j] = times[i];
+				placesOut[j] = places[i];
+				orderOut[j] = order[i];
+			}
+		});
+	}
+
+	/*
+	 * One stable pass on digit (places >>> shift) & MASK, moving order along
+	 */
+	private static void placePass(int[] places, int[] placesOut, int[] order, int[] orderOut, int shift,
+			int[][] counts) {
+		int n = places.length, chunks = counts.length;
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int[] count = counts[c];
+			Arrays.fill(count, 0);
+			for (int i = chunkStart(c, chunks, n); i < chunkStart(c + 1, chunks, n); i++) {
+				count[(places[i] >>> shift) & MASK]++;
+			}
+		});
+		toOffsets(counts);
+		IntStream.range(0, chunks).parallel().forEach(c -> {
+			int[] next = counts[c];
+			for (int i = chunkStart(c, chunks, n); i < chunkStart(c + 1, chunks, n); i++) {
+				int j = next[(places[i] >>> shift) & MASK]++;
+				placesOut[j] = places[i];
+				orderOut[j] = order[i];
+			}
+		});
+	}
+
+	/*
+	 * Replaces the count of each (chunk, digit) by the first output position of
+	 * its rows: digits in order, and within a digit, chunks in order.
+	 */
+	private static void toOffsets(int[][] counts) {
+		int position = 0;
+		for (int digit = 0; digit < RADIX; digit++) {
+			for (int[] count : counts) {
+				int k = count[digit];
+				count[digit] = position;
+				position += k;
+			}
+		}
+	}
+
+	private static int chunkStart(int c, int chunks, int n) {
+		return (int) ((long) n * c / chunks);
+	}
+
+}
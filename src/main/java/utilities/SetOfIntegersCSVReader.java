@@ -0,0 +1,73 @@
+/**
+ * Reads back a CSV file written by SetOfIntegersCSVWriter, such as
+ * (1) list of source mobileIDs
+ * (2) list of target mobileIDs, infected by the sources
+ */
+package utilities;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+
+public class SetOfIntegersCSVReader {
+
+	IDDictionary dictionary; // null if the integers were written as they are
+
+	/**
+	 * For files of integers written as they are; other IDs are skipped and
+	 * reported, since they can only be read with the dictionary of their
+	 * waypoint file.
+	 */
+	public SetOfIntegersCSVReader() {
+		this.dictionary = null;
+	}
+
+	/**
+	 * @param dictionary encodes each external ID back to its dense code; IDs not
+	 *                   in the dictionary are skipped
+	 */
+	public SetOfIntegersCSVReader(IDDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * @param filename including the ".csv" extension
+	 * @return the elements, or an empty set if the file cannot be read
+	 */
+	public SortedSet<Integer> readElements(String filename) {
+		SortedSet<Integer> set = new TreeSet<>();
+		int unknown = 0, notIntegers = 0;
+		try (Reader in = WaypointInput.openReader(filename)) {
+			for (CSVRecord record : CSVFormat.DEFAULT.parse(in)) {
+				String id = record.get(0).trim();
+				if (this.dictionary == null) {
+					try {
+						set.add(Integer.valueOf(id));
+					} catch (NumberFormatException ex) {
+						notIntegers++;
+					}
+				} else if (this.dictionary.codeOf(id) >= 0) {
+					set.add(Integer.valueOf(this.dictionary.codeOf(id)));
+				} else {
+					unknown++;
+				}
+			}
+		} catch (IOException ex) {
+			System.out.println(ex.toString());
+			System.out.println("Could not read " + filename);
+		}
+		if (unknown > 0) {
+			System.out.println(unknown + " IDs of " + filename + " are not in the waypoint file, and were skipped.");
+		}
+		if (notIntegers > 0) {
+			System.out.println(notIntegers + " IDs of " + filename + " are not integers, and were skipped;"
+					+ " read the file with the dictionary of its waypoint file.");
+		}
+		return set;
+	}
+
+}
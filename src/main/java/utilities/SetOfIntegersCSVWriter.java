@@ -22,16 +22,31 @@ import org.apache.commons.csv.CSVPrinter;
 public class SetOfIntegersCSVWriter {
 
 	SortedSet<Integer> set;
+	IDDictionary dictionary; // null if the integers are written as they are
 
 	public SetOfIntegersCSVWriter(SortedSet<Integer> mySet) {
 		this.set = mySet;
+		this.dictionary = null;
+	}
+
+	/**
+	 * @param mySet      dense codes, produced by EncodedWaypointCSVReader
+	 * @param dictionary decodes each element back to its external ID on output
+	 */
+	public SetOfIntegersCSVWriter(SortedSet<Integer> mySet, IDDictionary dictionary) {
+		this.set = mySet;
+		this.dictionary = dictionary;
 	}
 
 	public void writeElements(String filename) {
 		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filename + ".csv"));
 				CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT);) {
 			for (Integer k : this.set) {
-					csvPrinter.printRecord(Integer.valueOf(k));				
+				if (this.dictionary == null) {
+					csvPrinter.printRecord(Integer.valueOf(k));
+				} else {
+					csvPrinter.printRecord(this.dictionary.decode(k.intValue()));
+				}
 			}
 			csvPrinter.flush();
 			writer.flush();
@@ -0,0 +1,314 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Primitive form of the map from placeID to the list of source Sojourns there.
+ * The sojourn start times at each place are stored contiguously and sorted, so
+ * the sojourns [t, t + width) containing a timestamp s are found by binary
+ * search rather than by scanning the whole list. The source mobileID of each
+ * sojourn is kept alongside, for attribution.
+ */
+public final class SojournIndex {
+
+	private final double width;
+	private final int[] offsets; // sojourns at place v are entries offsets[v] .. offsets[v+1]-1
+	private final double[] startTimes;
+	private final int[] sourceIDs;
+
+	/**
+	 * Builds the index from source waypoints already bucketed by place.
+	 *
+	 * @param sources waypoints of source mobileIDs
+	 * @param width   sojourn width, in days
+	 */
+	public SojournIndex(PlaceBuffers sources, double width) {
+		this.width = width;
+		int numPlaces = sources.numPlaces();
+		this.offsets = new int[numPlaces + 1];
+		for (int v = 0; v < numPlaces; v++) {
+			this.offsets[v + 1] = this.offsets[v] + sources.count(v);
+		}
+		this.startTimes = new double[this.offsets[numPlaces]];
+		this.sourceIDs = new int[this.offsets[numPlaces]];
+		for (int v = 0; v < numPlaces; v++) {
+			int n = sources.count(v);
+			if (n > 0) {
+				System.arraycopy(sources.times(v), 0, this.startTimes, this.offsets[v], n);
+				System.arraycopy(sources.mobileIDs(v), 0, this.sourceIDs, this.offsets[v], n);
+				sortByTime(this.startTimes, this.sourceIDs, this.offsets[v], this.offsets[v + 1] - 1);
+			}
+		}
+	}
+
+	/**
+	 * Builds the index from the waypoints of the mobileIDs accepted by isSource.
+	 *
+	 * @param numPlaces number of dense placeIDs
+	 */
+	public SojournIndex(WaypointColumns waypoints, IntPredicate isSource, double width, int numPlaces) {
+		this(bucketSources(waypoints, isSource, numPlaces), width);
+	}
+
+	/**
+	 * Builds the index from the rows of the sources only, found with the device
+	 * index, without scanning the other waypoints.
+	 *
+	 * @param sources dense codes of the source mobileIDs
+	 */
+	public SojournIndex(WaypointColumns waypoints, DeviceIndex devices, int[] sources, double width,
+			int numPlaces) {
+		this(bucketSources(waypoints, devices, sources, numPlaces), width);
+	}
+
+	private static PlaceBuffers bucketSources(WaypointColumns waypoints, DeviceIndex devices, int[] sources,
+			int numPlaces) {
+		PlaceBuffers buffers = new PlaceBuffers(numPlaces);
+		for (int d : sources) {
+			for (int r = devices.start(d); r < devices.end(d); r++) {
+				int row = devices.row(r);
+				buffers.add(waypoints.placeID(row), waypoints.timeStamp(row), d);
+			}
+		}
+		return buffers;
+	}
+
+	/**
+	 * Builds the index from compressed waypoints, decoding one block at a time.
+	 */
+	public SojournIndex(CompressedWaypointStore waypoints, IntPredicate isSource, double width, int numPlaces) {
+		this(bucketSources(waypoints, isSource, numPlaces), width);
+	}
+
+	private static PlaceBuffers bucketSources(CompressedWaypointStore waypoints, IntPredicate isSource,
+			int numPlaces) {
+		PlaceBuffers buffers = new PlaceBuffers(numPlaces);
+		waypoints.scan(null, block -> {
+			for (int i = 0; i < block.size; i++) {
+				if (isSource.test(block.mobileIDs[i])) {
+					buffers.add(block.placeIDs[i], block.timeStamps[i], block.mobileIDs[i]);
+				}
+			}
+		});
+		return buffers;
+	}
+
+	private static PlaceBuffers bucketSources(WaypointColumns waypoints, IntPredicate isSource, int numPlaces) {
+		PlaceBuffers buffers = new PlaceBuffers(numPlaces);
+		for (int i = 0; i < waypoints.size(); i++) {
+			if (isSource.test(waypoints.mobileID(i))) {
+				buffers.add(waypoints.placeID(i), waypoints.timeStamp(i), waypoints.mobileID(i));
+			}
+		}
+		return buffers;
+	}
+
+	/**
+	 * Raw constructor, e.g. for an index read back from disk. The start times of
+	 * each place must already be sorted.
+	 */
+	public SojournIndex(double width, int[] offsets, double[] startTimes, int[] sourceIDs) {
+		this.width = width;
+		this.offsets = offsets;
+		this.startTimes = startTimes;
+		this.sourceIDs = sourceIDs;
+	}
+
+	/**
+	 * @return true if some source visited this place
+	 */
+	public boolean hasSojourns(int placeID) {
+		return placeID < this.offsets.length - 1 && this.offsets[placeID + 1] > this.offsets[placeID];
+	}
+
+	/**
+	 * @return number of sojourns [t, t + width) at this place which contain s
+	 */
+	public int countContaining(int placeID, double s) {
+		if (!this.hasSojourns(placeID)) {
+			return 0;
+		}
+		return this.endContaining(placeID, s) - this.firstContaining(placeID, s);
+	}
+
+	/**
+	 * Sojourns at a place which contain s form a contiguous run of the sorted start
+	 * times: those with s - width < t <= s.
+	 *
+	 * @return index of the first sojourn containing s (an index into
+	 *         startTime/sourceID)
+	 */
+	public int firstContaining(int placeID, double s) {
+		int lo = this.offsets[placeID], hi = this.offsets[placeID + 1];
+		while (lo < hi) { // first t with t + width > s, i.e. Sojourn.contains
+			int mid = (lo + hi) >>> 1;
+			if (this.startTimes[mid] + this.width > s) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return one past the index of the last sojourn containing s
+	 */
+	public int endContaining(int placeID, double s) {
+		int lo = this.offsets[placeID], hi = this.offsets[placeID + 1];
+		while (lo < hi) { // first t with t > s
+			int mid = (lo + hi) >>> 1;
+			if (this.startTimes[mid] > s) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return index of the first sojourn at this place starting at or after s
+	 */
+	public int firstStartingFrom(int placeID, double s) {
+		int lo = this.offsets[placeID], hi = this.offsets[placeID + 1];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.startTimes[mid] >= s) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	public double startTime(int index) {
+		return this.startTimes[index];
+	}
+
+	public int sourceID(int index) {
+		return this.sourceIDs[index];
+	}
+
+	/**
+	 * @return number of places covered (sources visited some of them)
+	 */
+	public int numPlaces() {
+		return this.offsets.length - 1;
+	}
+
+	/**
+	 * @return number of sojourns at this place
+	 */
+	public int count(int placeID) {
+		return (placeID < this.offsets.length - 1) ? this.offsets[placeID + 1] - this.offsets[placeID] : 0;
+	}
+
+	/**
+	 * @return total number of sojourns, i.e. source waypoints
+	 */
+	public int size() {
+		return this.startTimes.length;
+	}
+
+	public double getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return backing array of offsets. Must not be modified.
+	 */
+	public int[] offsets() {
+		return this.offsets;
+	}
+
+	/**
+	 * @return backing array of sorted start times. Must not be modified.
+	 */
+	public double[] startTimes() {
+		return this.startTimes;
+	}
+
+	/**
+	 * @return backing array of source mobileIDs. Must not be modified.
+	 */
+	public int[] sourceIDs() {
+		return this.sourceIDs;
+	}
+
+	/**
+	 * @return boxed copy, keyed by placeID, in the form used by
+	 *         PlaceDependentContactMaker
+	 */
+	public Map<Integer, List<Sojourn>> toMap() {
+		Map<Integer, List<Sojourn>> map = new HashMap<>();
+		for (int v = 0; v < this.numPlaces(); v++) {
+			if (this.hasSojourns(v)) {
+				List<Sojourn> sojourns = new ArrayList<>(this.count(v));
+				for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++) {
+					sojourns.add(new Sojourn(this.startTimes[i], this.startTimes[i] + this.width));
+				}
+				map.put(Integer.valueOf(v), sojourns);
+			}
+		}
+		return map;
+	}
+
+	/*
+	 * Sorts keys[lo..hi] ascending, permuting values alongside. Insertion sort for
+	 * short runs, which are the usual case at a single place.
+	 */
+	static void sortByTime(double[] keys, int[] values, int lo, int hi) {
+		while (hi - lo > 16) {
+			double pivot = keys[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double k = keys[i];
+					keys[i] = keys[j];
+					keys[j] = k;
+					int v = values[i];
+					values[i] = values[j];
+					values[j] = v;
+					i++;
+					j--;
+				}
+			}
+			// recurse into the smaller part, loop on the larger
+			if (j - lo < hi - i) {
+				sortByTime(keys, values, lo, j);
+				lo = i;
+			} else {
+				sortByTime(keys, values, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			double k = keys[i];
+			int v = values[i];
+			int j = i - 1;
+			while (j >= lo && keys[j] > k) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			keys[j + 1] = k;
+			values[j + 1] = v;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package utilities;
+
+/**
+ * Waypoints partitioned by time into segments of equal span (e.g. one day),
+ * each with its own place index: within a segment, the waypoints at each place
+ * are contiguous and sorted by time. A query restricted to a time Window reads
+ * only the segments overlapping it, so its cost is proportional to the length
+ * of the window rather than of the whole dataset.
+ */
+public final class TimeSegments {
+
+	private final double span, origin;
+	private final SojournIndex[] segments; // sourceID(i) is the mobileID of waypoint i
+	private final long size;
+
+	/**
+	 * @param waypoints all waypoints, with dense placeIDs
+	 * @param numPlaces placeIDs are 0, 1, ..., numPlaces - 1
+	 * @param span      length of each segment, in days
+	 */
+	public TimeSegments(WaypointColumns waypoints, int numPlaces, double span) {
+		this.span = span;
+		this.size = waypoints.size();
+		double minTime = Double.POSITIVE_INFINITY, maxTime = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < waypoints.size(); i++) {
+			minTime = Math.min(minTime, waypoints.timeStamp(i));
+			maxTime = Math.max(maxTime, waypoints.timeStamp(i));
+		}
+		this.origin = (waypoints.size() > 0) ? Math.floor(minTime / span) * span : 0.0;
+		int numSegments = (waypoints.size() > 0) ? (int) Math.floor((maxTime - this.origin) / span) + 1 : 0;
+		/*
+		 * Radix sort of the rows by place and time, then a stable counting sort by
+		 * segment, which keeps each segment in place and time order.
+		 */
+		int[] order = RadixSort.sortByPlaceAndTime(waypoints);
+		int[] segmentOffsets = new int[numSegments + 1];
+		int[] segmentOfRow = new int[waypoints.size()];
+		for (int i = 0; i < waypoints.size(); i++) {
+			segmentOfRow[i] = this.segmentOf(waypoints.timeStamp(i), numSegments);
+			segmentOffsets[segmentOfRow[i] + 1]++;
+		}
+		for (int k = 0; k < numSegments; k++) {
+			segmentOffsets[k + 1] += segmentOffsets[k];
+		}
+		int[] rows = new int[waypoints.size()];
+		int[] next = new int[numSegments];
+		System.arraycopy(segmentOffsets, 0, next, 0, numSegments);
+		for (int i : order) {
+			rows[next[segmentOfRow[i]]++] = i;
+		}
+		this.segments = new SojournIndex[numSegments];
+		for (int k = 0; k < numSegments; k++) {
+			int[] offsets = new int[numPlaces + 1];
+			for (int r = segmentOffsets[k]; r < segmentOffsets[k + 1]; r++) {
+				offsets[waypoints.placeID(rows[r]) + 1]++;
+			}
+			for (int v = 0; v < numPlaces; v++) {
+				offsets[v + 1] += offsets[v];
+			}
+			int n = segmentOffsets[k + 1] - segmentOffsets[k];
+			double[] times = new double[n];
+			int[] mobileIDs = new int[n];
+			for (int r = segmentOffsets[k]; r < segmentOffsets[k + 1]; r++) {
+				times[r - segmentOffsets[k]] = waypoints.timeStamp(rows[r]);
+				mobileIDs[r - segmentOffsets[k]] = waypoints.mobileID(rows[r]);
+			}
+			this.segments[k] = new SojournIndex(span, offsets, times, mobileIDs);
+		}
+		System.out.println(this.size + " waypoints partitioned into " + numSegments + " segments of " + span
+				+ " days.");
+	}
+
+	private int segmentOf(double t, int numSegments) {
+		int k = (int) Math.floor((t - this.origin) / this.span);
+		return Math.max(0, Math.min(k, numSegments - 1));
+	}
+
+	/**
+	 * @return the segment containing time t; times outside the data are clamped
+	 *         to the first or last segment
+	 */
+	public int segmentOf(double t) {
+		return this.segmentOf(t, this.segments.length);
+	}
+
+	/**
+	 * @return first segment overlapping the window
+	 */
+	public int firstSegment(Window window) {
+		return this.segmentOf(window.startTime());
+	}
+
+	/**
+	 * @return last segment overlapping the window
+	 */
+	public int lastSegment(Window window) {
+		return this.segmentOf(Math.nextDown(window.endTime()));
+	}
+
+	/**
+	 * @return the time window covered by segment k
+	 */
+	public Window window(int k) {
+		return new Window(this.origin + k * this.span, this.origin + (k + 1) * this.span);
+	}
+
+	/**
+	 * @return waypoints of segment k, by place and time; sourceID(i) is the
+	 *         mobileID of the i-th
+	 */
+	public SojournIndex segment(int k) {
+		return this.segments[k];
+	}
+
+	/**
+	 * @return index of the first waypoint at place v in segment k with time >= s
+	 */
+	public int lowerBound(int k, int v, double s) {
+		double[] times = this.segments[k].startTimes();
+		int lo = this.segments[k].offsets()[v], hi = this.segments[k].offsets()[v + 1];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (times[mid] >= s) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	public int numSegments() {
+		return this.segments.length;
+	}
+
+	public double getSpan() {
+		return span;
+	}
+
+	public double getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return total number of waypoints
+	 */
+	public long size() {
+		return this.size;
+	}
+
+}
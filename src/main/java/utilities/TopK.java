@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+
+/**
+ * The k ids with the largest counts among those offered, kept in a bounded
+ * min-heap: memory is O(k) however many ids are offered, and each offer costs
+ * O(log k) at most. Between equal counts, the smaller id is preferred, so the
+ * result does not depend on the order of the offers.
+ */
+public final class TopK {
+
+	private final int[] ids;
+	private final long[] counts;
+	private int size; // heap[0] is the worst of the k kept
+
+	/**
+	 * @param k number of ids to keep
+	 */
+	public TopK(int k) {
+		this.ids = new int[Math.max(k, 0)];
+		this.counts = new long[Math.max(k, 0)];
+		this.size = 0;
+	}
+
+	public void offer(int id, long count) {
+		if (this.size < this.ids.length) {
+			int i = this.size++;
+			this.ids[i] = id;
+			this.counts[i] = count;
+			this.siftUp(i);
+		} else if (this.size > 0 && worse(this.ids[0], this.counts[0], id, count)) {
+			this.ids[0] = id;
+			this.counts[0] = count;
+			this.siftDown(0);
+		}
+	}
+
+	/*
+	 * True if (a, countA) ranks below (b, countB)
+	 */
+	private static boolean worse(int a, long countA, int b, long countB) {
+		return countA < countB || (countA == countB && a > b);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(this.ids[i], this.counts[i], this.ids[parent], this.counts[parent])) {
+				return;
+			}
+			this.swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.size) {
+				return;
+			}
+			if (child + 1 < this.size
+					&& worse(this.ids[child + 1], this.counts[child + 1], this.ids[child], this.counts[child])) {
+				child++;
+			}
+			if (!worse(this.ids[child], this.counts[child], this.ids[i], this.counts[i])) {
+				return;
+			}
+			this.swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = this.ids[i];
+		this.ids[i] = this.ids[j];
+		this.ids[j] = id;
+		long count = this.counts[i];
+		this.counts[i] = this.counts[j];
+		this.counts[j] = count;
+	}
+
+	/**
+	 * @return positions of the heap, best first
+	 */
+	private int[] ranking() {
+		Integer[] positions = new Integer[this.size];
+		for (int i = 0; i < this.size; i++) {
+			positions[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(positions, (i, j) -> worse(this.ids[i], this.counts[i], this.ids[j], this.counts[j]) ? 1
+				: worse(this.ids[j], this.counts[j], this.ids[i], this.counts[i]) ? -1 : 0);
+		int[] ranking = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			ranking[i] = positions[i].intValue();
+		}
+		return ranking;
+	}
+
+	/**
+	 * @return the ids kept, by decreasing count
+	 */
+	public int[] ids() {
+		int[] ranking = this.ranking();
+		int[] result = new int[ranking.length];
+		for (int i = 0; i < ranking.length; i++) {
+			result[i] = this.ids[ranking[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * @return the counts of ids(), in the same order
+	 */
+	public long[] counts() {
+		int[] ranking = this.ranking();
+		long[] result = new long[ranking.length];
+		for (int i = 0; i < ranking.length; i++) {
+			result[i] = this.counts[ranking[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of ids kept, at most k
+	 */
+	public int size() {
+		return this.size;
+	}
+
+}
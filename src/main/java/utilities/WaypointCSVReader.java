@@ -3,7 +3,6 @@
  */
 package utilities;
 
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -32,7 +31,7 @@ public final class WaypointCSVReader {
 
 	public void readFile() {
 		try {
-			Reader in = new FileReader(this.csvFile);
+			Reader in = WaypointInput.openReader(this.csvFile); // plain or gzip
 			Iterable<CSVRecord> triples = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in);
 			for (CSVRecord triple : triples) {
 				this.waypointList.add(new Waypoint(Integer.parseInt(triple.get(0)), Double.parseDouble(triple.get(1)),
@@ -0,0 +1,153 @@
+/**
+ *
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column-oriented storage of waypoints, with mobileID and placeID held as dense
+ * int codes (see IDDictionary). Row i is the waypoint (mobileID(i),
+ * timeStamp(i), placeID(i)). Costs 16 bytes per waypoint, with no boxing.
+ */
+public final class WaypointColumns {
+
+	private int[] mobileIDs;
+	private double[] timeStamps;
+	private int[] placeIDs;
+	private int size;
+
+	public WaypointColumns() {
+		this(1 << 10);
+	}
+
+	/**
+	 * @param initialCapacity number of rows to allocate before the first resize
+	 */
+	public WaypointColumns(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 16);
+		this.mobileIDs = new int[capacity];
+		this.timeStamps = new double[capacity];
+		this.placeIDs = new int[capacity];
+		this.size = 0;
+	}
+
+	/**
+	 * Appends one row, growing the columns when necessary.
+	 */
+	public void add(int mobileID, double timeStamp, int placeID) {
+		if (this.size == this.mobileIDs.length) {
+			int capacity = Math.max(16, this.size + (this.size >> 1)); // trimmed columns may hold 0 or 1 rows
+			this.mobileIDs = Arrays.copyOf(this.mobileIDs, capacity);
+			this.timeStamps = Arrays.copyOf(this.timeStamps, capacity);
+			this.placeIDs = Arrays.copyOf(this.placeIDs, capacity);
+		}
+		this.mobileIDs[this.size] = mobileID;
+		this.timeStamps[this.size] = timeStamp;
+		this.placeIDs[this.size] = placeID;
+		this.size++;
+	}
+
+	/**
+	 * Releases unused capacity, once loading is complete.
+	 */
+	public void trimToSize() {
+		if (this.mobileIDs.length == this.size) {
+			return; // presized from a manifest
+		}
+		this.mobileIDs = Arrays.copyOf(this.mobileIDs, this.size);
+		this.timeStamps = Arrays.copyOf(this.timeStamps, this.size);
+		this.placeIDs = Arrays.copyOf(this.placeIDs, this.size);
+	}
+
+	/**
+	 * Reorders the rows, e.g. with RadixSort.sortByPlaceAndTime, into new columns
+	 * which replace the old ones; the memory of the columns is briefly doubled.
+	 *
+	 * @param order a permutation of 0, 1, ..., size() - 1; row i becomes the
+	 *              former row order[i]
+	 */
+	public void reorder(int[] order) {
+		int[] mobileIDs = new int[this.size];
+		double[] timeStamps = new double[this.size];
+		int[] placeIDs = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			mobileIDs[i] = this.mobileIDs[order[i]];
+			timeStamps[i] = this.timeStamps[order[i]];
+			placeIDs[i] = this.placeIDs[order[i]];
+		}
+		this.mobileIDs = mobileIDs;
+		this.timeStamps = timeStamps;
+		this.placeIDs = placeIDs;
+	}
+
+	/**
+	 * Replaces the codes in place, e.g. with LocalityRenumbering.
+	 *
+	 * @param newMobileIDs new code of each mobileID code
+	 * @param newPlaceIDs  new code of each placeID code
+	 */
+	public void renumber(int[] newMobileIDs, int[] newPlaceIDs) {
+		for (int i = 0; i < this.size; i++) {
+			this.mobileIDs[i] = newMobileIDs[this.mobileIDs[i]];
+			this.placeIDs[i] = newPlaceIDs[this.placeIDs[i]];
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int mobileID(int row) {
+		return this.mobileIDs[row];
+	}
+
+	public double timeStamp(int row) {
+		return this.timeStamps[row];
+	}
+
+	public int placeID(int row) {
+		return this.placeIDs[row];
+	}
+
+	/**
+	 * @return backing array of the mobileID column; only the first size() entries
+	 *         are meaningful. Must not be modified.
+	 */
+	public int[] mobileIDColumn() {
+		return this.mobileIDs;
+	}
+
+	/**
+	 * @return backing array of the timeStamp column; only the first size()
+	 *         entries are meaningful. Must not be modified.
+	 */
+	public double[] timeStampColumn() {
+		return this.timeStamps;
+	}
+
+	/**
+	 * @return backing array of the placeID column; only the first size() entries
+	 *         are meaningful. Must not be modified.
+	 */
+	public int[] placeIDColumn() {
+		return this.placeIDs;
+	}
+
+	/**
+	 * Boxed copy of the columns, for the Map-based contact makers.
+	 *
+	 * @return list of waypoints whose mobileID and placeID are the dense codes
+	 */
+	public List<GenericWaypoint<Integer, Integer>> toGenericWaypointList() {
+		List<GenericWaypoint<Integer, Integer>> waypoints = new ArrayList<>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			waypoints.add(new GenericWaypoint<Integer, Integer>(Integer.valueOf(this.mobileIDs[i]),
+					this.timeStamps[i], Integer.valueOf(this.placeIDs[i])));
+		}
+		return waypoints;
+	}
+
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package utilities;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Opens a waypoint file for the CSV readers. Files ending in ".gz" are inflated
+ * on the fly, on a separate thread, so they need not be decompressed to disk
+ * first.
+ */
+public final class WaypointInput {
+
+	private static final int READER_BUFFER_SIZE = 1 << 16;
+
+	private WaypointInput() {
+	}
+
+	/**
+	 * @param filename waypoint CSV file, optionally gzip compressed
+	 * @return buffered reader over the (decompressed) text
+	 */
+	public static Reader openReader(String filename) throws IOException {
+		if (isCompressed(filename)) {
+			return new BufferedReader(
+					new InputStreamReader(new GzipPipelineInputStream(filename), StandardCharsets.UTF_8),
+					READER_BUFFER_SIZE);
+		}
+		return new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8),
+				READER_BUFFER_SIZE);
+	}
+
+	/**
+	 * @return true if the file name ends in ".gz"
+	 */
+	public static boolean isCompressed(String filename) {
+		return filename.toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * @return the file name without ".gz" (if present) and without the extension
+	 *         before it, e.g. "waypoints.csv.gz" becomes "waypoints"
+	 */
+	public static String baseName(String filename) {
+		String name = isCompressed(filename) ? filename.substring(0, filename.length() - 3) : filename;
+		int dot = name.lastIndexOf('.');
+		int separator = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+		return (dot > separator) ? name.substring(0, dot) : name;
+	}
+
+}
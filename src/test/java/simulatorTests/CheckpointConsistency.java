@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package simulatorTests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import simulators.Checkpoint;
+import simulators.ConstantRateModel;
+import simulators.ContactEngine;
+import simulators.InfectionModel;
+import simulators.PlaceDependentRateModel;
+import utilities.EncodedWaypointCSVReader;
+import utilities.IDDictionary;
+
+/**
+ * Runs ContactEngine with a checkpoint to the end, then resumes from a copy of
+ * the checkpoint cut after each phase in turn, as if the run had stopped there.
+ * Sources, exposure lists and infected mobileIDs of every resumed run must agree
+ * exactly with those of the uninterrupted run, by external ID. Resuming after
+ * SOJOURNS is checked with plain and with compressed waypoints.
+ */
+public class CheckpointConsistency {
+
+	static final double WIDTH = 1.0 / 48.0;
+	static final double P = 0.1;
+	static final long SEED = 1000000;
+
+	/*
+	 * Results of one run, decoded to external IDs
+	 */
+	private static final class Outcome {
+		final Set<String> sources = new HashSet<>();
+		final Map<String, List<Integer>> exposures = new TreeMap<>();
+		final List<Set<String>> infected = new ArrayList<>();
+
+		Outcome(ContactEngine engine, IDDictionary mobileDictionary, List<InfectionModel> models) {
+			for (Integer id : engine.getSourceMobileIDs()) {
+				this.sources.add(mobileDictionary.decode(id.intValue()));
+			}
+			for (Map.Entry<Integer, List<Integer>> e : engine.getExposureLists().toMap().entrySet()) {
+				List<Integer> places = new ArrayList<>(e.getValue());
+				Collections.sort(places);
+				this.exposures.put(mobileDictionary.decode(e.getKey().intValue()), places);
+			}
+			for (InfectionModel model : models) {
+				Set<String> set = new HashSet<>();
+				for (Integer id : engine.getInfectedMobileIDs(model)) {
+					set.add(mobileDictionary.decode(id.intValue()));
+				}
+				this.infected.add(set);
+			}
+		}
+	}
+
+	/**
+	 * @param args path to input file of FractalRabbit waypoints
+	 * @throws IOException if a checkpoint cannot be copied or read
+	 */
+	public static void main(String[] args) throws IOException {
+		EncodedWaypointCSVReader reader = new EncodedWaypointCSVReader(args[0]);
+		Set<Integer> sources = Harness.sources(reader.numMobileIDs());
+		File root = Files.createTempDirectory("checkpoint-consistency").toFile();
+		Checkpoint full = new Checkpoint(new File(root, "full").getPath());
+		full.writeLoad(reader.getColumns(), reader.getMobileDictionary(), reader.getPlaceDictionary());
+		ContactEngine engine = new ContactEngine(WIDTH, sources, reader.getColumns(), reader.numMobileIDs(),
+				reader.numPlaceIDs());
+		engine.setCheckpoint(full);
+		List<InfectionModel> models = registerModels(engine);
+		engine.simulateInfections(SEED);
+		Outcome expected = new Outcome(engine, reader.getMobileDictionary(), models);
+
+		for (Checkpoint.Phase last : Checkpoint.Phase.values()) {
+			resumeAndCompare(expected, root, last, sources, false);
+			if (last == Checkpoint.Phase.SOJOURNS) {
+				resumeAndCompare(expected, root, last, sources, true);
+			}
+		}
+		full.clear();
+		root.delete();
+		Harness.exit();
+	}
+
+	private static List<InfectionModel> registerModels(ContactEngine engine) {
+		List<InfectionModel> models = List.of(new ConstantRateModel(P), new PlaceDependentRateModel(P, SEED));
+		for (InfectionModel model : models) {
+			engine.registerModel(model);
+		}
+		return models;
+	}
+
+	/*
+	 * Copies the phase files up to last, resumes from the copy and runs to the end.
+	 * A checkpoint ending with LOAD is resumed by the caller, with the same sources
+	 * as the uninterrupted run.
+	 */
+	private static void resumeAndCompare(Outcome expected, File root, Checkpoint.Phase last,
+			Set<Integer> sources, boolean compressed) throws IOException {
+		File directory = new File(root, last.name().toLowerCase() + (compressed ? "-compressed" : ""));
+		Checkpoint checkpoint = new Checkpoint(directory.getPath());
+		for (Checkpoint.Phase phase : Checkpoint.Phase.values()) {
+			if (phase.compareTo(last) <= 0) {
+				String name = phase.name().toLowerCase() + ".ckpt";
+				Files.copy(new File(root, "full/" + name).toPath(), new File(directory, name).toPath());
+			}
+		}
+		boolean cut = (checkpoint.lastCompleted() == last);
+		Checkpoint.Load load = checkpoint.readLoad(last.compareTo(Checkpoint.Phase.EXPOSURES) < 0);
+		ContactEngine engine = ContactEngine.resume(checkpoint, load, compressed);
+		if (engine == null) {
+			engine = new ContactEngine(WIDTH, sources, load.getWaypoints(), load.numMobileIDs(), load.numPlaces());
+			engine.setCheckpoint(checkpoint);
+		}
+		List<InfectionModel> models = registerModels(engine);
+		engine.simulateInfections(SEED);
+		Outcome actual = new Outcome(engine, load.getMobileDictionary(), models);
+		checkpoint.clear();
+
+		System.out.println("Resumed after " + last + (compressed ? ", compressed:" : ":"));
+		Harness.check("Checkpoint cut after the phase", cut);
+		Harness.check("Sources agree", expected.sources.equals(actual.sources));
+		Harness.check("Exposure lists agree", expected.exposures.equals(actual.exposures));
+		Harness.check("Infected mobileIDs agree", expected.infected.equals(actual.infected));
+	}
+
+}
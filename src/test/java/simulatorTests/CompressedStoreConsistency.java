@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package simulatorTests;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+
+import simulators.ContactEngine;
+import simulators.ExecutionConfig;
+import utilities.CompressedWaypointStore;
+import utilities.EncodedWaypointCSVReader;
+import utilities.WaypointColumns;
+
+/**
+ * Round trips waypoints through CompressedWaypointStore: toColumns() must give
+ * back the same rows, bit for bit, in mobileID order, whether the blocks store
+ * ticks or raw timestamps (times off the tick grid, NaNs, -0.0, infinities).
+ * Then runs ContactEngine on the waypoints of the file, once on the columns and
+ * once on the store, with one block per task; exposure lists and vulnerable
+ * mobileIDs must agree exactly.
+ */
+public class CompressedStoreConsistency {
+
+	/**
+	 * @param args path to input file of FractalRabbit waypoints
+	 */
+	public static void main(String[] args) {
+		EncodedWaypointCSVReader reader = new EncodedWaypointCSVReader(args[0]);
+		int numMobileIDs = reader.numMobileIDs();
+		roundTrip("Waypoints of the file", reader.getColumns(), numMobileIDs);
+		Random g = new Random(Harness.SOURCE_SEED);
+		WaypointColumns offGrid = new WaypointColumns();
+		WaypointColumns special = new WaypointColumns();
+		WaypointColumns zeros = new WaypointColumns();
+		double[] zeroTimes = { -0.0, 0.0, -1.0, 1.0 };
+		double[] specialTimes = { -0.0, 0.0, Double.NaN, Double.longBitsToDouble(0x7ff0000000000001L),
+				Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -1.5, 2.25 };
+		for (int i = 0; i < 50000; i++) {
+			offGrid.add(g.nextInt(100), (g.nextDouble() - 0.5) * 20.0, g.nextInt(300));
+			special.add(g.nextInt(100), specialTimes[g.nextInt(specialTimes.length)], g.nextInt(300));
+			zeros.add(g.nextInt(100), zeroTimes[g.nextInt(zeroTimes.length)], g.nextInt(300));
+		}
+		roundTrip("Times off the tick grid", offGrid, 100);
+		roundTrip("Signed zeros, NaNs and infinities", special, 100);
+		roundTrip("Signed zeros on the tick grid", zeros, 100);
+		/* whole blocks of each kind, each device on the grid or off it */
+		WaypointColumns mixed = new WaypointColumns();
+		for (int i = 0; i < 50000; i++) {
+			int id = g.nextInt(20);
+			double t = Math.floor(g.nextDouble() * 14.0 * 1e6) / 1e6;
+			mixed.add(id, (id % 2 == 0) ? t : t + 1e-9, g.nextInt(300));
+		}
+		roundTrip("Blocks of ticks and raw blocks", mixed, 20);
+
+		double width = 1.0 / 48.0;
+		Set<Integer> sources = Harness.sources(numMobileIDs);
+		ContactEngine columns = new ContactEngine(width, sources, reader.getColumns(), numMobileIDs,
+				reader.numPlaceIDs());
+		ContactEngine store = new ContactEngine(width, sources,
+				new CompressedWaypointStore(reader.getColumns(), numMobileIDs), numMobileIDs, reader.numPlaceIDs());
+		try (ExecutionConfig execution = ExecutionConfig.dedicated(4)
+				.withThreshold(ExecutionConfig.Phase.EXPOSURE_BLOCKS, 1)) {
+			store.setExecutionConfig(execution);
+			System.out.println("Exposures of the file:");
+			Harness.check("Exposure lists agree", Harness.listsAgree(columns.getExposureLists().toMap(),
+					store.getExposureLists().toMap(), "the columns", "the store"));
+			Harness.check("Vulnerable mobileIDs agree",
+					columns.getVulnerableMobileIDs().equals(store.getVulnerableMobileIDs()));
+		}
+		Harness.exit();
+	}
+
+	private static void roundTrip(String label, WaypointColumns waypoints, int numMobileIDs) {
+		WaypointColumns decoded = new CompressedWaypointStore(waypoints, numMobileIDs).toColumns();
+		boolean inOrder = true;
+		for (int i = 1; i < decoded.size(); i++) {
+			inOrder &= decoded.mobileID(i - 1) <= decoded.mobileID(i);
+		}
+		System.out.println(label + ", " + waypoints.size() + " rows:");
+		Harness.check("Rows agree", Arrays.deepEquals(sortedRows(waypoints), sortedRows(decoded)));
+		Harness.check("Rows are in mobileID order", inOrder);
+	}
+
+	/*
+	 * (mobileID, raw bits of the timestamp, placeID) of each row, sorted
+	 */
+	private static long[][] sortedRows(WaypointColumns waypoints) {
+		long[][] rows = new long[waypoints.size()][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new long[] { waypoints.mobileID(i), Double.doubleToRawLongBits(waypoints.timeStamp(i)),
+					waypoints.placeID(i) };
+		}
+		Arrays.sort(rows, Comparator.<long[]>comparingLong(r -> r[0]).thenComparingLong(r -> r[1])
+				.thenComparingLong(r -> r[2]));
+		return rows;
+	}
+
+}
@@ -0,0 +1,51 @@
+/**
+ * 
+ */
+package simulatorTests;
+
+import java.util.Map;
+import java.util.Set;
+
+import simulators.ConstantRateModel;
+import simulators.ContactEngine;
+import simulators.PlaceDependentContactMaker;
+import simulators.PlaceDependentRateModel;
+import utilities.EncodedWaypointCSVReader;
+
+/**
+ * Runs ContactEngine and PlaceDependentContactMaker on the same waypoints and
+ * sources. Exposure lists, tallies and place probabilities must agree exactly.
+ */
+public class ContactEngineConsistency {
+
+	/**
+	 * @param args path to input file of FractalRabbit waypoints
+	 */
+	public static void main(String[] args) {
+		double width = 1.0 / 48.0;
+		double p = 0.1;
+		long seed = 1000000;
+		EncodedWaypointCSVReader reader = new EncodedWaypointCSVReader(args[0]);
+		Set<Integer> sources = Harness.sources(reader.numMobileIDs());
+		PlaceDependentContactMaker<Integer, Integer> oldMaker = new PlaceDependentContactMaker<Integer, Integer>(
+				width, p, seed, sources, reader.getColumns().toGenericWaypointList());
+		ContactEngine engine = new ContactEngine(width, sources, reader.getColumns(), reader.numMobileIDs(),
+				reader.numPlaceIDs());
+		PlaceDependentRateModel placeModel = new PlaceDependentRateModel(p, seed);
+		engine.registerModel(new ConstantRateModel(p));
+		engine.registerModel(placeModel);
+		engine.simulateInfections(seed);
+
+		boolean probabilitiesAgree = true;
+		for (Map.Entry<Integer, Double> e : oldMaker.getProbabilitiesForEachPlace().entrySet()) {
+			probabilitiesAgree &= (e.getValue() == placeModel.infectionProbability(e.getKey()));
+		}
+		Harness.check("Exposure lists agree", Harness.listsAgree(oldMaker.getExposurePlaceListByID(),
+				engine.getExposureLists().toMap(), "PlaceDependentContactMaker", "ContactEngine"));
+		Harness.check("Tallies agree",
+				oldMaker.tallyExposureStatistics().equals(engine.tallyExposureStatistics()));
+		Harness.check("Place probabilities agree", probabilitiesAgree);
+		Harness.exit();
+	}
+
+}
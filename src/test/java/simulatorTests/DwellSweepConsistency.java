@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package simulatorTests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simulators.ExposureLists;
+import utilities.DwellIntervals;
+import utilities.EncodedWaypointCSVReader;
+
+/**
+ * Compares the sweep of ExposureLists.fromDwellIntervals with a brute force
+ * pass over every pair of dwell intervals at each place: a non-source interval
+ * is exposed once for each source interval it overlaps. Exposure lists and
+ * vulnerable mobileIDs must agree exactly, for several widths.
+ */
+public class DwellSweepConsistency {
+
+	/**
+	 * @param args path to input file of FractalRabbit waypoints
+	 */
+	public static void main(String[] args) {
+		EncodedWaypointCSVReader reader = new EncodedWaypointCSVReader(args[0]);
+		int numMobileIDs = reader.numMobileIDs();
+		boolean[] isSource = Harness.isSource(Harness.sources(numMobileIDs), numMobileIDs);
+		for (double width : new double[] { 1.0 / 48.0, 1.0 / 4.0, 1.0 }) {
+			DwellIntervals intervals = new DwellIntervals(reader.getColumns(), width, numMobileIDs,
+					reader.numPlaceIDs());
+			boolean[] vulnerable = new boolean[numMobileIDs];
+			ExposureLists sweep = ExposureLists.fromDwellIntervals(intervals, id -> isSource[id], numMobileIDs,
+					vulnerable);
+			boolean[] expectedVulnerable = new boolean[numMobileIDs];
+			Map<Integer, List<Integer>> expected = bruteForce(intervals, isSource, expectedVulnerable);
+			Map<Integer, List<Integer>> actual = new HashMap<>();
+			for (Map.Entry<Integer, List<Integer>> e : sweep.toMap().entrySet()) {
+				List<Integer> places = new ArrayList<>(e.getValue());
+				places.sort(null);
+				actual.put(e.getKey(), places);
+			}
+			System.out.println("Width " + width + ", " + sweep.totalExposures() + " exposures:");
+			Harness.check("Exposure lists agree", expected.equals(actual));
+			Harness.check("Vulnerable mobileIDs agree", Arrays.equals(expectedVulnerable, vulnerable));
+		}
+		Harness.exit();
+	}
+
+	/*
+	 * Every pair of intervals at each place; [s, e) and [s', e') overlap when
+	 * s < e' and s' < e. Lists are sorted by place.
+	 */
+	private static Map<Integer, List<Integer>> bruteForce(DwellIntervals intervals, boolean[] isSource,
+			boolean[] vulnerable) {
+		Map<Integer, List<Integer>> exposures = new HashMap<>();
+		int[] offsets = intervals.offsets();
+		for (int v = 0; v < intervals.numPlaces(); v++) {
+			for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+				if (!isSource[intervals.mobileID(i)]) {
+					continue;
+				}
+				for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+					int id = intervals.mobileID(j);
+					if (isSource[id]) {
+						continue;
+					}
+					vulnerable[id] = true;
+					if (intervals.start(i) < intervals.end(j) && intervals.start(j) < intervals.end(i)) {
+						exposures.computeIfAbsent(Integer.valueOf(id), k -> new ArrayList<>()).add(Integer.valueOf(v));
+					}
+				}
+			}
+		}
+		return exposures;
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package simulatorTests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * What the consistency harnesses share: the fixed sample of sources, the
+ * comparison of exposure lists, and the exit status. Each check prints one
+ * "... agree: true" line; the harness exits with status 1 if any was false.
+ */
+final class Harness {
+
+	static final long SOURCE_SEED = 59682;
+
+	private static boolean failed;
+
+	private Harness() {
+	}
+
+	/**
+	 * @return one mobileID in a hundred, at least one, drawn with SOURCE_SEED
+	 */
+	static Set<Integer> sources(int numMobileIDs) {
+		Random g = new Random(SOURCE_SEED);
+		Set<Integer> sources = new HashSet<>();
+		while (sources.size() < Math.max(1, numMobileIDs / 100)) {
+			sources.add(Integer.valueOf(g.nextInt(numMobileIDs)));
+		}
+		return sources;
+	}
+
+	/**
+	 * @return true for the sources, indexed by mobileID
+	 */
+	static boolean[] isSource(Set<Integer> sources, int numMobileIDs) {
+		boolean[] isSource = new boolean[numMobileIDs];
+		for (Integer id : sources) {
+			isSource[id.intValue()] = true;
+		}
+		return isSource;
+	}
+
+	/**
+	 * Exposure lists keyed by mobileID agree if they have the same keys and the
+	 * same places for each key, in any order; mobileIDs found on one side only are
+	 * printed.
+	 */
+	static boolean listsAgree(Map<Integer, List<Integer>> expected, Map<Integer, List<Integer>> actual,
+			String expectedName, String actualName) {
+		Set<Integer> onlyExpected = new HashSet<>(expected.keySet());
+		onlyExpected.removeAll(actual.keySet());
+		Set<Integer> onlyActual = new HashSet<>(actual.keySet());
+		onlyActual.removeAll(expected.keySet());
+		boolean agree = onlyExpected.isEmpty() && onlyActual.isEmpty();
+		if (!agree) {
+			System.out.println(onlyExpected.size() + " mobileIDs exposed only by " + expectedName + ", "
+					+ onlyActual.size() + " only by " + actualName);
+		}
+		for (Map.Entry<Integer, List<Integer>> e : expected.entrySet()) {
+			if (actual.containsKey(e.getKey())) {
+				List<Integer> a = new ArrayList<>(e.getValue());
+				List<Integer> b = new ArrayList<>(actual.get(e.getKey()));
+				Collections.sort(a);
+				Collections.sort(b);
+				agree &= a.equals(b);
+			}
+		}
+		return agree;
+	}
+
+	/**
+	 * Prints "label: agree" and remembers a failure.
+	 */
+	static void check(String label, boolean agree) {
+		System.out.println(label + ": " + agree);
+		failed |= !agree;
+	}
+
+	/**
+	 * Ends the harness, with status 1 if any check failed.
+	 */
+	static void exit() {
+		System.exit(failed ? 1 : 0);
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package simulatorTests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import simulators.ContactEngine;
+import simulators.IncrementalContactEngine;
+import simulators.PlaceDependentRateModel;
+import utilities.EncodedWaypointCSVReader;
+import utilities.WaypointColumns;
+
+/**
+ * Appends the waypoints to IncrementalContactEngine one day at a time, first
+ * in forward and then in reverse order of days, and runs ContactEngine on all
+ * of them at once, with the same sources. Exposure lists, exposed and
+ * vulnerable mobileIDs and place probabilities must agree exactly; infections
+ * are drawn from other streams, so they are only checked to be exposed.
+ */
+public class IncrementalConsistency {
+
+	/**
+	 * @param args path to input file of FractalRabbit waypoints
+	 */
+	public static void main(String[] args) {
+		double width = 1.0 / 48.0;
+		double p = 0.1;
+		long seed = 1000000;
+		EncodedWaypointCSVReader reader = new EncodedWaypointCSVReader(args[0]);
+		Set<Integer> sources = Harness.sources(reader.numMobileIDs());
+		ContactEngine batch = new ContactEngine(width, sources, reader.getColumns(), reader.numMobileIDs(),
+				reader.numPlaceIDs());
+		PlaceDependentRateModel batchModel = new PlaceDependentRateModel(p, seed);
+		batch.registerModel(batchModel);
+		batch.simulateInfections(seed);
+
+		List<WaypointColumns> days = new ArrayList<>(splitByDay(reader.getColumns()).values());
+		check("In order of days", batch, batchModel, days, width, p, seed);
+		Collections.reverse(days);
+		check("In reverse order of days", batch, batchModel, days, width, p, seed);
+		Harness.exit();
+	}
+
+	/*
+	 * Waypoints of each day, keyed by the integer part of the time stamp
+	 */
+	private static Map<Long, WaypointColumns> splitByDay(WaypointColumns waypoints) {
+		Map<Long, WaypointColumns> days = new TreeMap<>();
+		for (int i = 0; i < waypoints.size(); i++) {
+			days.computeIfAbsent(Long.valueOf((long) Math.floor(waypoints.timeStamp(i))), k -> new WaypointColumns())
+					.add(waypoints.mobileID(i), waypoints.timeStamp(i), waypoints.placeID(i));
+		}
+		return days;
+	}
+
+	private static void check(String label, ContactEngine batch, PlaceDependentRateModel batchModel,
+			List<WaypointColumns> days, double width, double p, long seed) {
+		IncrementalContactEngine engine = new IncrementalContactEngine(width, batch.getSourceMobileIDs(), seed);
+		PlaceDependentRateModel model = new PlaceDependentRateModel(p, seed);
+		engine.registerModel(model);
+		for (WaypointColumns day : days) {
+			engine.append(day);
+			engine.updateInfections();
+		}
+
+		System.out.println(label + ":");
+		Harness.check("Exposure lists agree", Harness.listsAgree(batch.getExposureLists().toMap(),
+				engine.getExposureLists().toMap(), "the batch run", "the incremental run"));
+		boolean probabilitiesAgree = (engine.getNumPlaces() == batch.getNumPlaces());
+		for (int v = 0; v < Math.min(engine.getNumPlaces(), batch.getNumPlaces()); v++) {
+			probabilitiesAgree &= (model.infectionProbability(v) == batchModel.infectionProbability(v));
+		}
+		Harness.check("Exposed mobileIDs agree", engine.getExposedMobileIDs().equals(batch.getExposedMobileIDs()));
+		Harness.check("Vulnerable mobileIDs agree",
+				engine.getVulnerableMobileIDs().equals(batch.getVulnerableMobileIDs()));
+		Harness.check("Place probabilities agree", probabilitiesAgree);
+		Harness.check("Infected mobileIDs are exposed",
+				engine.getExposedMobileIDs().containsAll(engine.getInfectedMobileIDs(model)));
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package simulatorTests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import utilities.EncodedWaypointCSVReader;
+import utilities.RadixSort;
+import utilities.WaypointColumns;
+
+/**
+ * Compares the permutation of RadixSort.sortByPlaceAndTime with Arrays.sort of
+ * the rows by placeID, then timestamp (Double.compare), then row. The two must
+ * agree exactly, which checks that ties keep their row order. Inputs are the
+ * waypoints of the file, random rows with many ties, and edge cases: negative
+ * times, -0.0 and 0.0, NaNs and infinities, and keys that differ only in some
+ * digits, or not at all, so that passes are skipped.
+ */
+public class RadixSortConsistency {
+
+	/**
+	 * @param args path to input file of FractalRabbit waypoints
+	 */
+	public static void main(String[] args) {
+		check("Waypoints of the file", new EncodedWaypointCSVReader(args[0]).getColumns());
+		Random g = new Random(Harness.SOURCE_SEED);
+		check("No rows", new WaypointColumns());
+		check("One row", rows(g, 1, new double[] { Double.NaN }, new int[] { 7 }));
+		/* more rows than one chunk, so that passes run in parallel */
+		double[] days = new double[1000];
+		for (int k = 0; k < days.length; k++) {
+			days[k] = (k - 500) / 48.0;
+		}
+		int[] places = new int[5000];
+		Arrays.setAll(places, v -> v);
+		check("Random rows with ties", rows(g, 300000, days, places));
+		check("Signed zeros, NaNs and infinities",
+				rows(g, 100000,
+						new double[] { -0.0, 0.0, Double.NaN, Double.longBitsToDouble(0xfff8000000000001L),
+								Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.MIN_VALUE,
+								-Double.MIN_VALUE, -1.5, 1.5, -Double.MAX_VALUE, Double.MAX_VALUE },
+						new int[] { 0, 1, 2 }));
+		check("Equal times", rows(g, 100000, new double[] { 3.25 }, places));
+		check("Equal places", rows(g, 100000, days, new int[] { 42 }));
+		check("Equal keys", rows(g, 100000, new double[] { -2.0 }, new int[] { 3 }));
+		/* keys differing only in their highest digits, and only in their lowest */
+		check("Only high digits vary", rows(g, 100000, new double[] { -1e300, -1.0, 1.0, 1e300 },
+				new int[] { 1 << 22, 1 << 23, 1 << 30 }));
+		check("Only low digits vary", rows(g, 100000,
+				new double[] { 1.0, Math.nextUp(1.0), Math.nextUp(Math.nextUp(1.0)) }, new int[] { 0, 1 }));
+		Harness.exit();
+	}
+
+	/*
+	 * n rows with times and places drawn from the given values, and mobileID the
+	 * row number
+	 */
+	private static WaypointColumns rows(Random g, int n, double[] times, int[] places) {
+		WaypointColumns waypoints = new WaypointColumns(n);
+		for (int i = 0; i < n; i++) {
+			waypoints.add(i, times[g.nextInt(times.length)], places[g.nextInt(places.length)]);
+		}
+		return waypoints;
+	}
+
+	private static void check(String label, WaypointColumns waypoints) {
+		int[] actual = RadixSort.sortByPlaceAndTime(waypoints);
+		Integer[] rows = new Integer[waypoints.size()];
+		Arrays.setAll(rows, Integer::valueOf);
+		Arrays.sort(rows, (a, b) -> {
+			int i = a.intValue(), j = b.intValue();
+			int c = Integer.compare(waypoints.placeID(i), waypoints.placeID(j));
+			if (c == 0) {
+				c = Double.compare(waypoints.timeStamp(i), waypoints.timeStamp(j));
+			}
+			return (c != 0) ? c : Integer.compare(i, j);
+		});
+		int[] expected = Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+		System.out.println(label + ", " + waypoints.size() + " rows:");
+		Harness.check("Orders agree", Arrays.equals(expected, actual));
+	}
+
+}